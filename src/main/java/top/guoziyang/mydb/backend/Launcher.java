@@ -6,11 +6,19 @@ import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import top.guoziyang.mydb.backend.common.DBConfig;
+import top.guoziyang.mydb.backend.common.EvictionPolicy;
+import top.guoziyang.mydb.backend.dm.Checkpointer;
 import top.guoziyang.mydb.backend.dm.DataManager;
+import top.guoziyang.mydb.backend.dm.Recover;
+import top.guoziyang.mydb.backend.dm.logger.LoggerImpl;
+import top.guoziyang.mydb.backend.dm.pageCache.PageCacheImpl;
 import top.guoziyang.mydb.backend.server.Server;
 import top.guoziyang.mydb.backend.tbm.TableManager;
+import top.guoziyang.mydb.backend.tbm.Vacuum;
 import top.guoziyang.mydb.backend.tm.TransactionManager;
 import top.guoziyang.mydb.backend.utils.Panic;
+import top.guoziyang.mydb.backend.vm.CommitFlusher;
 import top.guoziyang.mydb.backend.vm.VersionManager;
 import top.guoziyang.mydb.backend.vm.VersionManagerImpl;
 import top.guoziyang.mydb.common.Error;
@@ -19,7 +27,7 @@ public class Launcher {
 
     public static final int port = 9999;
 
-    public static final long DEFALUT_MEM = (1<<20)*64;
+    public static final long DEFALUT_MEM = DBConfig.DEFAULT_MEM;
     public static final long KB = 1 << 10;
 	public static final long MB = 1 << 20;
 	public static final long GB = 1 << 30;
@@ -29,37 +37,199 @@ public class Launcher {
         options.addOption("open", true, "-open DBPath");
         options.addOption("create", true, "-create DBPath");
         options.addOption("mem", true, "-mem 64MB");
+        options.addOption("cachePolicy", true, "-cachePolicy clock|lru-k|2q");
+        options.addOption("mmap", false, "-mmap");
+        options.addOption("dirtyRatio", true, "-dirtyRatio 50");
+        options.addOption("vacuum", true, "-vacuum 10 (seconds, 0 to disable)");
+        options.addOption("groupWindow", true, "-groupWindow 0 (microseconds)");
+        options.addOption("groupSize", true, "-groupSize 64KB");
+        options.addOption("checkpoint", true, "-checkpoint 30 (seconds, 0 to disable)");
+        options.addOption("recoveryWorkers", true, "-recoveryWorkers 1");
+        options.addOption("asyncCommit", false, "-asyncCommit");
+        options.addOption("asyncFlush", true, "-asyncFlush 10 (milliseconds)");
         CommandLineParser parser = new DefaultParser();
         CommandLine cmd = parser.parse(options,args);
 
         if(cmd.hasOption("open")) {
-            openDB(cmd.getOptionValue("open"), parseMem(cmd.getOptionValue("mem")));
+            openDB(cmd.getOptionValue("open"), parseConfig(cmd));
             return;
         }
         if(cmd.hasOption("create")) {
-            createDB(cmd.getOptionValue("create"));
+            createDB(cmd.getOptionValue("create"), parseConfig(cmd));
             return;
         }
         System.out.println("Usage: launcher (open|create) DBPath");
     }
 
-    private static void createDB(String path) {
+    private static DBConfig parseConfig(CommandLine cmd) {
+        DBConfig config = new DBConfig();
+        config.mem = parseMem(cmd.getOptionValue("mem"));
+        config.cachePolicy = parseCachePolicy(cmd.getOptionValue("cachePolicy"));
+        config.mmap = cmd.hasOption("mmap");
+        config.dirtyRatio = parseDirtyRatio(cmd.getOptionValue("dirtyRatio"));
+        config.groupWindow = parseGroupWindow(cmd.getOptionValue("groupWindow"));
+        config.groupSize = parseGroupSize(cmd.getOptionValue("groupSize"));
+        config.recoveryWorkers = parseRecoveryWorkers(cmd.getOptionValue("recoveryWorkers"));
+        config.vacuumInterval = parseVacuumInterval(cmd.getOptionValue("vacuum"));
+        config.checkpointInterval = parseCheckpointInterval(cmd.getOptionValue("checkpoint"));
+        config.asyncCommit = cmd.hasOption("asyncCommit");
+        config.asyncFlushInterval = parseAsyncFlushInterval(cmd.getOptionValue("asyncFlush"));
+        return config;
+    }
+
+    private static void createDB(String path, DBConfig config) {
         TransactionManager tm = TransactionManager.create(path);
-        DataManager dm = DataManager.create(path, DEFALUT_MEM, tm);
+        DataManager dm = DataManager.create(path, config, tm);
         VersionManager vm = new VersionManagerImpl(tm, dm);
         TableManager.create(path, vm, dm);
         tm.close();
         dm.close();
     }
 
-    private static void openDB(String path, long mem) {
+    private static void openDB(String path, DBConfig config) {
         TransactionManager tm = TransactionManager.open(path);
-        DataManager dm = DataManager.open(path, mem, tm);
-        VersionManager vm = new VersionManagerImpl(tm, dm);
+        DataManager dm = DataManager.open(path, config, tm);
+        VersionManager vm = new VersionManagerImpl(tm, dm, config.asyncCommit);
         TableManager tbm = TableManager.open(path, vm, dm);
+        CommitFlusher.start(tm, dm, config.asyncFlushInterval);
+        if(config.vacuumInterval > 0) {
+            Vacuum.start(tbm, config.vacuumInterval);
+        }
+        if(config.checkpointInterval > 0) {
+            Checkpointer.start(dm, config.checkpointInterval);
+        }
         new Server(port, tbm).start();
     }
 
+    private static String parseCachePolicy(String policy) {
+        if(policy == null || "".equals(policy)) {
+            return EvictionPolicy.CLOCK;
+        }
+        switch(policy) {
+            case EvictionPolicy.CLOCK:
+            case EvictionPolicy.LRU_K:
+            case EvictionPolicy.TWO_QUEUE:
+                return policy;
+            default:
+                Panic.panic(Error.InvalidCachePolicyException);
+        }
+        return EvictionPolicy.CLOCK;
+    }
+
+    // 脏页高水位，占缓存页数的百分比
+    private static int parseDirtyRatio(String ratioStr) {
+        if(ratioStr == null || "".equals(ratioStr)) {
+            return PageCacheImpl.DEFAULT_DIRTY_RATIO;
+        }
+        int ratio = 0;
+        try {
+            ratio = Integer.parseInt(ratioStr);
+        } catch(NumberFormatException e) {
+            Panic.panic(Error.InvalidDirtyRatioException);
+        }
+        if(ratio <= 0 || ratio > 100) {
+            Panic.panic(Error.InvalidDirtyRatioException);
+        }
+        return ratio;
+    }
+
+    // 日志组提交时领导者等待更多日志的微秒数
+    private static long parseGroupWindow(String windowStr) {
+        if(windowStr == null || "".equals(windowStr)) {
+            return LoggerImpl.DEFAULT_GROUP_WINDOW;
+        }
+        long window = 0;
+        try {
+            window = Long.parseLong(windowStr);
+        } catch(NumberFormatException e) {
+            Panic.panic(Error.InvalidGroupCommitException);
+        }
+        if(window < 0) {
+            Panic.panic(Error.InvalidGroupCommitException);
+        }
+        return window;
+    }
+
+    // 一批日志达到该大小后立即落盘，格式同-mem
+    private static int parseGroupSize(String sizeStr) {
+        if(sizeStr == null || "".equals(sizeStr)) {
+            return LoggerImpl.DEFAULT_GROUP_SIZE;
+        }
+        long size = parseMem(sizeStr);
+        if(size <= 0 || size > Integer.MAX_VALUE) {
+            Panic.panic(Error.InvalidGroupCommitException);
+        }
+        return (int)size;
+    }
+
+    // 后台回收旧版本的间隔秒数，0表示不启动
+    private static long parseVacuumInterval(String intervalStr) {
+        if(intervalStr == null || "".equals(intervalStr)) {
+            return Vacuum.DEFAULT_INTERVAL;
+        }
+        long interval = 0;
+        try {
+            interval = Long.parseLong(intervalStr);
+        } catch(NumberFormatException e) {
+            Panic.panic(Error.InvalidVacuumIntervalException);
+        }
+        if(interval < 0) {
+            Panic.panic(Error.InvalidVacuumIntervalException);
+        }
+        return interval;
+    }
+
+    // 后台检查点的间隔秒数，0表示不启动
+    private static long parseCheckpointInterval(String intervalStr) {
+        if(intervalStr == null || "".equals(intervalStr)) {
+            return Checkpointer.DEFAULT_INTERVAL;
+        }
+        long interval = 0;
+        try {
+            interval = Long.parseLong(intervalStr);
+        } catch(NumberFormatException e) {
+            Panic.panic(Error.InvalidCheckpointIntervalException);
+        }
+        if(interval < 0) {
+            Panic.panic(Error.InvalidCheckpointIntervalException);
+        }
+        return interval;
+    }
+
+    // 异步提交落盘的间隔毫秒数
+    private static long parseAsyncFlushInterval(String intervalStr) {
+        if(intervalStr == null || "".equals(intervalStr)) {
+            return CommitFlusher.DEFAULT_INTERVAL;
+        }
+        long interval = 0;
+        try {
+            interval = Long.parseLong(intervalStr);
+        } catch(NumberFormatException e) {
+            Panic.panic(Error.InvalidAsyncFlushIntervalException);
+        }
+        if(interval <= 0) {
+            Panic.panic(Error.InvalidAsyncFlushIntervalException);
+        }
+        return interval;
+    }
+
+    // 恢复时并行重做的线程数
+    private static int parseRecoveryWorkers(String workersStr) {
+        if(workersStr == null || "".equals(workersStr)) {
+            return Recover.DEFAULT_WORKERS;
+        }
+        int workers = 0;
+        try {
+            workers = Integer.parseInt(workersStr);
+        } catch(NumberFormatException e) {
+            Panic.panic(Error.InvalidRecoveryWorkersException);
+        }
+        if(workers < 1) {
+            Panic.panic(Error.InvalidRecoveryWorkersException);
+        }
+        return workers;
+    }
+
     private static long parseMem(String memStr) {
         if(memStr == null || "".equals(memStr)) {
             return DEFALUT_MEM;
@@ -1,104 +1,346 @@
 package top.guoziyang.mydb.backend.common;
 
-import java.util.HashMap;
-import java.util.Set;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
 
 import top.guoziyang.mydb.common.Error;
 
 /**
  * AbstractCache 实现了一个引用计数策略的缓存
+ *
+ * 每个key对应一个CacheItem，引用计数的增减都在ConcurrentHashMap.compute中完成，
+ * 相当于按桶分段加锁；正在加载的资源通过共享的future等待，只有一个线程执行getForCache
+ *
+ * compute中只修改计数和标记，不执行写回等耗时操作，否则会阻塞同一个桶中的其他key：
+ * 需要独占资源时在compute中设置exclusive，之后在锁外执行操作，获取者等待exclusive结束；
+ * 驱逐时先标记独占，写回之后才移出缓存，重新加载的线程不会读到写回之前的旧数据
+ *
+ * 没有置换策略时，引用计数归零立即驱逐；
+ * 指定置换策略时，引用计数归零的资源继续驻留，缓存满时由策略挑选牺牲者驱逐
  */
 public abstract class AbstractCache<T> {
-    private HashMap<Long, T> cache;                     // 实际缓存的数据
-    private HashMap<Long, Integer> references;          // 元素的引用个数
-    private HashMap<Long, Boolean> getting;             // 正在获取某资源的线程
 
-    private int maxResource;                            // 缓存的最大缓存资源数
-    private int count = 0;                              // 缓存中元素的个数
-    private Lock lock;
+    static class CacheItem<T> {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        int references = 1;         // 元素的引用个数，只在compute中修改
+        CompletableFuture<Void> exclusive;  // 非null时有线程在锁外独占该资源，只在compute中修改
+    }
+
+    private ConcurrentHashMap<Long, CacheItem<T>> cache;    // 实际缓存的数据，包括正在加载的资源
+
+    private int maxResource;                                // 缓存的最大缓存资源数
+    private AtomicInteger count;                            // 缓存中元素的个数
+    private EvictionPolicy policy;                          // 置换策略，为null时不保留未被引用的资源
 
     public AbstractCache(int maxResource) {
+        this(maxResource, null);
+    }
+
+    public AbstractCache(int maxResource, EvictionPolicy policy) {
         this.maxResource = maxResource;
-        cache = new HashMap<>();
-        references = new HashMap<>();
-        getting = new HashMap<>();
-        lock = new ReentrantLock();
+        this.policy = policy;
+        cache = new ConcurrentHashMap<>();
+        count = new AtomicInteger(0);
     }
 
     protected T get(long key) throws Exception {
+        boolean[] loader = new boolean[1];
+        CacheItem<T> item;
         while(true) {
-            lock.lock();
-            if(getting.containsKey(key)) {
-                // 请求的资源正在被其他线程获取
-                lock.unlock();
-                try {
-                    Thread.sleep(1);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                    continue;
+            AtomicReference<CompletableFuture<Void>> busy = new AtomicReference<>();
+            item = cache.compute(key, (k, v) -> {
+                if(v != null) {
+                    if(v.exclusive != null) {
+                        // 资源正在被独占或驱逐
+                        busy.set(v.exclusive);
+                        return v;
+                    }
+                    // 资源在缓存中或正在被其他线程获取
+                    v.references ++;
+                    if(policy != null) {
+                        if(v.references == 1) policy.setEvictable(key, false);
+                        policy.access(key);
+                    }
+                    return v;
+                }
+                if(count.incrementAndGet() > maxResource && maxResource > 0) {
+                    count.decrementAndGet();
+                    return null;
                 }
+                if(policy != null) policy.access(key);
+                loader[0] = true;
+                return new CacheItem<>();
+            });
+            if(busy.get() != null) {
+                busy.get().join();
                 continue;
             }
-
-            if(cache.containsKey(key)) {
-                // 资源在缓存中，直接返回
-                T obj = cache.get(key);
-                references.put(key, references.get(key) + 1);
-                lock.unlock();
-                return obj;
+            if(item != null) break;
+            // 缓存已满，所有资源都被引用时才报错
+            if(!evictOne()) {
+                throw Error.CacheFullException;
             }
+        }
 
-            // 尝试获取该资源
-            if(maxResource > 0 && count == maxResource) {
-                lock.unlock();
-                throw Error.CacheFullException;
+        if(loader[0]) {
+            // 由当前线程获取该资源
+            T obj = null;
+            try {
+                obj = getForCache(key);
+            } catch(Exception e) {
+                cache.remove(key, item);
+                if(policy != null) policy.remove(key);
+                count.decrementAndGet();
+                item.future.completeExceptionally(e);
+                throw e;
             }
-            count ++;
-            getting.put(key, true);
-            lock.unlock();
-            break;
+            item.future.complete(obj);
+            return obj;
         }
 
-        T obj = null;
+        return await(item);
+    }
+
+    // 等待其他线程的加载结束
+    private T await(CacheItem<T> item) throws Exception {
+        boolean interrupted = false;
         try {
-            obj = getForCache(key);
-        } catch(Exception e) {
-            lock.lock();
-            count --;
-            getting.remove(key);
-            lock.unlock();
-            throw e;
+            while(true) {
+                try {
+                    return item.future.get();
+                } catch(InterruptedException e) {
+                    interrupted = true;
+                } catch(ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if(cause instanceof Exception) {
+                        throw (Exception)cause;
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            if(interrupted) {
+                Thread.currentThread().interrupt();
+            }
         }
-
-        lock.lock();
-        getting.remove(key);
-        cache.put(key, obj);
-        references.put(key, 1);
-        lock.unlock();
-        
-        return obj;
     }
 
     /**
      * 强行释放一个缓存
      */
     protected void release(long key) {
-        lock.lock();
+        AtomicReference<CacheItem<T>> evicting = new AtomicReference<>();
+        cache.computeIfPresent(key, (k, v) -> {
+            v.references --;
+            if(v.references > 0) {
+                return v;
+            }
+            if(policy != null) {
+                // 保留在缓存中，等待置换
+                policy.setEvictable(key, true);
+                return v;
+            }
+            v.exclusive = new CompletableFuture<>();
+            evicting.set(v);
+            return v;
+        });
+        if(evicting.get() != null) {
+            evict(key, evicting.get());
+        }
+    }
+
+    // 在锁外写回已标记独占的资源，再移出缓存，等待的获取者随后重新加载
+    private void evict(long key, CacheItem<T> item) {
+        try {
+            releaseForCache(item.future.join());
+        } finally {
+            cache.remove(key, item);
+            count.decrementAndGet();
+            item.exclusive.complete(null);
+        }
+    }
+
+    // 结束独占，等待的获取者继续
+    private void endExclusive(long key, CacheItem<T> item) {
+        CompletableFuture<Void> exclusive = item.exclusive;
+        cache.computeIfPresent(key, (k, v) -> {
+            v.exclusive = null;
+            return v;
+        });
+        exclusive.complete(null);
+    }
+
+    private static <T> boolean isLoaded(CacheItem<T> v) {
+        return v.future.isDone() && !v.future.isCompletedExceptionally();
+    }
+
+    /**
+     * 为预读占位：key不在缓存中时放入一个正在加载、无人引用的资源，必要时驱逐其他资源
+     * 返回true时调用者必须随后调用complete或fail；没有置换策略时不保留无人引用的资源，不支持预读
+     */
+    protected boolean reserve(long key) {
+        if(policy == null) return false;
+        boolean[] reserved = new boolean[1];
+        while(true) {
+            boolean[] full = new boolean[1];
+            cache.compute(key, (k, v) -> {
+                if(v != null) return v;
+                if(count.incrementAndGet() > maxResource && maxResource > 0) {
+                    count.decrementAndGet();
+                    full[0] = true;
+                    return null;
+                }
+                // 新加入策略的资源不可驱逐，加载完成后才交给置换策略
+                policy.access(key);
+                CacheItem<T> item = new CacheItem<>();
+                item.references = 0;
+                reserved[0] = true;
+                return item;
+            });
+            if(!full[0]) return reserved[0];
+            if(!evictOne()) return false;
+        }
+    }
+
+    /**
+     * 预读的资源加载完成，等待者得到该资源，无人引用时可被驱逐
+     */
+    protected void complete(long key, T obj) {
+        cache.computeIfPresent(key, (k, v) -> {
+            v.future.complete(obj);
+            if(v.references == 0) policy.setEvictable(key, true);
+            return v;
+        });
+    }
+
+    /**
+     * 预读的资源加载失败，移除占位
+     */
+    protected void fail(long key, Exception e) {
+        cache.computeIfPresent(key, (k, v) -> {
+            policy.remove(key);
+            count.decrementAndGet();
+            v.future.completeExceptionally(e);
+            return null;
+        });
+    }
+
+    /**
+     * 资源已加载且未被引用时执行action，action返回true则由调用者持有一个引用，之后需调用release
+     * action执行期间独占该资源，其他线程不能获取
+     */
+    protected boolean pinIfUnreferenced(long key, Predicate<T> action) {
+        AtomicReference<CacheItem<T>> pinned = new AtomicReference<>();
+        cache.computeIfPresent(key, (k, v) -> {
+            if(v.references > 0 || v.exclusive != null || !isLoaded(v)) {
+                return v;
+            }
+            v.references ++;
+            v.exclusive = new CompletableFuture<>();
+            if(policy != null) policy.setEvictable(key, false);
+            pinned.set(v);
+            return v;
+        });
+        if(pinned.get() == null) {
+            return false;
+        }
+        boolean keep = false;
         try {
-            int ref = references.get(key)-1;
-            if(ref == 0) {
-                T obj = cache.get(key);
-                releaseForCache(obj);
-                references.remove(key);
-                cache.remove(key);
-                count --;
-            } else {
-                references.put(key, ref);
+            keep = action.test(pinned.get().future.join());
+        } finally {
+            endExclusive(key, pinned.get());
+            if(!keep) release(key);
+        }
+        return keep;
+    }
+
+    /**
+     * 调用者持有该资源唯一的引用时，独占该资源执行action并返回其结果，否则返回-1
+     * 期间其他线程不能获取该资源
+     */
+    protected int runIfExclusive(long key, ToIntFunction<T> action) {
+        AtomicReference<CacheItem<T>> owned = new AtomicReference<>();
+        cache.computeIfPresent(key, (k, v) -> {
+            if(v.references == 1 && v.exclusive == null && isLoaded(v)) {
+                v.exclusive = new CompletableFuture<>();
+                owned.set(v);
             }
+            return v;
+        });
+        if(owned.get() == null) {
+            return -1;
+        }
+        try {
+            return action.applyAsInt(owned.get().future.join());
         } finally {
-            lock.unlock();
+            endExclusive(key, owned.get());
+        }
+    }
+
+    /**
+     * 对每个已加载的资源执行action，执行期间持有一个引用，资源不会被驱逐
+     * 正在驱逐的资源等待其写回结束，之后它已不在缓存中
+     */
+    protected void forEachLoaded(Consumer<T> action) {
+        for(long key : cache.keySet()) {
+            while(true) {
+                AtomicReference<CompletableFuture<Void>> busy = new AtomicReference<>();
+                AtomicReference<CacheItem<T>> pinned = new AtomicReference<>();
+                cache.computeIfPresent(key, (k, v) -> {
+                    if(v.exclusive != null) {
+                        busy.set(v.exclusive);
+                    } else if(isLoaded(v)) {
+                        v.references ++;
+                        if(policy != null && v.references == 1) policy.setEvictable(key, false);
+                        pinned.set(v);
+                    }
+                    return v;
+                });
+                if(busy.get() != null) {
+                    busy.get().join();
+                    continue;
+                }
+                if(pinned.get() != null) {
+                    try {
+                        action.accept(pinned.get().future.join());
+                    } finally {
+                        release(key);
+                    }
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * 按置换策略驱逐一个未被引用的资源，驱逐时写回
+     */
+    private boolean evictOne() {
+        if(policy == null) return false;
+        while(true) {
+            long victim = policy.victim();
+            if(victim < 0) return false;
+            AtomicReference<CacheItem<T>> evicting = new AtomicReference<>();
+            cache.computeIfPresent(victim, (k, v) -> {
+                if(v.references > 0 || v.exclusive != null || !v.future.isDone()) return v;
+                policy.remove(k);
+                v.exclusive = new CompletableFuture<>();
+                evicting.set(v);
+                return v;
+            });
+            if(evicting.get() != null) {
+                evict(victim, evicting.get());
+                return true;
+            }
+            if(!cache.containsKey(victim)) {
+                policy.remove(victim);
+            }
         }
     }
 
@@ -106,17 +348,14 @@ public abstract class AbstractCache<T> {
      * 关闭缓存，写回所有资源
      */
     protected void close() {
-        lock.lock();
-        try {
-            Set<Long> keys = cache.keySet();
-            for (long key : keys) {
-                T obj = cache.get(key);
-                releaseForCache(obj);
-                references.remove(key);
-                cache.remove(key);
+        for(long key : cache.keySet()) {
+            CacheItem<T> item = cache.remove(key);
+            if(item == null) continue;
+            if(policy != null) policy.remove(key);
+            if(isLoaded(item)) {
+                releaseForCache(item.future.join());
             }
-        } finally {
-            lock.unlock();
+            count.decrementAndGet();
         }
     }
 
@@ -0,0 +1,97 @@
+package top.guoziyang.mydb.backend.common;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * CLOCK 置换策略
+ * 每个元素占用环上的一个槽，命中时置位引用位，
+ * 时钟指针扫过时清除引用位，遇到引用位为0且可驱逐的元素即为牺牲者
+ */
+public class ClockPolicy implements EvictionPolicy {
+
+    private long[] keys;
+    private boolean[] referenced;
+    private boolean[] evictable;
+    private boolean[] used;
+    private Map<Long, Integer> slots;
+    private Deque<Integer> freeSlots;
+    private int hand;
+
+    public ClockPolicy(int capacity) {
+        if(capacity <= 0) capacity = 16;
+        keys = new long[capacity];
+        referenced = new boolean[capacity];
+        evictable = new boolean[capacity];
+        used = new boolean[capacity];
+        slots = new HashMap<>();
+        freeSlots = new ArrayDeque<>();
+        for(int i = 0; i < capacity; i ++) {
+            freeSlots.push(capacity-1-i);
+        }
+    }
+
+    @Override
+    public synchronized void access(long key) {
+        Integer slot = slots.get(key);
+        if(slot == null) {
+            if(freeSlots.isEmpty()) grow();
+            slot = freeSlots.pop();
+            slots.put(key, slot);
+            keys[slot] = key;
+            used[slot] = true;
+            evictable[slot] = false;
+        }
+        referenced[slot] = true;
+    }
+
+    @Override
+    public synchronized void setEvictable(long key, boolean e) {
+        Integer slot = slots.get(key);
+        if(slot != null) {
+            evictable[slot] = e;
+        }
+    }
+
+    @Override
+    public synchronized long victim() {
+        int n = keys.length;
+        // 至多转两圈：第一圈清除引用位，第二圈一定能找到可驱逐的元素
+        for(int i = 0; i < 2*n; i ++) {
+            int slot = hand;
+            hand = (hand + 1) % n;
+            if(!used[slot] || !evictable[slot]) continue;
+            if(referenced[slot]) {
+                referenced[slot] = false;
+                continue;
+            }
+            return keys[slot];
+        }
+        return -1;
+    }
+
+    @Override
+    public synchronized void remove(long key) {
+        Integer slot = slots.remove(key);
+        if(slot == null) return;
+        used[slot] = false;
+        evictable[slot] = false;
+        referenced[slot] = false;
+        freeSlots.push(slot);
+    }
+
+    // 缓存短暂超出容量时扩充槽位
+    private void grow() {
+        int n = keys.length;
+        keys = Arrays.copyOf(keys, n*2);
+        referenced = Arrays.copyOf(referenced, n*2);
+        evictable = Arrays.copyOf(evictable, n*2);
+        used = Arrays.copyOf(used, n*2);
+        for(int i = n*2-1; i >= n; i --) {
+            freeSlots.push(i);
+        }
+    }
+}
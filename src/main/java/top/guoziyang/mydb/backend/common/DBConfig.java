@@ -0,0 +1,34 @@
+package top.guoziyang.mydb.backend.common;
+
+import top.guoziyang.mydb.backend.dm.Checkpointer;
+import top.guoziyang.mydb.backend.dm.Recover;
+import top.guoziyang.mydb.backend.dm.logger.LoggerImpl;
+import top.guoziyang.mydb.backend.dm.pageCache.PageCacheImpl;
+import top.guoziyang.mydb.backend.tbm.Vacuum;
+import top.guoziyang.mydb.backend.vm.CommitFlusher;
+
+/**
+ * 数据库的启动参数，创建和打开数据库时整体传递，未设置的项为各模块的默认值
+ */
+public class DBConfig {
+
+    public static final long DEFAULT_MEM = (1<<20)*64;
+
+    public long mem = DEFAULT_MEM;                                  // 页面缓存的字节数
+    public String cachePolicy = EvictionPolicy.CLOCK;               // 页面置换策略
+    public boolean mmap;                                            // 使用基于内存映射的页面缓存
+    public int dirtyRatio = PageCacheImpl.DEFAULT_DIRTY_RATIO;      // 脏页高水位，占缓存页数的百分比
+    public long groupWindow = LoggerImpl.DEFAULT_GROUP_WINDOW;      // 日志组提交等待的微秒数
+    public int groupSize = LoggerImpl.DEFAULT_GROUP_SIZE;           // 日志组提交的批大小
+    public int recoveryWorkers = Recover.DEFAULT_WORKERS;           // 恢复时并行重做的线程数
+    public long vacuumInterval = Vacuum.DEFAULT_INTERVAL;           // 后台回收的间隔秒数，0表示不启动
+    public long checkpointInterval = Checkpointer.DEFAULT_INTERVAL; // 后台检查点的间隔秒数，0表示不启动
+    public boolean asyncCommit;                                     // 默认以异步提交开始事务
+    public long asyncFlushInterval = CommitFlusher.DEFAULT_INTERVAL; // 异步提交落盘的间隔毫秒数
+
+    public static DBConfig withMem(long mem) {
+        DBConfig config = new DBConfig();
+        config.mem = mem;
+        return config;
+    }
+}
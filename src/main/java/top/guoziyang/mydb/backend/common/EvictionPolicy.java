@@ -0,0 +1,42 @@
+package top.guoziyang.mydb.backend.common;
+
+import top.guoziyang.mydb.backend.utils.Panic;
+import top.guoziyang.mydb.common.Error;
+
+/**
+ * 缓存的页面置换策略
+ * 只有引用计数归零（evictable）的元素才能被选为牺牲者
+ * 所有方法都可能被多个线程同时调用，实现需要自行保证线程安全
+ */
+public interface EvictionPolicy {
+
+    public static final String CLOCK = "clock";
+    public static final String LRU_K = "lru-k";
+    public static final String TWO_QUEUE = "2q";
+
+    // 元素被载入或命中
+    void access(long key);
+    // 元素的引用计数归零或重新被引用
+    void setEvictable(long key, boolean evictable);
+    // 选出一个可以驱逐的元素，没有则返回-1
+    long victim();
+    // 元素被驱逐或加载失败，从策略中移除
+    void remove(long key);
+
+    public static EvictionPolicy newPolicy(String name, int capacity) {
+        if(name == null || "".equals(name)) {
+            name = CLOCK;
+        }
+        switch(name) {
+            case CLOCK:
+                return new ClockPolicy(capacity);
+            case LRU_K:
+                return new LruKPolicy(2, capacity);
+            case TWO_QUEUE:
+                return new TwoQueuePolicy(capacity);
+            default:
+                Panic.panic(Error.InvalidCachePolicyException);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,104 @@
+package top.guoziyang.mydb.backend.common;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * LRU-K 置换策略
+ * 记录每个元素最近K次访问的逻辑时间，驱逐倒数第K次访问最早的元素；
+ * 访问不足K次的元素视为距离无穷大，优先按首次访问时间驱逐，因此一次性的扫描不会挤掉热点页
+ * 被驱逐的元素的访问历史继续保留，最多capacity个，驱逐后很快再次访问的热点页不会被当作首次访问
+ */
+public class LruKPolicy implements EvictionPolicy {
+
+    private static class History {
+        long key;
+        long[] times;       // 环形记录最近K次访问时间
+        int accesses;
+        boolean evictable;
+
+        // 排序依据：访问不足K次的排在前面，然后按倒数第K次访问时间
+        long kthTime(int k) {
+            if(accesses < k) return times[0];
+            return times[accesses % k];
+        }
+    }
+
+    private int k;
+    private int capacity;
+    private long clock;
+    private Map<Long, History> histories;
+    private TreeSet<History> candidates;    // 可以被驱逐的元素
+    private LinkedHashMap<Long, History> retired;   // 已被驱逐的元素的访问历史，按驱逐顺序
+
+    public LruKPolicy(int k, int capacity) {
+        this.k = k;
+        this.capacity = capacity;
+        this.histories = new HashMap<>();
+        this.retired = new LinkedHashMap<>();
+        this.candidates = new TreeSet<>((a, b) -> {
+            boolean fa = a.accesses >= k, fb = b.accesses >= k;
+            if(fa != fb) return fa ? 1 : -1;
+            int c = Long.compare(a.kthTime(k), b.kthTime(k));
+            if(c != 0) return c;
+            return Long.compare(a.key, b.key);
+        });
+    }
+
+    @Override
+    public synchronized void access(long key) {
+        History h = histories.get(key);
+        if(h == null) {
+            h = retired.remove(key);
+            if(h == null) {
+                h = new History();
+                h.key = key;
+                h.times = new long[k];
+            }
+            histories.put(key, h);
+        }
+        boolean wasCandidate = h.evictable && candidates.remove(h);
+        h.times[h.accesses % k] = ++clock;
+        h.accesses ++;
+        if(wasCandidate) {
+            candidates.add(h);
+        }
+    }
+
+    @Override
+    public synchronized void setEvictable(long key, boolean evictable) {
+        History h = histories.get(key);
+        if(h == null || h.evictable == evictable) return;
+        h.evictable = evictable;
+        if(evictable) {
+            candidates.add(h);
+        } else {
+            candidates.remove(h);
+        }
+    }
+
+    @Override
+    public synchronized long victim() {
+        if(candidates.isEmpty()) return -1;
+        return candidates.first().key;
+    }
+
+    @Override
+    public synchronized void remove(long key) {
+        History h = histories.remove(key);
+        if(h == null) return;
+        if(h.evictable) {
+            candidates.remove(h);
+            h.evictable = false;
+        }
+        retired.put(key, h);
+        Iterator<History> it = retired.values().iterator();
+        while(retired.size() > capacity) {
+            it.next();
+            it.remove();
+        }
+    }
+}
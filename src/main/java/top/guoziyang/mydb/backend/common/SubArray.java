@@ -1,13 +1,97 @@
 package top.guoziyang.mydb.backend.common;
 
+import java.nio.ByteBuffer;
+
+/**
+ * SubArray 是底层帧[start, end)区间上的访问器
+ * 底层可以是堆内数组、堆外的页帧或内存映射区域，读写时下标都相对于start
+ * 多字节数值按大端序读写，与Parser保持一致
+ */
 public class SubArray {
-    public byte[] raw;
+    public ByteBuffer raw;
     public int start;
     public int end;
 
-    public SubArray(byte[] raw, int start, int end) {
+    public SubArray(ByteBuffer raw, int start, int end) {
         this.raw = raw;
         this.start = start;
         this.end = end;
     }
+
+    public SubArray(byte[] raw, int start, int end) {
+        this(ByteBuffer.wrap(raw), start, end);
+    }
+
+    public int length() {
+        return end - start;
+    }
+
+    public byte get(int i) {
+        return raw.get(start+i);
+    }
+
+    public void put(int i, byte b) {
+        raw.put(start+i, b);
+    }
+
+    public short getShort(int i) {
+        return raw.getShort(start+i);
+    }
+
+    public void putShort(int i, short v) {
+        raw.putShort(start+i, v);
+    }
+
+    public int getInt(int i) {
+        return raw.getInt(start+i);
+    }
+
+    public void putInt(int i, int v) {
+        raw.putInt(start+i, v);
+    }
+
+    public long getLong(int i) {
+        return raw.getLong(start+i);
+    }
+
+    public void putLong(int i, long v) {
+        raw.putLong(start+i, v);
+    }
+
+    // 拷贝出[from, to)区间
+    public byte[] getBytes(int from, int to) {
+        byte[] dst = new byte[to-from];
+        copyTo(from, dst, 0, dst.length);
+        return dst;
+    }
+
+    public void copyTo(int from, byte[] dst, int dstPos, int length) {
+        ByteBuffer view = raw.duplicate();
+        view.position(start+from);
+        view.get(dst, dstPos, length);
+    }
+
+    public void putBytes(int i, byte[] src) {
+        putBytes(i, src, 0, src.length);
+    }
+
+    public void putBytes(int i, byte[] src, int srcPos, int length) {
+        ByteBuffer view = raw.duplicate();
+        view.position(start+i);
+        view.put(src, srcPos, length);
+    }
+
+    // 区间内移动数据，允许重叠
+    public void move(int from, int to, int length) {
+        putBytes(to, getBytes(from, from+length));
+    }
+
+    // 拷贝出整个区间
+    public byte[] toArray() {
+        return getBytes(0, length());
+    }
+
+    public SubArray slice(int from, int to) {
+        return new SubArray(raw, start+from, start+to);
+    }
 }
@@ -0,0 +1,91 @@
+package top.guoziyang.mydb.backend.common;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * 2Q 置换策略
+ * 新元素先进入FIFO队列A1in，被驱逐后只在A1out中保留key；
+ * 在A1out中的元素再次被访问才会进入LRU队列Am。扫描只会冲刷A1in，热点页留在Am中
+ */
+public class TwoQueuePolicy implements EvictionPolicy {
+
+    private int kIn;
+    private int kOut;
+
+    private LinkedHashMap<Long, Boolean> a1in;     // key -> evictable，FIFO
+    private LinkedHashSet<Long> a1out;              // 只记录key的幽灵队列
+    private LinkedHashMap<Long, Boolean> am;       // key -> evictable，LRU
+
+    public TwoQueuePolicy(int capacity) {
+        if(capacity <= 0) capacity = 16;
+        kIn = Math.max(1, capacity / 4);
+        kOut = Math.max(1, capacity / 2);
+        a1in = new LinkedHashMap<>();
+        a1out = new LinkedHashSet<>();
+        am = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    @Override
+    public synchronized void access(long key) {
+        if(am.containsKey(key)) {
+            am.get(key);                // 移到LRU尾部
+            return;
+        }
+        if(a1in.containsKey(key)) {
+            return;
+        }
+        if(a1out.remove(key)) {
+            am.put(key, false);
+        } else {
+            a1in.put(key, false);
+        }
+    }
+
+    @Override
+    public synchronized void setEvictable(long key, boolean evictable) {
+        if(a1in.containsKey(key)) {
+            a1in.put(key, evictable);
+        } else if(am.containsKey(key)) {
+            am.replace(key, evictable);
+        }
+    }
+
+    @Override
+    public synchronized long victim() {
+        long key = -1;
+        if(a1in.size() > kIn) {
+            key = firstEvictable(a1in);
+        }
+        if(key == -1) {
+            key = firstEvictable(am);
+        }
+        if(key == -1) {
+            key = firstEvictable(a1in);
+        }
+        return key;
+    }
+
+    private long firstEvictable(Map<Long, Boolean> queue) {
+        for(Map.Entry<Long, Boolean> e : queue.entrySet()) {
+            if(e.getValue()) return e.getKey();
+        }
+        return -1;
+    }
+
+    @Override
+    public synchronized void remove(long key) {
+        if(a1in.remove(key) != null) {
+            a1out.add(key);
+            if(a1out.size() > kOut) {
+                Iterator<Long> it = a1out.iterator();
+                it.next();
+                it.remove();
+            }
+            return;
+        }
+        am.remove(key);
+    }
+}
@@ -0,0 +1,87 @@
+package top.guoziyang.mydb.backend.dm;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import top.guoziyang.mydb.backend.utils.Panic;
+
+/**
+ * Checkpointer 定期执行模糊检查点
+ *
+ * 检查点不等待脏页写回，只记录脏页表和活跃事务表，
+ * 恢复时从两者中最小的LSN开始扫描日志，之前的日志段被删除
+ */
+public class Checkpointer {
+
+    public static final long DEFAULT_INTERVAL = 30;       // 两次检查点之间间隔的秒数
+
+    private DataManager dm;
+
+    private Lock lock;
+    private Condition wakeup;
+    private volatile boolean closed;
+    private Thread worker;
+
+    public Checkpointer(DataManager dm) {
+        this.dm = dm;
+        this.lock = new ReentrantLock();
+        this.wakeup = lock.newCondition();
+    }
+
+    /**
+     * 启动后台线程，每隔interval秒执行一次检查点
+     */
+    public static Checkpointer start(DataManager dm, long interval) {
+        Checkpointer c = new Checkpointer(dm);
+        c.worker = new Thread(() -> c.loop(TimeUnit.SECONDS.toMillis(interval)), "checkpointer");
+        c.worker.setDaemon(true);
+        c.worker.start();
+        return c;
+    }
+
+    private void loop(long interval) {
+        while(pause(interval)) {
+            try {
+                dm.checkpoint();
+            } catch(Exception e) {
+                Panic.panic(e);
+            }
+        }
+    }
+
+    // 等待millis毫秒或直到关闭，关闭后返回false
+    private boolean pause(long millis) {
+        lock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+            while(!closed && nanos > 0) {
+                nanos = wakeup.awaitNanos(nanos);
+            }
+            return !closed;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            wakeup.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if(worker != null) {
+            try {
+                worker.join();
+            } catch(InterruptedException e) {
+                Panic.panic(e);
+            }
+        }
+    }
+}
@@ -1,35 +1,77 @@
 package top.guoziyang.mydb.backend.dm;
 
+import java.io.InputStream;
+import java.util.List;
+import java.util.Set;
+
+import top.guoziyang.mydb.backend.common.DBConfig;
 import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
 import top.guoziyang.mydb.backend.dm.logger.Logger;
 import top.guoziyang.mydb.backend.dm.page.PageOne;
 import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+import top.guoziyang.mydb.backend.dm.pageIndex.FreeSpaceMap;
 import top.guoziyang.mydb.backend.tm.TransactionManager;
 
 public interface DataManager {
     DataItem read(long uid) throws Exception;
     long insert(long xid, byte[] data) throws Exception;
+    // 按顺序插入多个数据项，返回对应的uid；同一页中的数据项在一次引用中写入并合并为一条日志
+    List<Long> insertBatch(long xid, List<byte[]> data) throws Exception;
+    // 回收uid对应的数据项，之后读取该uid得到null
+    void free(long uid) throws Exception;
+    // 把data切成若干段写入专用的溢出页链，返回链首的页号
+    long insertOverflow(byte[] data) throws Exception;
+    // 沿溢出页链按需逐页读取
+    InputStream readOverflow(long pointer);
+    // 回收溢出页链，回收的页面作为普通页重新使用
+    void freeOverflow(long pointer) throws Exception;
+    // 提示即将读取uid所在的页面
+    void prefetch(long uid);
+    // 做一次模糊检查点，之后恢复只需从检查点记录的位置开始，之前的日志段被删除
+    void checkpoint();
+    // 等待已经写入的日志全部落盘，异步提交的事务在提交落盘之前调用
+    void flushLog();
     void close();
 
     public static DataManager create(String path, long mem, TransactionManager tm) {
-        PageCache pc = PageCache.create(path, mem);
-        Logger lg = Logger.create(path);
+        return create(path, DBConfig.withMem(mem), tm);
+    }
+
+    public static DataManager create(String path, DBConfig config, TransactionManager tm) {
+        PageCache pc = PageCache.create(path, config.mem, config.cachePolicy, config.mmap, config.dirtyRatio);
+        Logger lg = Logger.create(path, config.groupWindow, config.groupSize);
 
-        DataManagerImpl dm = new DataManagerImpl(pc, lg, tm);
+        pc.setLsnSource(lg::lsn);
+
+        DataManagerImpl dm = new DataManagerImpl(path, pc, lg, tm);
+        dm.deferLog = pc.setLogFlusher(lg::flush);
         dm.initPageOne();
+        tm.setStatusLog(dm.statusLog());
         return dm;
     }
 
     public static DataManager open(String path, long mem, TransactionManager tm) {
-        PageCache pc = PageCache.open(path, mem);
-        Logger lg = Logger.open(path);
-        DataManagerImpl dm = new DataManagerImpl(pc, lg, tm);
-        if(!dm.loadCheckPageOne()) {
-            Recover.recover(tm, lg, pc);
+        return open(path, DBConfig.withMem(mem), tm);
+    }
+
+    public static DataManager open(String path, DBConfig config, TransactionManager tm) {
+        PageCache pc = PageCache.open(path, config.mem, config.cachePolicy, config.mmap, config.dirtyRatio);
+        Logger lg = Logger.open(path, config.groupWindow, config.groupSize);
+        pc.setLsnSource(lg::lsn);
+        DataManagerImpl dm = new DataManagerImpl(path, pc, lg, tm);
+        dm.deferLog = pc.setLogFlusher(lg::flush);
+        boolean clean = dm.loadCheckPageOne();
+        FreeSpaceMap fsm = FreeSpaceMap.read(path);
+        Set<Integer> touched = null;
+        if(!clean) {
+            long since = fsm == null ? Long.MAX_VALUE : fsm.getLsn();
+            touched = Recover.recover(tm, lg, pc, PageOne.getCheckpoint(dm.pageOne), config.recoveryWorkers, since);
         }
-        dm.fillPageIndex();
+        dm.loadPageIndex(fsm, clean, touched);
         PageOne.setVcOpen(dm.pageOne);
         dm.pc.flushPage(dm.pageOne);
+        // 恢复之后事务状态才写入日志
+        tm.setStatusLog(dm.statusLog());
 
         return dm;
     }
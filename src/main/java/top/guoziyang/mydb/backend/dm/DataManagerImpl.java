@@ -1,16 +1,28 @@
 package top.guoziyang.mydb.backend.dm;
 
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 import top.guoziyang.mydb.backend.common.AbstractCache;
 import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
 import top.guoziyang.mydb.backend.dm.dataItem.DataItemImpl;
 import top.guoziyang.mydb.backend.dm.logger.Logger;
 import top.guoziyang.mydb.backend.dm.page.Page;
 import top.guoziyang.mydb.backend.dm.page.PageOne;
+import top.guoziyang.mydb.backend.dm.page.PageOverflow;
 import top.guoziyang.mydb.backend.dm.page.PageX;
 import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+import top.guoziyang.mydb.backend.dm.pageIndex.FreeSpaceMap;
 import top.guoziyang.mydb.backend.dm.pageIndex.PageIndex;
 import top.guoziyang.mydb.backend.dm.pageIndex.PageInfo;
+import top.guoziyang.mydb.backend.tm.StatusLog;
 import top.guoziyang.mydb.backend.tm.TransactionManager;
+import top.guoziyang.mydb.backend.tm.TransactionManagerImpl;
 import top.guoziyang.mydb.backend.utils.Panic;
 import top.guoziyang.mydb.backend.utils.Types;
 import top.guoziyang.mydb.common.Error;
@@ -22,13 +34,18 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
     Logger logger;
     PageIndex pIndex;
     Page pageOne;
+    String path;
+    Map<Long, Long> firstLsn;       // 事务第一条日志的LSN，事务结束时删除
+    boolean deferLog;               // 页面写回之前会先落盘日志，数据日志不必等待落盘
 
-    public DataManagerImpl(PageCache pc, Logger logger, TransactionManager tm) {
+    public DataManagerImpl(String path, PageCache pc, Logger logger, TransactionManager tm) {
         super(0);
+        this.path = path;
         this.pc = pc;
         this.logger = logger;
         this.tm = tm;
         this.pIndex = new PageIndex();
+        this.firstLsn = new ConcurrentHashMap<>();
     }
 
     @Override
@@ -44,60 +61,249 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
     @Override
     public long insert(long xid, byte[] data) throws Exception {
         byte[] raw = DataItem.wrapDataItemRaw(data);
-        if(raw.length > PageX.MAX_FREE_SPACE) {
+        // 数据项和它的槽都要放在页面中
+        int size = raw.length + PageX.SLOT_SIZE;
+        if(size > PageX.MAX_FREE_SPACE) {
             throw Error.DataTooLargeException;
         }
 
-        PageInfo pi = null;
-        for(int i = 0; i < 5; i ++) {
-            pi = pIndex.select(raw.length);
-            if (pi != null) {
-                break;
-            } else {
+        // 在页面上预留空间，页面仍在pIndex中，其他线程可以同时向同一页插入
+        PageInfo pi = pIndex.select(size);
+        if(pi == null) {
+            int newPgno = pc.newPage(PageX.initRaw());
+            pi = pIndex.addAndReserve(newPgno, PageX.MAX_FREE_SPACE, size);
+        }
+
+        // 槽和位置在页面锁内确定，先写日志再修改页面，内存映射的页面随时可能被写回
+        int pgno = pi.pgno;
+        Page pg = pc.getPage(pgno);
+        try {
+            short slot = PageX.insertBatch(pg, List.of(raw),
+                (slots, offsets) -> log(xid, Recover.insertLog(xid, pgno, slots[0], offsets[0], raw)))[0];
+            return Types.addressToUid(pgno, slot);
+        } finally {
+            pg.release();
+        }
+    }
+
+    @Override
+    public List<Long> insertBatch(long xid, List<byte[]> data) throws Exception {
+        List<byte[]> raws = new ArrayList<>(data.size());
+        for(byte[] d : data) {
+            byte[] raw = DataItem.wrapDataItemRaw(d);
+            if(raw.length + PageX.SLOT_SIZE > PageX.MAX_FREE_SPACE) {
+                throw Error.DataTooLargeException;
+            }
+            raws.add(raw);
+        }
+
+        List<Long> uids = new ArrayList<>(raws.size());
+        int i = 0;
+        while(i < raws.size()) {
+            // 为第一项选择页面，之后的数据项在同一页上继续预留，直到放不下
+            int size = raws.get(i).length + PageX.SLOT_SIZE;
+            PageInfo pi = pIndex.select(size);
+            if(pi == null) {
                 int newPgno = pc.newPage(PageX.initRaw());
-                pIndex.add(newPgno, PageX.MAX_FREE_SPACE);
+                pi = pIndex.addAndReserve(newPgno, PageX.MAX_FREE_SPACE, size);
+            }
+            int end = i + 1;
+            while(end < raws.size() && pIndex.reserve(pi.pgno, raws.get(end).length + PageX.SLOT_SIZE)) {
+                end ++;
+            }
+
+            List<byte[]> batch = raws.subList(i, end);
+            int pgno = pi.pgno;
+            Page pg = pc.getPage(pgno);
+            try {
+                short[] slots = PageX.insertBatch(pg, batch,
+                    (s, offsets) -> log(xid, Recover.batchInsertLog(xid, pgno, s, offsets, batch)));
+                for(short slot : slots) {
+                    uids.add(Types.addressToUid(pgno, slot));
+                }
+            } finally {
+                pg.release();
             }
+            i = end;
         }
-        if(pi == null) {
-            throw Error.DatabaseBusyException;
+        return uids;
+    }
+
+    @Override
+    public void free(long uid) throws Exception {
+        DataItemImpl di = (DataItemImpl)super.get(uid);
+        int pgno = di.page().getPageNumber();
+        try {
+            if(!di.isValid()) {
+                return;
+            }
+            // 标记为无效的修改和普通修改一样记录日志，不属于任何事务
+            di.before();
+            DataItem.setDataItemRawInvalid(di.getRaw());
+            di.after(TransactionManagerImpl.SUPER_XID);
+        } finally {
+            di.release();
         }
 
-        Page pg = null;
-        int freeSpace = 0;
+        Page pg = pc.getPage(pgno);
         try {
-            pg = pc.getPage(pi.pgno);
-            byte[] log = Recover.insertLog(xid, pg, raw);
-            logger.log(log);
+            compact(pg);
+        } finally {
+            pg.release();
+        }
+    }
 
-            short offset = PageX.insert(pg, raw);
+    // 从最后一段开始写，每页写入时已经知道下一页的页号
+    // 溢出页的映像在返回指针之前追加到日志，引用它的数据项的日志落盘时随之落盘，恢复时总是重做
+    @Override
+    public long insertOverflow(byte[] data) throws Exception {
+        int chunks = Math.max(1, (data.length + PageOverflow.MAX_CHUNK - 1) / PageOverflow.MAX_CHUNK);
+        int next = 0;
+        for(int i = chunks - 1; i >= 0; i --) {
+            int from = i * PageOverflow.MAX_CHUNK;
+            int length = Math.min(PageOverflow.MAX_CHUNK, data.length - from);
+            byte[] raw = PageOverflow.initRaw(data, from, length, next);
+            int pgno = pc.newPage(raw);
+            logPage(pgno, raw);
+            next = pgno;
+        }
+        return next;
+    }
 
-            pg.release();
-            return Types.addressToUid(pi.pgno, offset);
+    @Override
+    public InputStream readOverflow(long pointer) {
+        return new OverflowInputStream(pc, (int)pointer);
+    }
 
-        } finally {
-            // 将取出的pg重新插入pIndex
-            if(pg != null) {
-                pIndex.add(pi.pgno, PageX.getFreeSpace(pg));
+    @Override
+    public void freeOverflow(long pointer) throws Exception {
+        int pgno = (int)pointer;
+        while(pgno != 0) {
+            Page pg = pc.getPage(pgno);
+            int next;
+            try {
+                if(!PageOverflow.isOverflow(pg)) {
+                    return;
+                }
+                next = PageOverflow.getNext(pg);
+                byte[] raw = PageX.initRaw();
+                PageX.recoverImage(pg, raw);
+                PageX.setPageLsn(pg, logPage(pgno, raw));
+            } finally {
+                pg.release();
+            }
+            pIndex.add(pgno, PageX.MAX_FREE_SPACE);
+            pgno = next;
+        }
+    }
+
+    /**
+     * 先写回未被引用的脏页缩小脏页表，再记下日志位置和脏页表，最后写入检查点日志并记录到第一页
+     * 期间其他事务照常执行，检查点开始之后的日志恢复时都会重做
+     * 检查点开始之前的事务状态在XID文件中落盘，恢复时不再需要之前的状态日志
+     */
+    @Override
+    public void checkpoint() {
+        checkpoint(true);
+    }
+
+    // 关闭时事务管理器可能已经关闭，不再查询事务状态，保守地保留所有记录过的事务
+    private synchronized void checkpoint(boolean checkActive) {
+        pc.checkpoint();
+        long beginLsn = logger.lsn();
+        if(checkActive) {
+            tm.flush();
+        }
+        Map<Integer, Long> dirtyPages = pc.dirtyPageTable();
+        Map<Long, Long> activeTransactions = new HashMap<>();
+        for(Map.Entry<Long, Long> e : firstLsn.entrySet()) {
+            if(!checkActive || tm.isActive(e.getKey())) {
+                activeTransactions.put(e.getKey(), e.getValue());
             } else {
-                pIndex.add(pi.pgno, freeSpace);
+                firstLsn.remove(e.getKey(), e.getValue());
             }
         }
+
+        long lsn = logger.log(Recover.checkpointLog(beginLsn, pc.getPageNumber(), activeTransactions, dirtyPages));
+        PageOne.setCheckpoint(pageOne, lsn);
+        pc.flushPage(pageOne);
+        logger.removeBefore(Recover.undoStart(Recover.redoStart(beginLsn, dirtyPages), activeTransactions));
+        // 崩溃后从这里载入空闲空间信息，恢复只需重新读取之后被修改过的页面
+        if(checkActive) {
+            saveFreeSpaceMap(null);
+        }
+    }
+
+    // 先记下日志末尾再读取PageIndex，之后的修改都在这个位置之后的日志中
+    private void saveFreeSpaceMap(byte[] vc) {
+        long lsn = logger.lsn();
+        FreeSpaceMap.save(path, vc, lsn, pc.getPageNumber(), pIndex);
     }
 
     @Override
     public void close() {
         super.close();
+        checkpoint(false);
         logger.close();
+        // 正常关闭后不再恢复，XID文件必须在标记之前落盘；事务管理器先关闭时已经落盘
+        tm.flush();
 
         PageOne.setVcClose(pageOne);
+        saveFreeSpaceMap(PageOne.getVc(pageOne));
         pageOne.release();
         pc.close();
     }
 
-    // 为xid生成update日志
-    public void logDataItem(long xid, DataItem di) {
+    // 为xid生成update日志，返回日志的LSN
+    public long logDataItem(long xid, DataItem di) {
         byte[] log = Recover.updateLog(xid, di);
-        logger.log(log);
+        return log(xid, log);
+    }
+
+    // 记录事务第一条日志LSN的下界，检查点据此保留活跃事务撤销所需的日志
+    // 先记录再写日志，检查点没有看到的事务，它的日志一定在检查点开始之后
+    // 日志只追加到缓冲区，由页面写回之前的flush或者提交时的状态日志落盘；
+    // 不能保证日志先于页面落盘时同步写入
+    private long log(long xid, byte[] log) {
+        if(xid != TransactionManagerImpl.SUPER_XID) {
+            firstLsn.putIfAbsent(xid, logger.lsn());
+        }
+        return deferLog ? logger.logAsync(log) : logger.log(log);
+    }
+
+    // 页面映像不属于任何事务；不能保证日志先于页面落盘时同步写入
+    private long logPage(int pgno, byte[] image) {
+        byte[] log = Recover.pageLog(pgno, image);
+        return deferLog ? logger.logAsync(log) : logger.log(log);
+    }
+
+    @Override
+    public void flushLog() {
+        logger.flush();
+    }
+
+    // 事务状态日志不属于任何事务的修改，不记入活跃事务表
+    StatusLog statusLog() {
+        return new StatusLog() {
+            @Override
+            public void append(long xid, byte status, boolean durable) {
+                byte[] log = Recover.statusLog(xid, status);
+                if(durable) {
+                    logger.log(log);
+                } else {
+                    logger.logAsync(log);
+                }
+                // 结束的事务不再需要撤销；之后的检查点日志落盘时，这条状态日志已经随之落盘
+                if(status != TransactionManagerImpl.FIELD_TRAN_ACTIVE) {
+                    firstLsn.remove(xid);
+                }
+            }
+
+            @Override
+            public void flush() {
+                logger.flush();
+            }
+        };
     }
 
     public void releaseDataItem(DataItem di) {
@@ -106,11 +312,11 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
 
     @Override
     protected DataItem getForCache(long uid) throws Exception {
-        short offset = (short)(uid & ((1L << 16) - 1));
+        short slot = (short)(uid & ((1L << 16) - 1));
         uid >>>= 32;
         int pgno = (int)(uid & ((1L << 32) - 1));
         Page pg = pc.getPage(pgno);
-        return DataItem.parseDataItem(pg, offset, this);
+        return DataItem.parseDataItem(pg, slot, this);
     }
 
     @Override
@@ -140,19 +346,87 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
         return PageOne.checkVc(pageOne);
     }
 
-    // 初始化pageIndex
-    void fillPageIndex() {
+    @Override
+    public void prefetch(long uid) {
+        pc.prefetch((int)(uid >>> 32), 1);
+    }
+
+    /**
+     * 正常关闭后直接载入关闭时保存的空闲空间信息；
+     * 崩溃恢复后，touched不为null时载入最近一次保存的信息，只重新读取恢复中发现的、之后被修改过的页面；
+     * 都不可用时读取所有页面。保存之后新增的页面总是需要读取
+     */
+    void loadPageIndex(FreeSpaceMap fsm, boolean clean, Set<Integer> touched) {
         int pageNumber = pc.getPageNumber();
-        for(int i = 2; i <= pageNumber; i ++) {
-            Page pg = null;
-            try {
-                pg = pc.getPage(i);
-            } catch (Exception e) {
-                Panic.panic(e);
+        boolean usable = fsm != null && (clean ? fsm.savedOnClose(PageOne.getVc(pageOne)) : touched != null);
+        if(!usable) {
+            fillPageIndex(2);
+            return;
+        }
+        int loaded = fsm.load(pIndex, pageNumber);
+        if(!clean) {
+            for(int pgno : touched) {
+                if(pgno >= 2 && pgno <= loaded) {
+                    fillPage(pgno);
+                }
+            }
+        }
+        fillPageIndex(loaded + 1);
+    }
+
+    // 从第from页开始读取之后的所有页面加入pageIndex
+    // 顺序读取，每进入一个预读窗口就提示预读下一个窗口
+    void fillPageIndex(int from) {
+        int pageNumber = pc.getPageNumber();
+        pc.prefetch(from, PageCache.READ_AHEAD_PAGES);
+        for(int i = from; i <= pageNumber; i ++) {
+            if((i - from) % PageCache.READ_AHEAD_PAGES == 0) {
+                pc.prefetch(i + PageCache.READ_AHEAD_PAGES, PageCache.READ_AHEAD_PAGES);
             }
-            pIndex.add(pg.getPageNumber(), PageX.getFreeSpace(pg));
+            fillPage(i);
+        }
+    }
+
+    private void fillPage(int pgno) {
+        Page pg = null;
+        try {
+            pg = pc.getPage(pgno);
+        } catch (Exception e) {
+            Panic.panic(e);
+        }
+        // 溢出页不参与空闲空间管理
+        if(PageOverflow.isOverflow(pg)) {
             pg.release();
+            return;
+        }
+        if(!PageX.isInitialized(pg)) {
+            PageX.init(pg);
+        }
+        if(PageX.getDeadSpace(pg) >= PageX.COMPACT_THRESHOLD) {
+            compact(pg);
+        }
+        pIndex.add(pg.getPageNumber(), PageX.getFreeSpace(pg));
+        pg.release();
+    }
+
+    // 无效数据项占用的空间达到阈值时整理页面，返回回收的字节数，启动时也只整理有垃圾的页面
+    // 只有调用者是页面唯一的引用者时才整理，数据项被缓存时页面一直被引用，不会被移动
+    // 整理期间独占页面，其他线程等待；整理后的页面映像在页面被释放之前追加到日志，
+    // 页面写回之前日志会先落盘，独占期间不等待落盘
+    int compact(Page pg) {
+        int reclaimed = pc.runExclusive(pg, p -> {
+            if(PageX.getDeadSpace(p) < PageX.COMPACT_THRESHOLD) {
+                return 0;
+            }
+            int r = PageX.compact(p);
+            PageX.setPageLsn(p, logPage(p.getPageNumber(), p.getData().toArray()));
+            return r;
+        });
+        if(reclaimed <= 0) {
+            return 0;
         }
+        pIndex.reclaim(pg.getPageNumber(), reclaimed);
+        return reclaimed;
     }
     
 }
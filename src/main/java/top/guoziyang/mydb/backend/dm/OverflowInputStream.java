@@ -0,0 +1,73 @@
+package top.guoziyang.mydb.backend.dm;
+
+import java.io.InputStream;
+
+import top.guoziyang.mydb.backend.dm.page.Page;
+import top.guoziyang.mydb.backend.dm.page.PageOverflow;
+import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+import top.guoziyang.mydb.backend.utils.Panic;
+import top.guoziyang.mydb.common.Error;
+
+/**
+ * 沿溢出页链逐页读取，每次只读入并引用一个页面，拷贝出数据段后立即释放
+ */
+public class OverflowInputStream extends InputStream {
+
+    private PageCache pc;
+    private int next;
+    private byte[] chunk = new byte[0];
+    private int position;
+
+    OverflowInputStream(PageCache pc, int first) {
+        this.pc = pc;
+        this.next = first;
+    }
+
+    @Override
+    public int read() {
+        if(position == chunk.length && !advance()) {
+            return -1;
+        }
+        return chunk[position ++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if(len == 0) {
+            return 0;
+        }
+        if(position == chunk.length && !advance()) {
+            return -1;
+        }
+        int n = Math.min(len, chunk.length - position);
+        System.arraycopy(chunk, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    // 读入链上的下一页，链已结束时返回false
+    private boolean advance() {
+        while(position == chunk.length) {
+            if(next == 0) {
+                return false;
+            }
+            Page pg = null;
+            try {
+                pg = pc.getPage(next);
+            } catch(Exception e) {
+                Panic.panic(e);
+            }
+            try {
+                if(!PageOverflow.isOverflow(pg)) {
+                    Panic.panic(Error.BadOverflowPageException);
+                }
+                chunk = PageOverflow.getChunk(pg);
+                next = PageOverflow.getNext(pg);
+                position = 0;
+            } finally {
+                pg.release();
+            }
+        }
+        return true;
+    }
+}
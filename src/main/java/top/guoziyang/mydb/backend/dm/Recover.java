@@ -1,28 +1,39 @@
 package top.guoziyang.mydb.backend.dm;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import com.google.common.primitives.Bytes;
 
-import top.guoziyang.mydb.backend.common.SubArray;
 import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
 import top.guoziyang.mydb.backend.dm.logger.Logger;
 import top.guoziyang.mydb.backend.dm.page.Page;
 import top.guoziyang.mydb.backend.dm.page.PageX;
 import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
 import top.guoziyang.mydb.backend.tm.TransactionManager;
+import top.guoziyang.mydb.backend.tm.TransactionManagerImpl;
 import top.guoziyang.mydb.backend.utils.Panic;
 import top.guoziyang.mydb.backend.utils.Parser;
+import top.guoziyang.mydb.common.Error;
 
 public class Recover {
 
+    public static final int DEFAULT_WORKERS = 1;            // 重做线程数
+
     private static final byte LOG_TYPE_INSERT = 0;
     private static final byte LOG_TYPE_UPDATE = 1;
+    private static final byte LOG_TYPE_PAGE = 2;
+    private static final byte LOG_TYPE_BATCH_INSERT = 3;
+    private static final byte LOG_TYPE_CHECKPOINT = 4;
+    private static final byte LOG_TYPE_STATUS = 5;
 
     private static final int REDO = 0;
     private static final int UNDO = 1;
@@ -30,6 +41,7 @@ public class Recover {
     static class InsertLogInfo {
         long xid;
         int pgno;
+        short slot;
         short offset;
         byte[] raw;
     }
@@ -37,94 +49,219 @@ public class Recover {
     static class UpdateLogInfo {
         long xid;
         int pgno;
-        short offset;
+        short slot;
         byte[] oldRaw;
         byte[] newRaw;
     }
 
-    public static void recover(TransactionManager tm, Logger lg, PageCache pc) {
+    static class PageLogInfo {
+        int pgno;
+        byte[] image;
+    }
+
+    // 扫描日志时收集的一条重做
+    static class RedoLog {
+        long xid;
+        int pgno;
+        long lsn;
+        Consumer<Page> action;
+    }
+
+    static class CheckpointLogInfo {
+        long beginLsn;
+        int pageNumber;
+        Map<Long, Long> activeTransactions;
+        Map<Integer, Long> dirtyPages;
+    }
+
+    /**
+     * checkpoint为最近一次检查点日志的LSN，为0时从头恢复
+     * 有检查点时，重做从脏页表中最小的recLSN（不晚于检查点开始的位置）开始，
+     * 撤销还要包含检查点时活跃事务的全部日志
+     * 检查点之前的事务状态已经落盘到XID文件，之后的状态日志按顺序重放
+     * 恢复结束时写回所有被修改的页面，这些修改不再需要日志
+     */
+    public static void recover(TransactionManager tm, Logger lg, PageCache pc, long checkpoint) {
+        recover(tm, lg, pc, checkpoint, DEFAULT_WORKERS, -1);
+    }
+
+    /**
+     * workers为重做线程数，日志按页号分给各个线程；撤销按事务进行，仍在调用线程中完成
+     * 返回LSN不小于since的日志修改过的页号；扫描没有覆盖since之后的全部日志时返回null
+     */
+    public static Set<Integer> recover(TransactionManager tm, Logger lg, PageCache pc, long checkpoint, int workers, long since) {
         System.out.println("Recovering...");
 
-        lg.rewind();
+        CheckpointLogInfo ci = null;
+        long redoLsn = -1, undoLsn = -1;
         int maxPgno = 0;
+        if(checkpoint != 0) {
+            lg.seek(checkpoint);
+            byte[] log = lg.next();
+            if(log == null || !isCheckpointLog(log)) {
+                Panic.panic(Error.BadLogFileException);
+            }
+            ci = parseCheckpointLog(log);
+            redoLsn = redoStart(ci.beginLsn, ci.dirtyPages);
+            undoLsn = undoStart(redoLsn, ci.activeTransactions);
+            maxPgno = ci.pageNumber;
+            System.out.println("Checkpoint found, redo from " + redoLsn + ".");
+        }
+
+        // 一次扫描重放事务状态，收集页号上界、重做的日志和活跃事务的日志
+        // 事务的提交日志在它的修改之后，扫描到修改时还活跃的事务要到扫描结束才能确定是否需要撤销
+        List<RedoLog> redoLogs = new ArrayList<>();
+        Map<Long, List<byte[]>> undoLogs = new HashMap<>();
+        Set<Integer> touched = since >= undoLsn ? new HashSet<>() : null;
+        start(lg, undoLsn);
         while(true) {
             byte[] log = lg.next();
             if(log == null) break;
-            int pgno;
-            if(isInsertLog(log)) {
-                InsertLogInfo li = parseInsertLog(log);
-                pgno = li.pgno;
-            } else {
-                UpdateLogInfo li = parseUpdateLog(log);
-                pgno = li.pgno;
+            long lsn = lg.lastLsn();
+            if(isCheckpointLog(log)) {
+                continue;
+            }
+            if(isStatusLog(log)) {
+                tm.redoStatus(parseStatusXid(log), log[OF_STATUS]);
+                continue;
+            }
+            RedoLog rl = parseRedoLog(log, lsn);
+            if(rl.pgno > maxPgno) {
+                maxPgno = rl.pgno;
+            }
+            if(touched != null && lsn >= since) {
+                touched.add(rl.pgno);
+            }
+            if(tm.isActive(rl.xid)) {
+                undoLogs.computeIfAbsent(rl.xid, k -> new ArrayList<>()).add(log);
             }
-            if(pgno > maxPgno) {
-                maxPgno = pgno;
+            if(lsn >= redoLsn) {
+                redoLogs.add(rl);
             }
         }
+        undoLogs.keySet().removeIf(xid -> !tm.isActive(xid));
+        redoLogs.removeIf(rl -> undoLogs.containsKey(rl.xid));
         if(maxPgno == 0) {
             maxPgno = 1;
         }
         pc.truncateByBgno(maxPgno);
         System.out.println("Truncate to " + maxPgno + " pages.");
 
-        redoTranscations(tm, lg, pc);
-        System.out.println("Redo Transactions Over.");
+        int skipped = redoTranscations(pc, redoLogs, ci, workers);
+        System.out.println("Redo Transactions Over, " + skipped + " logs already in pages.");
 
-        undoTranscations(tm, lg, pc);
+        undoTranscations(tm, pc, undoLogs);
+        tm.flush();
         System.out.println("Undo Transactions Over.");
 
+        // 恢复中变脏的页面的recLSN是日志末尾，检查点无法保留重做它们所需的日志
+        pc.checkpoint();
         System.out.println("Recovery Over.");
+        return touched;
     }
 
-    private static void redoTranscations(TransactionManager tm, Logger lg, PageCache pc) {
-        lg.rewind();
-        while(true) {
-            byte[] log = lg.next();
-            if(log == null) break;
-            if(isInsertLog(log)) {
-                InsertLogInfo li = parseInsertLog(log);
-                long xid = li.xid;
-                if(!tm.isActive(xid)) {
-                    doInsertLog(pc, log, REDO);
-                }
-            } else {
-                UpdateLogInfo xi = parseUpdateLog(log);
-                long xid = xi.xid;
-                if(!tm.isActive(xid)) {
-                    doUpdateLog(pc, log, REDO);
-                }
-            }
+    // lsn为负时从第一条日志开始
+    private static void start(Logger lg, long lsn) {
+        if(lsn < 0) {
+            lg.rewind();
+        } else {
+            lg.seek(lsn);
         }
     }
 
-    private static void undoTranscations(TransactionManager tm, Logger lg, PageCache pc) {
-        Map<Long, List<byte[]>> logCache = new HashMap<>();
-        lg.rewind();
-        while(true) {
-            byte[] log = lg.next();
-            if(log == null) break;
-            if(isInsertLog(log)) {
-                InsertLogInfo li = parseInsertLog(log);
-                long xid = li.xid;
-                if(tm.isActive(xid)) {
-                    if(!logCache.containsKey(xid)) {
-                        logCache.put(xid, new ArrayList<>());
-                    }
-                    logCache.get(xid).add(log);
-                }
-            } else {
-                UpdateLogInfo xi = parseUpdateLog(log);
-                long xid = xi.xid;
-                if(tm.isActive(xid)) {
-                    if(!logCache.containsKey(xid)) {
-                        logCache.put(xid, new ArrayList<>());
-                    }
-                    logCache.get(xid).add(log);
+    // 不在脏页表中的页面在检查点开始前的修改都已落盘
+    static long redoStart(long beginLsn, Map<Integer, Long> dirtyPages) {
+        long lsn = beginLsn;
+        for(long recLsn : dirtyPages.values()) {
+            lsn = Math.min(lsn, recLsn);
+        }
+        return lsn;
+    }
+
+    // 活跃事务的第一条日志之前的日志恢复时不再需要
+    static long undoStart(long redoLsn, Map<Long, Long> activeTransactions) {
+        long lsn = redoLsn;
+        for(long firstLsn : activeTransactions.values()) {
+            lsn = Math.min(lsn, firstLsn);
+        }
+        return lsn;
+    }
+
+    // 解析出日志所属的事务、修改的页面和对页面的重做操作
+    private static RedoLog parseRedoLog(byte[] log, long lsn) {
+        RedoLog rl = new RedoLog();
+        rl.lsn = lsn;
+        if(isInsertLog(log)) {
+            InsertLogInfo li = parseInsertLog(log);
+            rl.xid = li.xid;
+            rl.pgno = li.pgno;
+            rl.action = pg -> doInsert(pg, li, REDO);
+        } else if(isBatchInsertLog(log)) {
+            List<InsertLogInfo> lis = parseBatchInsertLog(log);
+            rl.xid = lis.get(0).xid;
+            rl.pgno = lis.get(0).pgno;
+            rl.action = pg -> {
+                for(InsertLogInfo li : lis) {
+                    doInsert(pg, li, REDO);
                 }
+            };
+        } else if(isPageLog(log)) {
+            // 页面映像不属于任何事务，XID为SUPER_XID，总是作为已提交处理
+            PageLogInfo li = parsePageLog(log);
+            rl.xid = TransactionManagerImpl.SUPER_XID;
+            rl.pgno = li.pgno;
+            rl.action = pg -> PageX.recoverImage(pg, li.image);
+        } else {
+            UpdateLogInfo xi = parseUpdateLog(log);
+            rl.xid = xi.xid;
+            rl.pgno = xi.pgno;
+            rl.action = pg -> PageX.recoverUpdate(pg, xi.newRaw, xi.slot);
+        }
+        return rl;
+    }
+
+    // 按日志顺序分发重做，返回因为修改已在页面中而跳过的日志数
+    private static int redoTranscations(PageCache pc, List<RedoLog> redoLogs, CheckpointLogInfo ci, int workers) {
+        RedoDispatcher rd = new RedoDispatcher(pc, ci, workers);
+        for(RedoLog rl : redoLogs) {
+            rd.redo(rl.pgno, rl.lsn, rl.action);
+        }
+        return rd.finish();
+    }
+
+    /**
+     * 对pgno重做lsn处的日志，修改已在页面中时返回true
+     * 检查点开始之前的日志，页面不在脏页表中或早于它的recLSN时，修改已经落盘，不必读取页面；
+     * 否则读取页面，PageLSN不小于lsn时跳过，重做后把PageLSN推进到lsn
+     */
+    static boolean redo(PageCache pc, CheckpointLogInfo ci, int pgno, long lsn, Consumer<Page> action) {
+        if(ci != null && lsn < ci.beginLsn) {
+            Long recLsn = ci.dirtyPages.get(pgno);
+            if(recLsn == null || lsn < recLsn) {
+                return true;
             }
         }
+        Page pg = null;
+        try {
+            pg = pc.getPage(pgno);
+        } catch(Exception e) {
+            Panic.panic(e);
+        }
+        try {
+            if(PageX.isApplied(pg, lsn)) {
+                return true;
+            }
+            action.accept(pg);
+            if(PageX.isInitialized(pg)) {
+                PageX.setPageLsn(pg, lsn);
+            }
+            return false;
+        } finally {
+            pg.release();
+        }
+    }
 
+    private static void undoTranscations(TransactionManager tm, PageCache pc, Map<Long, List<byte[]>> logCache) {
         // 对所有active log进行倒序undo
         for(Entry<Long, List<byte[]>> entry : logCache.entrySet()) {
             List<byte[]> logs = entry.getValue();
@@ -132,6 +269,8 @@ public class Recover {
                 byte[] log = logs.get(i);
                 if(isInsertLog(log)) {
                     doInsertLog(pc, log, UNDO);
+                } else if(isBatchInsertLog(log)) {
+                    doBatchInsertLog(pc, parseBatchInsertLog(log), UNDO);
                 } else {
                     doUpdateLog(pc, log, UNDO);
                 }
@@ -144,6 +283,22 @@ public class Recover {
         return log[0] == LOG_TYPE_INSERT;
     }
 
+    private static boolean isBatchInsertLog(byte[] log) {
+        return log[0] == LOG_TYPE_BATCH_INSERT;
+    }
+
+    private static boolean isCheckpointLog(byte[] log) {
+        return log[0] == LOG_TYPE_CHECKPOINT;
+    }
+
+    private static boolean isStatusLog(byte[] log) {
+        return log[0] == LOG_TYPE_STATUS;
+    }
+
+    private static boolean isPageLog(byte[] log) {
+        return log[0] == LOG_TYPE_PAGE;
+    }
+
     // [LogType] [XID] [UID] [OldRaw] [NewRaw]
     private static final int OF_TYPE = 0;
     private static final int OF_XID = OF_TYPE+1;
@@ -155,8 +310,7 @@ public class Recover {
         byte[] xidRaw = Parser.long2Byte(xid);
         byte[] uidRaw = Parser.long2Byte(di.getUid());
         byte[] oldRaw = di.getOldRaw();
-        SubArray raw = di.getRaw();
-        byte[] newRaw = Arrays.copyOfRange(raw.raw, raw.start, raw.end);
+        byte[] newRaw = di.getRaw().toArray();
         return Bytes.concat(logType, xidRaw, uidRaw, oldRaw, newRaw);
     }
 
@@ -164,7 +318,7 @@ public class Recover {
         UpdateLogInfo li = new UpdateLogInfo();
         li.xid = Parser.parseLong(Arrays.copyOfRange(log, OF_XID, OF_UPDATE_UID));
         long uid = Parser.parseLong(Arrays.copyOfRange(log, OF_UPDATE_UID, OF_UPDATE_RAW));
-        li.offset = (short)(uid & ((1L << 16) - 1));
+        li.slot = (short)(uid & ((1L << 16) - 1));
         uid >>>= 32;
         li.pgno = (int)(uid & ((1L << 32) - 1));
         int length = (log.length - OF_UPDATE_RAW) / 2;
@@ -175,17 +329,17 @@ public class Recover {
 
     private static void doUpdateLog(PageCache pc, byte[] log, int flag) {
         int pgno;
-        short offset;
+        short slot;
         byte[] raw;
         if(flag == REDO) {
             UpdateLogInfo xi = parseUpdateLog(log);
             pgno = xi.pgno;
-            offset = xi.offset;
+            slot = xi.slot;
             raw = xi.newRaw;
         } else {
             UpdateLogInfo xi = parseUpdateLog(log);
             pgno = xi.pgno;
-            offset = xi.offset;
+            slot = xi.slot;
             raw = xi.oldRaw;
         }
         Page pg = null;
@@ -195,29 +349,32 @@ public class Recover {
             Panic.panic(e);
         }
         try {
-            PageX.recoverUpdate(pg, raw, offset);
+            PageX.recoverUpdate(pg, raw, slot);
         } finally {
             pg.release();
         }
     }
 
-    // [LogType] [XID] [Pgno] [Offset] [Raw]
+    // [LogType] [XID] [Pgno] [Slot] [Offset] [Raw]
     private static final int OF_INSERT_PGNO = OF_XID+8;
-    private static final int OF_INSERT_OFFSET = OF_INSERT_PGNO+4;
+    private static final int OF_INSERT_SLOT = OF_INSERT_PGNO+4;
+    private static final int OF_INSERT_OFFSET = OF_INSERT_SLOT+2;
     private static final int OF_INSERT_RAW = OF_INSERT_OFFSET+2;
 
-    public static byte[] insertLog(long xid, Page pg, byte[] raw) {
+    public static byte[] insertLog(long xid, int pgno, short slot, short offset, byte[] raw) {
         byte[] logTypeRaw = {LOG_TYPE_INSERT};
         byte[] xidRaw = Parser.long2Byte(xid);
-        byte[] pgnoRaw = Parser.int2Byte(pg.getPageNumber());
-        byte[] offsetRaw = Parser.short2Byte(PageX.getFSO(pg));
-        return Bytes.concat(logTypeRaw, xidRaw, pgnoRaw, offsetRaw, raw);
+        byte[] pgnoRaw = Parser.int2Byte(pgno);
+        byte[] slotRaw = Parser.short2Byte(slot);
+        byte[] offsetRaw = Parser.short2Byte(offset);
+        return Bytes.concat(logTypeRaw, xidRaw, pgnoRaw, slotRaw, offsetRaw, raw);
     }
 
     private static InsertLogInfo parseInsertLog(byte[] log) {
         InsertLogInfo li = new InsertLogInfo();
         li.xid = Parser.parseLong(Arrays.copyOfRange(log, OF_XID, OF_INSERT_PGNO));
-        li.pgno = Parser.parseInt(Arrays.copyOfRange(log, OF_INSERT_PGNO, OF_INSERT_OFFSET));
+        li.pgno = Parser.parseInt(Arrays.copyOfRange(log, OF_INSERT_PGNO, OF_INSERT_SLOT));
+        li.slot = Parser.parseShort(Arrays.copyOfRange(log, OF_INSERT_SLOT, OF_INSERT_OFFSET));
         li.offset = Parser.parseShort(Arrays.copyOfRange(log, OF_INSERT_OFFSET, OF_INSERT_RAW));
         li.raw = Arrays.copyOfRange(log, OF_INSERT_RAW, log.length);
         return li;
@@ -232,12 +389,160 @@ public class Recover {
             Panic.panic(e);
         }
         try {
-            if(flag == UNDO) {
-                DataItem.setDataItemRawInvalid(li.raw);
+            doInsert(pg, li, flag);
+        } finally {
+            pg.release();
+        }
+    }
+
+    private static void doInsert(Page pg, InsertLogInfo li, int flag) {
+        if(flag == UNDO) {
+            // 数据项已在页面中时只标记为无效，数据项可能已被整理到其他位置
+            if(PageX.recoverInvalidate(pg, li.slot) || PageX.hasSlot(pg, li.slot)) {
+                return;
+            }
+            // 插入没有写入页面，仍然占住这个槽，避免槽号被复用
+            DataItem.setDataItemRawInvalid(li.raw);
+        }
+        PageX.recoverInsert(pg, li.raw, li.slot, li.offset);
+    }
+
+    // [LogType] [XID] [Pgno] [Count] [Slot1] [Offset1] [Length1] [Raw1] ... [SlotN] [OffsetN] [LengthN] [RawN]
+    // 一次批量插入中落在同一页的所有数据项
+    private static final int OF_BATCH_PGNO = OF_XID+8;
+    private static final int OF_BATCH_COUNT = OF_BATCH_PGNO+4;
+    private static final int OF_BATCH_ITEMS = OF_BATCH_COUNT+2;
+
+    public static byte[] batchInsertLog(long xid, int pgno, short[] slots, short[] offsets, List<byte[]> raws) {
+        int size = OF_BATCH_ITEMS;
+        for(byte[] raw : raws) {
+            size += 6 + raw.length;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.put(LOG_TYPE_BATCH_INSERT);
+        buf.putLong(xid);
+        buf.putInt(pgno);
+        buf.putShort((short)raws.size());
+        for(int i = 0; i < raws.size(); i ++) {
+            buf.putShort(slots[i]);
+            buf.putShort(offsets[i]);
+            buf.putShort((short)raws.get(i).length);
+            buf.put(raws.get(i));
+        }
+        return buf.array();
+    }
+
+    private static List<InsertLogInfo> parseBatchInsertLog(byte[] log) {
+        ByteBuffer buf = ByteBuffer.wrap(log);
+        long xid = buf.getLong(OF_XID);
+        int pgno = buf.getInt(OF_BATCH_PGNO);
+        int count = buf.getShort(OF_BATCH_COUNT);
+        buf.position(OF_BATCH_ITEMS);
+        List<InsertLogInfo> lis = new ArrayList<>(count);
+        for(int i = 0; i < count; i ++) {
+            InsertLogInfo li = new InsertLogInfo();
+            li.xid = xid;
+            li.pgno = pgno;
+            li.slot = buf.getShort();
+            li.offset = buf.getShort();
+            li.raw = new byte[buf.getShort()];
+            buf.get(li.raw);
+            lis.add(li);
+        }
+        return lis;
+    }
+
+    private static void doBatchInsertLog(PageCache pc, List<InsertLogInfo> lis, int flag) {
+        Page pg = null;
+        try {
+            pg = pc.getPage(lis.get(0).pgno);
+        } catch(Exception e) {
+            Panic.panic(e);
+        }
+        try {
+            for(InsertLogInfo li : lis) {
+                doInsert(pg, li, flag);
             }
-            PageX.recoverInsert(pg, li.raw, li.offset);
         } finally {
             pg.release();
         }
     }
+
+    // [LogType] [XID] [Pgno] [Image]
+    // 页面整理后的完整映像，XID总是SUPER_XID
+    private static final int OF_PAGE_PGNO = OF_XID+8;
+    private static final int OF_PAGE_IMAGE = OF_PAGE_PGNO+4;
+
+    public static byte[] pageLog(int pgno, byte[] image) {
+        byte[] logTypeRaw = {LOG_TYPE_PAGE};
+        byte[] xidRaw = Parser.long2Byte(TransactionManagerImpl.SUPER_XID);
+        byte[] pgnoRaw = Parser.int2Byte(pgno);
+        return Bytes.concat(logTypeRaw, xidRaw, pgnoRaw, image);
+    }
+
+    private static PageLogInfo parsePageLog(byte[] log) {
+        PageLogInfo li = new PageLogInfo();
+        li.pgno = Parser.parseInt(Arrays.copyOfRange(log, OF_PAGE_PGNO, OF_PAGE_IMAGE));
+        li.image = Arrays.copyOfRange(log, OF_PAGE_IMAGE, log.length);
+        return li;
+    }
+
+    // [LogType] [XID] [BeginLsn] [PageNumber] [ATTCount] [XID1] [FirstLsn1] ... [DPTCount] [Pgno1] [RecLsn1] ...
+    // XID为SUPER_XID，ATT为活跃事务及其第一条日志的LSN，DPT为脏页及其recLSN
+    private static final int OF_CHECKPOINT_BEGIN = OF_XID+8;
+    private static final int OF_CHECKPOINT_PAGES = OF_CHECKPOINT_BEGIN+8;
+    private static final int OF_CHECKPOINT_ATT = OF_CHECKPOINT_PAGES+4;
+
+    public static byte[] checkpointLog(long beginLsn, int pageNumber, Map<Long, Long> activeTransactions, Map<Integer, Long> dirtyPages) {
+        ByteBuffer buf = ByteBuffer.allocate(OF_CHECKPOINT_ATT + 4 + activeTransactions.size() * 16 + 4 + dirtyPages.size() * 12);
+        buf.put(LOG_TYPE_CHECKPOINT);
+        buf.putLong(TransactionManagerImpl.SUPER_XID);
+        buf.putLong(beginLsn);
+        buf.putInt(pageNumber);
+        buf.putInt(activeTransactions.size());
+        for(Entry<Long, Long> e : activeTransactions.entrySet()) {
+            buf.putLong(e.getKey());
+            buf.putLong(e.getValue());
+        }
+        buf.putInt(dirtyPages.size());
+        for(Entry<Integer, Long> e : dirtyPages.entrySet()) {
+            buf.putInt(e.getKey());
+            buf.putLong(e.getValue());
+        }
+        return buf.array();
+    }
+
+    private static CheckpointLogInfo parseCheckpointLog(byte[] log) {
+        ByteBuffer buf = ByteBuffer.wrap(log);
+        CheckpointLogInfo ci = new CheckpointLogInfo();
+        ci.beginLsn = buf.getLong(OF_CHECKPOINT_BEGIN);
+        ci.pageNumber = buf.getInt(OF_CHECKPOINT_PAGES);
+        buf.position(OF_CHECKPOINT_ATT);
+        int count = buf.getInt();
+        ci.activeTransactions = new HashMap<>();
+        for(int i = 0; i < count; i ++) {
+            ci.activeTransactions.put(buf.getLong(), buf.getLong());
+        }
+        count = buf.getInt();
+        ci.dirtyPages = new HashMap<>();
+        for(int i = 0; i < count; i ++) {
+            ci.dirtyPages.put(buf.getInt(), buf.getLong());
+        }
+        return ci;
+    }
+
+    // [LogType] [XID] [Status]
+    private static final int OF_STATUS = OF_XID+8;
+
+    public static byte[] statusLog(long xid, byte status) {
+        ByteBuffer buf = ByteBuffer.allocate(OF_STATUS + 1);
+        buf.put(LOG_TYPE_STATUS);
+        buf.putLong(xid);
+        buf.put(status);
+        return buf.array();
+    }
+
+    private static long parseStatusXid(byte[] log) {
+        return ByteBuffer.wrap(log).getLong(OF_XID);
+    }
 }
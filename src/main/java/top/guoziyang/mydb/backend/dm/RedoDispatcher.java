@@ -0,0 +1,102 @@
+package top.guoziyang.mydb.backend.dm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import top.guoziyang.mydb.backend.dm.Recover.CheckpointLogInfo;
+import top.guoziyang.mydb.backend.dm.page.Page;
+import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+import top.guoziyang.mydb.backend.utils.Panic;
+
+/**
+ * RedoDispatcher 按页号把重做分给多个线程
+ * 同一页的日志总是由同一个线程按日志顺序重做，不同页之间没有顺序要求
+ * 读取日志和判断事务状态仍在调用线程中完成，队列满时调用线程等待
+ *
+ * 只有一个线程时直接在调用线程中重做
+ */
+class RedoDispatcher {
+
+    private static final int QUEUE_SIZE = 1024;
+    private static final Runnable STOP = () -> {};
+
+    private PageCache pc;
+    private CheckpointLogInfo ci;
+    private AtomicInteger skipped;
+    private List<BlockingQueue<Runnable>> queues;
+    private List<Thread> workers;
+
+    RedoDispatcher(PageCache pc, CheckpointLogInfo ci, int workers) {
+        this.pc = pc;
+        this.ci = ci;
+        this.skipped = new AtomicInteger();
+        this.queues = new ArrayList<>();
+        this.workers = new ArrayList<>();
+        if(workers <= 1) {
+            return;
+        }
+        for(int i = 0; i < workers; i ++) {
+            BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+            Thread t = new Thread(() -> loop(queue), "redo-" + i);
+            queues.add(queue);
+            this.workers.add(t);
+            t.start();
+        }
+    }
+
+    private void loop(BlockingQueue<Runnable> queue) {
+        try {
+            while(true) {
+                Runnable task = queue.take();
+                if(task == STOP) {
+                    return;
+                }
+                task.run();
+            }
+        } catch(InterruptedException e) {
+            Panic.panic(e);
+        }
+    }
+
+    // 对pgno重做lsn处的日志
+    void redo(int pgno, long lsn, Consumer<Page> action) {
+        if(queues.isEmpty()) {
+            apply(pgno, lsn, action);
+            return;
+        }
+        put(queues.get(Math.floorMod(pgno, queues.size())), () -> apply(pgno, lsn, action));
+    }
+
+    private void apply(int pgno, long lsn, Consumer<Page> action) {
+        if(Recover.redo(pc, ci, pgno, lsn, action)) {
+            skipped.incrementAndGet();
+        }
+    }
+
+    private void put(BlockingQueue<Runnable> queue, Runnable task) {
+        try {
+            queue.put(task);
+        } catch(InterruptedException e) {
+            Panic.panic(e);
+        }
+    }
+
+    // 等待所有重做完成，返回因为修改已在页面中而跳过的日志数
+    int finish() {
+        for(BlockingQueue<Runnable> queue : queues) {
+            put(queue, STOP);
+        }
+        for(Thread t : workers) {
+            try {
+                t.join();
+            } catch(InterruptedException e) {
+                Panic.panic(e);
+            }
+        }
+        return skipped.get();
+    }
+}
@@ -1,12 +1,11 @@
 package top.guoziyang.mydb.backend.dm.dataItem;
 
-import java.util.Arrays;
-
 import com.google.common.primitives.Bytes;
 
 import top.guoziyang.mydb.backend.common.SubArray;
 import top.guoziyang.mydb.backend.dm.DataManagerImpl;
 import top.guoziyang.mydb.backend.dm.page.Page;
+import top.guoziyang.mydb.backend.dm.page.PageX;
 import top.guoziyang.mydb.backend.utils.Parser;
 import top.guoziyang.mydb.backend.utils.Types;
 
@@ -34,16 +33,27 @@ public interface DataItem {
         return Bytes.concat(valid, size, raw);
     }
 
-    // 从页面的offset处解析处dataitem
-    public static DataItem parseDataItem(Page pg, short offset, DataManagerImpl dm) {
-        byte[] raw = pg.getData();
-        short size = Parser.parseShort(Arrays.copyOfRange(raw, offset+DataItemImpl.OF_SIZE, offset+DataItemImpl.OF_DATA));
+    // 通过槽找到数据项在页内的位置并解析出dataitem
+    // 槽已被回收时返回一个无效的dataitem，读取时得到null
+    public static DataItem parseDataItem(Page pg, short slot, DataManagerImpl dm) {
+        long uid = Types.addressToUid(pg.getPageNumber(), slot);
+        short offset = PageX.getOffset(pg, slot);
+        if(offset == 0) {
+            byte[] dead = wrapDataItemRaw(new byte[0]);
+            setDataItemRawInvalid(dead);
+            return new DataItemImpl(new SubArray(dead, 0, dead.length), new byte[dead.length], pg, uid, dm);
+        }
+        SubArray raw = pg.getData();
+        short size = raw.getShort(offset+DataItemImpl.OF_SIZE);
         short length = (short)(size + DataItemImpl.OF_DATA);
-        long uid = Types.addressToUid(pg.getPageNumber(), offset);
-        return new DataItemImpl(new SubArray(raw, offset, offset+length), new byte[length], pg, uid, dm);
+        return new DataItemImpl(raw.slice(offset, offset+length), new byte[length], pg, uid, dm);
     }
 
     public static void setDataItemRawInvalid(byte[] raw) {
         raw[DataItemImpl.OF_VALID] = (byte)1;
     }
+
+    public static void setDataItemRawInvalid(SubArray raw) {
+        raw.put(DataItemImpl.OF_VALID, (byte)1);
+    }
 }
@@ -7,6 +7,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import top.guoziyang.mydb.backend.common.SubArray;
 import top.guoziyang.mydb.backend.dm.DataManagerImpl;
 import top.guoziyang.mydb.backend.dm.page.Page;
+import top.guoziyang.mydb.backend.dm.page.PageX;
 
 /**
  * dataItem 结构如下：
@@ -40,30 +41,30 @@ public class DataItemImpl implements DataItem {
     }
 
     public boolean isValid() {
-        return raw.raw[raw.start+OF_VALID] == (byte)0;
+        return raw.get(OF_VALID) == (byte)0;
     }
 
     @Override
     public SubArray data() {
-        return new SubArray(raw.raw, raw.start+OF_DATA, raw.end);
+        return raw.slice(OF_DATA, raw.length());
     }
 
     @Override
     public void before() {
         wLock.lock();
         pg.setDirty(true);
-        System.arraycopy(raw.raw, raw.start, oldRaw, 0, oldRaw.length);
+        raw.copyTo(0, oldRaw, 0, oldRaw.length);
     }
 
     @Override
     public void unBefore() {
-        System.arraycopy(oldRaw, 0, raw.raw, raw.start, oldRaw.length);
+        raw.putBytes(0, oldRaw);
         wLock.unlock();
     }
 
     @Override
     public void after(long xid) {
-        dm.logDataItem(xid, this);
+        PageX.setPageLsn(pg, dm.logDataItem(xid, this));
         wLock.unlock();
     }
 
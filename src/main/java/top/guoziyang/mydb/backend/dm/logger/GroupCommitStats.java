@@ -0,0 +1,66 @@
+package top.guoziyang.mydb.backend.dm.logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 组提交的统计信息
+ * 按每批日志条数分桶：第i个桶记录条数在[2^i, 2^(i+1))之间的批次，最后一个桶不设上限
+ */
+public class GroupCommitStats {
+    private static final int BUCKETS = 11;
+
+    private AtomicLong flushes = new AtomicLong();       // 落盘的批数
+    private AtomicLong records = new AtomicLong();       // 落盘的日志条数
+    private AtomicLong bytes = new AtomicLong();         // 落盘的字节数
+    private AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    void record(int batchRecords, int batchBytes) {
+        flushes.incrementAndGet();
+        records.addAndGet(batchRecords);
+        bytes.addAndGet(batchBytes);
+        int bucket = Math.min(BUCKETS - 1, 31 - Integer.numberOfLeadingZeros(batchRecords));
+        histogram.incrementAndGet(bucket);
+    }
+
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    public long getRecords() {
+        return records.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    // 条数在[2^bucket, 2^(bucket+1))之间的批数
+    public long getBatches(int bucket) {
+        return histogram.get(bucket);
+    }
+
+    public double getAverageBatch() {
+        long f = getFlushes();
+        return f == 0 ? 0 : (double)getRecords() / f;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(String.format("flushes=%d records=%d bytes=%d avgBatch=%.1f batches:",
+            getFlushes(), getRecords(), getBytes(), getAverageBatch()));
+        for(int i = 0; i < BUCKETS; i ++) {
+            long n = histogram.get(i);
+            if(n == 0) continue;
+            int low = 1 << i;
+            sb.append(' ').append(low);
+            if(i == BUCKETS - 1) {
+                sb.append('+');
+            } else if(low > 1) {
+                sb.append('-').append((low << 1) - 1);
+            }
+            sb.append('=').append(n);
+        }
+        return sb.toString();
+    }
+}
@@ -1,25 +1,51 @@
 package top.guoziyang.mydb.backend.dm.logger;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 
 import top.guoziyang.mydb.backend.utils.Panic;
-import top.guoziyang.mydb.backend.utils.Parser;
 import top.guoziyang.mydb.common.Error;
 
 public interface Logger {
-    void log(byte[] data);
+    // 返回时日志已经落盘，返回日志的LSN
+    long log(byte[] data);
+    // 只把日志追加到缓冲区，不等待落盘，返回日志的LSN
+    long logAsync(byte[] data);
+    // 等待已经追加的日志全部落盘
+    void flush();
     void truncate(long x) throws Exception;
     byte[] next();
+    // 上一次next返回的日志的LSN
+    long lastLsn();
     void rewind();
+    // 从lsn处开始读取
+    void seek(long lsn);
+    // 下一条日志的LSN不小于该值
+    long lsn();
     void close();
+    // 删除lsn所在段之前的所有段，正在写的段不会被删除
+    void removeBefore(long lsn);
+    // 组提交的批次统计
+    GroupCommitStats getStats();
 
     public static Logger create(String path) {
-        File f = new File(path+LoggerImpl.LOG_SUFFIX);
+        return create(path, LoggerImpl.DEFAULT_GROUP_WINDOW, LoggerImpl.DEFAULT_GROUP_SIZE);
+    }
+
+    /**
+     * groupWindow为领导者等待更多日志加入一批的最长微秒数，groupSize为一批日志达到后立即落盘的字节数
+     */
+    public static Logger create(String path, long groupWindow, int groupSize) {
+        return create(path, LoggerImpl.DEFAULT_SEGMENT_SIZE, groupWindow, groupSize);
+    }
+
+    /**
+     * segmentSize为每个日志段的大小，超过后写入新段
+     */
+    public static Logger create(String path, int segmentSize, long groupWindow, int groupSize) {
+        if(!LoggerImpl.listSegments(path).isEmpty()) {
+            Panic.panic(Error.FileExistsException);
+        }
+        File f = LoggerImpl.segmentFile(path, 0);
         try {
             if(!f.createNewFile()) {
                 Panic.panic(Error.FileExistsException);
@@ -27,52 +53,30 @@ public interface Logger {
         } catch (Exception e) {
             Panic.panic(e);
         }
-        if(!f.canRead() || !f.canWrite()) {
-            Panic.panic(Error.FileCannotRWException);
-        }
-
-        FileChannel fc = null;
-        RandomAccessFile raf = null;
-        try {
-            raf = new RandomAccessFile(f, "rw");
-            fc = raf.getChannel();
-        } catch (FileNotFoundException e) {
-           Panic.panic(e);
-        }
-
-        ByteBuffer buf = ByteBuffer.wrap(Parser.int2Byte(0));
-        try {
-            fc.position(0);
-            fc.write(buf);
-            fc.force(false);
-        } catch (IOException e) {
-            Panic.panic(e);
-        }
 
-        return new LoggerImpl(raf, fc, 0);
+        LoggerImpl lg = new LoggerImpl(path, segmentSize, groupWindow, groupSize);
+        lg.init();
+        return lg;
     }
 
     public static Logger open(String path) {
-        File f = new File(path+LoggerImpl.LOG_SUFFIX);
-        if(!f.exists()) {
-            Panic.panic(Error.FileNotExistsException);
-        }
-        if(!f.canRead() || !f.canWrite()) {
-            Panic.panic(Error.FileCannotRWException);
-        }
+        return open(path, LoggerImpl.DEFAULT_GROUP_WINDOW, LoggerImpl.DEFAULT_GROUP_SIZE);
+    }
 
-        FileChannel fc = null;
-        RandomAccessFile raf = null;
-        try {
-            raf = new RandomAccessFile(f, "rw");
-            fc = raf.getChannel();
-        } catch (FileNotFoundException e) {
-           Panic.panic(e);
-        }
+    public static Logger open(String path, long groupWindow, int groupSize) {
+        return open(path, LoggerImpl.DEFAULT_SEGMENT_SIZE, groupWindow, groupSize);
+    }
 
-        LoggerImpl lg = new LoggerImpl(raf, fc);
+    public static Logger open(String path, int segmentSize, long groupWindow, int groupSize) {
+        LoggerImpl lg = new LoggerImpl(path, segmentSize, groupWindow, groupSize);
         lg.init();
-
         return lg;
     }
+
+    // 删除path的所有日志段
+    public static void remove(String path) {
+        for(long segment : LoggerImpl.listSegments(path)) {
+            LoggerImpl.segmentFile(path, segment).delete();
+        }
+    }
 }
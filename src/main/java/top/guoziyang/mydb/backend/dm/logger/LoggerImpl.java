@@ -1,223 +1,508 @@
 package top.guoziyang.mydb.backend.dm.logger;
 
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
-
-import com.google.common.primitives.Bytes;
+import java.util.zip.CRC32C;
 
 import top.guoziyang.mydb.backend.utils.Panic;
-import top.guoziyang.mydb.backend.utils.Parser;
 import top.guoziyang.mydb.common.Error;
 
 /**
  * 日志文件读写
- * 
- * 日志文件标准格式为：
- * [XChecksum] [Log1] [Log2] ... [LogN] [BadTail]
- * XChecksum 为后续所有日志计算的Checksum，int类型
- * 
+ *
+ * 日志分为多个段文件，文件名为 [path].log.[段号]，段号从0开始
+ * 当前段写满segmentSize后在新的段中继续写，之前的段不再修改，检查点之后可以删除
+ *
+ * 每个段文件的格式为：
+ * [Log1] [Log2] ... [LogN] [BadTail]
+ * 没有全局的文件头，只有最后一段可能有BadTail，打开时也只需检查最后一段
+ *
  * 每条正确日志的格式为：
  * [Size] [Checksum] [Data]
  * Size 4字节int 标识Data长度
- * Checksum 4字节int
+ * Checksum 4字节int，为Size和Data的CRC32C
+ *
+ * LSN标识日志中的位置，高32位为段号，低32位为段内偏移
+ *
+ * 读取时把段文件以只读方式映射，直接在映射上解析记录头和计算校验和，Data只复制一次
+ *
+ * 组提交：
+ * log先把日志追加到共享的缓冲区，再等待缓冲区写到该日志末尾(LSN)的位置并落盘。
+ * 没有其他线程在落盘时，当前线程成为领导者，最多等待groupWindow让更多日志加入，
+ * 缓冲区达到groupSize时提前结束等待，然后一次写入整批日志并force；
+ * 其余线程只需等待自己的LSN落盘，不必各自force
  */
 public class LoggerImpl implements Logger {
 
-    private static final int SEED = 13331;
-
     private static final int OF_SIZE = 0;
     private static final int OF_CHECKSUM = OF_SIZE + 4;
     private static final int OF_DATA = OF_CHECKSUM + 4;
-    
+
     public static final String LOG_SUFFIX = ".log";
 
-    private RandomAccessFile file;
-    private FileChannel fc;
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 24;
+    public static final long DEFAULT_GROUP_WINDOW = 0;          // 微秒，0表示不等待，只合并落盘期间到达的日志
+    public static final int DEFAULT_GROUP_SIZE = 1 << 16;
+    private static final int INIT_BUFFER_SIZE = 1 << 12;
+
+    private String path;
+    private int segmentSize;
     private Lock lock;
 
-    private long position;  // 当前日志指针的位置
-    private long fileSize;  // 初始化时记录，log操作不更新
-    private int xChecksum;
+    private long position;          // 下一条要读取的日志的LSN
+    private long last;              // 上一次读取的日志的LSN
+    private MappedByteBuffer reader;    // position所在段的映射
+    private long readerSize;
+
+    private FileChannel writer;     // 正在追加的段，只由领导者使用
+    private volatile long writerSegment;
+
+    private long groupWindow;       // 纳秒
+    private int groupSize;
+    private Condition full;         // 缓冲区达到groupSize
+    private Condition durable;      // 一批日志落盘
+
+    private byte[] buffer;          // 等待落盘的日志
+    private byte[] spare;           // 领导者写入时交换出去的缓冲区
+    private int bufferLength;
+    private int bufferRecords;
+    private volatile long appendLsn;    // 已进入缓冲区的日志末尾
+    private long durableLsn;        // 已落盘的日志末尾
+    private boolean flushing;       // 是否已有领导者
+
+    private GroupCommitStats stats;
 
-    LoggerImpl(RandomAccessFile raf, FileChannel fc) {
-        this.file = raf;
-        this.fc = fc;
+    LoggerImpl(String path, int segmentSize, long groupWindow, int groupSize) {
+        this.path = path;
+        this.segmentSize = segmentSize;
+        this.groupWindow = TimeUnit.MICROSECONDS.toNanos(groupWindow);
+        this.groupSize = groupSize;
         lock = new ReentrantLock();
+        full = lock.newCondition();
+        durable = lock.newCondition();
+        buffer = new byte[INIT_BUFFER_SIZE];
+        spare = new byte[INIT_BUFFER_SIZE];
+        stats = new GroupCommitStats();
     }
 
-    LoggerImpl(RandomAccessFile raf, FileChannel fc, int xChecksum) {
-        this.file = raf;
-        this.fc = fc;
-        this.xChecksum = xChecksum;
-        lock = new ReentrantLock();
+    static File segmentFile(String path, long segment) {
+        return new File(String.format("%s%s.%08d", path, LOG_SUFFIX, segment));
     }
 
-    void init() {
-        long size = 0;
-        try {
-            size = file.length();
-        } catch (IOException e) {
-            Panic.panic(e);
+    // 按段号从小到大列出path的所有段
+    static List<Long> listSegments(String path) {
+        File base = new File(path + LOG_SUFFIX).getAbsoluteFile();
+        String prefix = base.getName() + ".";
+        List<Long> segments = new ArrayList<>();
+        String[] names = base.getParentFile().list();
+        if(names == null) {
+            return segments;
         }
-        if(size < 4) {
-            Panic.panic(Error.BadLogFileException);
+        for(String name : names) {
+            if(!name.startsWith(prefix)) continue;
+            try {
+                segments.add(Long.parseLong(name.substring(prefix.length())));
+            } catch(NumberFormatException e) {
+                continue;
+            }
         }
+        Collections.sort(segments);
+        return segments;
+    }
 
-        ByteBuffer raw = ByteBuffer.allocate(4);
+    private static FileChannel openSegment(File f) {
+        if(!f.canRead() || !f.canWrite()) {
+            Panic.panic(Error.FileCannotRWException);
+        }
         try {
-            fc.position(0);
-            fc.read(raw);
-        } catch (IOException e) {
+            return new RandomAccessFile(f, "rw").getChannel();
+        } catch (FileNotFoundException e) {
             Panic.panic(e);
         }
-        int xChecksum = Parser.parseInt(raw.array());
-        this.fileSize = size;
-        this.xChecksum = xChecksum;
+        return null;
+    }
 
-        checkAndRemoveTail();
+    private static long segment(long lsn) {
+        return lsn >>> 32;
     }
 
-    // 检查并移除bad tail
-    private void checkAndRemoveTail() {
-        rewind();
+    private static long offset(long lsn) {
+        return lsn & 0xFFFFFFFFL;
+    }
 
-        int xCheck = 0;
-        while(true) {
-            byte[] log = internNext();
-            if(log == null) break;
-            xCheck = calChecksum(xCheck, log);
-        }
-        if(xCheck != xChecksum) {
-            Panic.panic(Error.BadLogFileException);
+    private static long lsn(long segment, long offset) {
+        return (segment << 32) | offset;
+    }
+
+    // 长度为length的日志从lsn开始写时实际的起始位置，当前段放不下时从下一段开头写
+    private long place(long lsn, int length) {
+        if(offset(lsn) > 0 && offset(lsn) + length > segmentSize) {
+            return lsn(segment(lsn) + 1, 0);
         }
+        return lsn;
+    }
 
+    // 检查最后一段并移除bad tail，之前的段在切换到新段之前已经落盘
+    void init() {
+        List<Long> segments = listSegments(path);
+        if(segments.isEmpty()) {
+            Panic.panic(Error.FileNotExistsException);
+        }
+        long tail = segments.get(segments.size() - 1);
+        position = lsn(tail, 0);
+        while(internNext() != null);
+        closeReader();
         try {
             truncate(position);
         } catch (Exception e) {
             Panic.panic(e);
         }
-        try {
-            file.seek(position);
-        } catch (IOException e) {
-            Panic.panic(e);
-        }
+
+        appendLsn = durableLsn = position;
+        writerSegment = tail;
+        writer = openSegment(segmentFile(path, tail));
         rewind();
     }
 
-    private int calChecksum(int xCheck, byte[] log) {
-        for (byte b : log) {
-            xCheck = xCheck * SEED + b;
+    // 映射中offset处大小为size的日志的校验和
+    private static int checksum(ByteBuffer buf, int offset, int size) {
+        CRC32C crc = new CRC32C();
+        ByteBuffer b = buf.duplicate();
+        b.limit(offset + OF_SIZE + 4).position(offset + OF_SIZE);
+        crc.update(b);
+        b.limit(offset + OF_DATA + size).position(offset + OF_DATA);
+        crc.update(b);
+        return (int)crc.getValue();
+    }
+
+    private static int checksum(byte[] log, int size) {
+        CRC32C crc = new CRC32C();
+        crc.update(log, OF_SIZE, 4);
+        crc.update(log, OF_DATA, size);
+        return (int)crc.getValue();
+    }
+
+    private byte[] wrapLog(byte[] data) {
+        byte[] log = new byte[OF_DATA + data.length];
+        ByteBuffer buf = ByteBuffer.wrap(log);
+        buf.putInt(OF_SIZE, data.length);
+        System.arraycopy(data, 0, log, OF_DATA, data.length);
+        buf.putInt(OF_CHECKSUM, checksum(log, data.length));
+        return log;
+    }
+
+    // 返回时日志已经落盘
+    @Override
+    public long log(byte[] data) {
+        byte[] log = wrapLog(data);
+        lock.lock();
+        try {
+            long lsn = append(log);
+            waitDurable(lsn + log.length);
+            return lsn;
+        } finally {
+            lock.unlock();
         }
-        return xCheck;
     }
 
+    // 由之后的log或flush一起落盘
     @Override
-    public void log(byte[] data) {
+    public long logAsync(byte[] data) {
         byte[] log = wrapLog(data);
-        ByteBuffer buf = ByteBuffer.wrap(log);
         lock.lock();
         try {
-            fc.position(fc.size());
-            fc.write(buf);
-        } catch(IOException e) {
-            Panic.panic(e);
+            return append(log);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void flush() {
+        lock.lock();
+        try {
+            waitDurable(appendLsn);
         } finally {
             lock.unlock();
         }
-        updateXChecksum(log);
     }
 
-    private void updateXChecksum(byte[] log) {
-        this.xChecksum = calChecksum(this.xChecksum, log);
+    @Override
+    public long lsn() {
+        return appendLsn;
+    }
+
+    // 持有lock时调用，返回日志的LSN
+    private long append(byte[] log) {
+        if(bufferLength + log.length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, bufferLength + log.length));
+        }
+        System.arraycopy(log, 0, buffer, bufferLength, log.length);
+        bufferLength += log.length;
+        bufferRecords ++;
+        long lsn = place(appendLsn, log.length);
+        appendLsn = lsn + log.length;
+        if(bufferLength >= groupSize) {
+            full.signal();
+        }
+        return lsn;
+    }
+
+    // 持有lock时调用，没有领导者时自己成为领导者
+    private void waitDurable(long lsn) {
+        while(durableLsn < lsn) {
+            if(flushing) {
+                durable.awaitUninterruptibly();
+                continue;
+            }
+            flushing = true;
+            try {
+                flushBatch();
+            } finally {
+                flushing = false;
+                durable.signalAll();
+            }
+        }
+    }
+
+    // 持有lock时调用，写入期间释放lock，其他线程可以继续追加日志
+    private void flushBatch() {
+        long nanos = groupWindow;
+        while(nanos > 0 && bufferLength < groupSize) {
+            try {
+                nanos = full.awaitNanos(nanos);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        byte[] batch = buffer;
+        int length = bufferLength;
+        int records = bufferRecords;
+        long start = durableLsn;
+        long end = appendLsn;
+        buffer = spare;
+        bufferLength = 0;
+        bufferRecords = 0;
+
+        lock.unlock();
         try {
-            fc.position(0);
-            fc.write(ByteBuffer.wrap(Parser.int2Byte(xChecksum)));
-            fc.force(false);
+            write(batch, length, start);
+        } finally {
+            lock.lock();
+        }
+        spare = batch;
+        durableLsn = end;
+        stats.record(records, length);
+    }
+
+    // 只有领导者调用，按与append相同的规则把批次中的日志分到各段，连续的部分一次写入
+    private void write(byte[] batch, int length, long start) {
+        try {
+            int from = 0, pos = 0;
+            long runStart = start, lsn = start;
+            while(pos < length) {
+                int recordLength = OF_DATA + ByteBuffer.wrap(batch, pos + OF_SIZE, 4).getInt();
+                long recordStart = place(lsn, recordLength);
+                if(recordStart != lsn) {
+                    writeRun(batch, from, pos, runStart);
+                    switchSegment(segment(recordStart));
+                    from = pos;
+                    runStart = recordStart;
+                }
+                pos += recordLength;
+                lsn = recordStart + recordLength;
+            }
+            writeRun(batch, from, pos, runStart);
+            writer.force(false);
         } catch(IOException e) {
             Panic.panic(e);
         }
     }
 
-    private byte[] wrapLog(byte[] data) {
-        byte[] checksum = Parser.int2Byte(calChecksum(0, data));
-        byte[] size = Parser.int2Byte(data.length);
-        return Bytes.concat(size, checksum, data);
+    private void writeRun(byte[] batch, int from, int to, long lsn) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(batch, from, to - from);
+        long pos = offset(lsn);
+        while(buf.hasRemaining()) {
+            pos += writer.write(buf, pos);
+        }
+    }
+
+    // 当前段落盘后切换到新段
+    private void switchSegment(long segment) throws IOException {
+        writer.force(false);
+        writer.close();
+        File f = segmentFile(path, segment);
+        if(!f.createNewFile()) {
+            Panic.panic(Error.FileExistsException);
+        }
+        writer = openSegment(f);
+        writerSegment = segment;
     }
 
+    @Override
+    public GroupCommitStats getStats() {
+        return stats;
+    }
+
+    // 截断到x处，x之后的段全部删除
     @Override
     public void truncate(long x) throws Exception {
         lock.lock();
         try {
-            fc.truncate(x);
+            // 截断后不能再访问被截掉部分的映射
+            closeReader();
+            for(long segment : listSegments(path)) {
+                if(segment > segment(x)) {
+                    segmentFile(path, segment).delete();
+                }
+            }
+            try(FileChannel fc = openSegment(segmentFile(path, segment(x)))) {
+                fc.truncate(offset(x));
+                fc.force(false);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void removeBefore(long lsn) {
+        lock.lock();
+        try {
+            for(long segment : listSegments(path)) {
+                if(segment >= segment(lsn) || segment >= writerSegment) {
+                    break;
+                }
+                segmentFile(path, segment).delete();
+            }
         } finally {
             lock.unlock();
         }
     }
 
+    // 读取position处日志的Data，到达当前段的末尾或者日志不完整、校验失败时返回null
     private byte[] internNext() {
-        if(position + OF_DATA >= fileSize) {
+        if(reader == null) {
+            File f = segmentFile(path, segment(position));
+            if(!f.exists()) {
+                return null;
+            }
+            reader = mapSegment(f);
+            readerSize = reader.limit();
+        }
+        int offset = (int)offset(position);
+        if(offset + OF_DATA > readerSize) {
             return null;
         }
-        ByteBuffer tmp = ByteBuffer.allocate(4);
-        try {
-            fc.position(position);
-            fc.read(tmp);
-        } catch(IOException e) {
-            Panic.panic(e);
+        int size = reader.getInt(offset + OF_SIZE);
+        if(size < 0 || offset + OF_DATA + size > readerSize) {
+            return null;
         }
-        int size = Parser.parseInt(tmp.array());
-        if(position + size + OF_DATA > fileSize) {
+        if(checksum(reader, offset, size) != reader.getInt(offset + OF_CHECKSUM)) {
             return null;
         }
 
-        ByteBuffer buf = ByteBuffer.allocate(OF_DATA + size);
-        try {
-            fc.position(position);
-            fc.read(buf);
+        byte[] data = new byte[size];
+        ByteBuffer buf = reader.duplicate();
+        buf.position(offset + OF_DATA);
+        buf.get(data);
+        last = position;
+        position += OF_DATA + size;
+        return data;
+    }
+
+    private static MappedByteBuffer mapSegment(File f) {
+        try(FileChannel fc = FileChannel.open(f.toPath())) {
+            return fc.map(MapMode.READ_ONLY, 0, fc.size());
         } catch(IOException e) {
             Panic.panic(e);
         }
+        return null;
+    }
 
-        byte[] log = buf.array();
-        int checkSum1 = calChecksum(0, Arrays.copyOfRange(log, OF_DATA, log.length));
-        int checkSum2 = Parser.parseInt(Arrays.copyOfRange(log, OF_CHECKSUM, OF_DATA));
-        if(checkSum1 != checkSum2) {
-            return null;
-        }
-        position += log.length;
-        return log;
+    // 映射在被回收时解除，之后不再访问
+    private void closeReader() {
+        reader = null;
     }
 
     @Override
     public byte[] next() {
         lock.lock();
         try {
-            byte[] log = internNext();
-            if(log == null) return null;
-            return Arrays.copyOfRange(log, OF_DATA, log.length);
+            while(true) {
+                byte[] log = internNext();
+                if(log != null) {
+                    return log;
+                }
+                // 当前段读完后转到下一段，只有最后一段允许有不完整的尾部
+                long next = segment(position) + 1;
+                if(!segmentFile(path, next).exists()) {
+                    return null;
+                }
+                if(offset(position) != readerSize) {
+                    Panic.panic(Error.BadLogFileException);
+                }
+                closeReader();
+                position = lsn(next, 0);
+            }
         } finally {
             lock.unlock();
         }
     }
 
+    @Override
+    public long lastLsn() {
+        return last;
+    }
+
     @Override
     public void rewind() {
-        position = 4;
+        lock.lock();
+        try {
+            closeReader();
+            List<Long> segments = listSegments(path);
+            position = lsn(segments.isEmpty() ? 0 : segments.get(0), 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void seek(long lsn) {
+        lock.lock();
+        try {
+            closeReader();
+            position = lsn;
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
     public void close() {
+        flush();
+        closeReader();
         try {
-            fc.close();
-            file.close();
+            writer.close();
         } catch(IOException e) {
             Panic.panic(e);
         }
     }
-    
+
 }
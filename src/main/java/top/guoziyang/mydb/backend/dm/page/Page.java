@@ -1,11 +1,18 @@
 package top.guoziyang.mydb.backend.dm.page;
 
+import top.guoziyang.mydb.backend.common.SubArray;
+
+/**
+ * 页面的数据通过getData返回的访问器读写，底层是页帧而不是堆上的数组
+ */
 public interface Page {
     void lock();
     void unlock();
     void release();
     void setDirty(boolean dirty);
     boolean isDirty();
+    // 页面自上次写回后第一次变脏时日志的LSN，页面的修改日志都不早于该值；干净的页面为0
+    long getRecLsn();
     int getPageNumber();
-    byte[] getData();
+    SubArray getData();
 }
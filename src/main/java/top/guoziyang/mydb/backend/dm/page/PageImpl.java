@@ -1,21 +1,28 @@
 package top.guoziyang.mydb.backend.dm.page;
 
+import java.nio.ByteBuffer;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import top.guoziyang.mydb.backend.common.SubArray;
 import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
 
 public class PageImpl implements Page {
     private int pageNumber;
-    private byte[] data;
-    private boolean dirty;
+    private SubArray data;
+    private volatile boolean dirty;
+    private volatile long recLsn;
     private Lock lock;
     
     private PageCache pc;
 
     public PageImpl(int pageNumber, byte[] data, PageCache pc) {
+        this(pageNumber, ByteBuffer.wrap(data), pc);
+    }
+
+    public PageImpl(int pageNumber, ByteBuffer frame, PageCache pc) {
         this.pageNumber = pageNumber;
-        this.data = data;
+        this.data = new SubArray(frame, 0, PageCache.PAGE_SIZE);
         this.pc = pc;
         lock = new ReentrantLock();
     }
@@ -32,20 +39,43 @@ public class PageImpl implements Page {
         pc.release(this);
     }
 
+    // 修改页面的日志总是在页面变脏之后写入，变脏时日志的LSN就是这些日志的下界
     public void setDirty(boolean dirty) {
-        this.dirty = dirty;
+        if(!dirty) {
+            this.dirty = false;
+            this.recLsn = 0;
+            return;
+        }
+        if(this.dirty) {
+            return;
+        }
+        synchronized(this) {
+            if(!this.dirty) {
+                recLsn = pc == null ? 0 : pc.currentLsn();
+                this.dirty = true;
+            }
+        }
     }
 
     public boolean isDirty() {
         return dirty;
     }
 
+    public long getRecLsn() {
+        return recLsn;
+    }
+
     public int getPageNumber() {
         return pageNumber;
     }
 
-    public byte[] getData() {
+    public SubArray getData() {
         return data;
     }
 
+    // 页帧，被驱逐时归还给帧池
+    public ByteBuffer frame() {
+        return data.raw;
+    }
+
 }
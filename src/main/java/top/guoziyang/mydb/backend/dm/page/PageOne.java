@@ -2,6 +2,7 @@ package top.guoziyang.mydb.backend.dm.page;
 
 import java.util.Arrays;
 
+import top.guoziyang.mydb.backend.common.SubArray;
 import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
 import top.guoziyang.mydb.backend.utils.RandomUtil;
 
@@ -10,14 +11,18 @@ import top.guoziyang.mydb.backend.utils.RandomUtil;
  * ValidCheck
  * db启动时给100~107字节处填入一个随机字节，db关闭时将其拷贝到108~115字节
  * 用于判断上一次数据库是否正常关闭
+ *
+ * CheckpointLsn
+ * 116~123字节处为最近一次检查点日志的LSN，恢复从这里开始，0表示没有检查点
  */
 public class PageOne {
     private static final int OF_VC = 100;
     private static final int LEN_VC = 8;
+    private static final int OF_CHECKPOINT = OF_VC + 2*LEN_VC;
 
     public static byte[] InitRaw() {
         byte[] raw = new byte[PageCache.PAGE_SIZE];
-        setVcOpen(raw);
+        setVcOpen(new SubArray(raw, 0, raw.length));
         return raw;
     }
 
@@ -26,8 +31,8 @@ public class PageOne {
         setVcOpen(pg.getData());
     }
 
-    private static void setVcOpen(byte[] raw) {
-        System.arraycopy(RandomUtil.randomBytes(LEN_VC), 0, raw, OF_VC, LEN_VC);
+    private static void setVcOpen(SubArray raw) {
+        raw.putBytes(OF_VC, RandomUtil.randomBytes(LEN_VC));
     }
 
     public static void setVcClose(Page pg) {
@@ -35,15 +40,29 @@ public class PageOne {
         setVcClose(pg.getData());
     }
 
-    private static void setVcClose(byte[] raw) {
-        System.arraycopy(raw, OF_VC, raw, OF_VC+LEN_VC, LEN_VC);
+    private static void setVcClose(SubArray raw) {
+        raw.putBytes(OF_VC+LEN_VC, raw.getBytes(OF_VC, OF_VC+LEN_VC));
+    }
+
+    // 当前的ValidCheck，每次启动都不同
+    public static byte[] getVc(Page pg) {
+        return pg.getData().getBytes(OF_VC, OF_VC+LEN_VC);
+    }
+
+    public static void setCheckpoint(Page pg, long lsn) {
+        pg.setDirty(true);
+        pg.getData().putLong(OF_CHECKPOINT, lsn);
+    }
+
+    public static long getCheckpoint(Page pg) {
+        return pg.getData().getLong(OF_CHECKPOINT);
     }
 
     public static boolean checkVc(Page pg) {
         return checkVc(pg.getData());
     }
 
-    private static boolean checkVc(byte[] raw) {
-        return Arrays.equals(Arrays.copyOfRange(raw, OF_VC, OF_VC+LEN_VC), Arrays.copyOfRange(raw, OF_VC+LEN_VC, OF_VC+2*LEN_VC));
+    private static boolean checkVc(SubArray raw) {
+        return Arrays.equals(raw.getBytes(OF_VC, OF_VC+LEN_VC), raw.getBytes(OF_VC+LEN_VC, OF_VC+2*LEN_VC));
     }
 }
@@ -0,0 +1,48 @@
+package top.guoziyang.mydb.backend.dm.page;
+
+import top.guoziyang.mydb.backend.common.SubArray;
+import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+
+/**
+ * PageOverflow 管理溢出页，放不进普通页的大数据被切成若干段，每段独占一页，页面之间串成链
+ * 溢出页结构
+ * [Flag] [ChunkLength] [NextPgno] [Chunk]
+ * Flag:        2字节 固定为-1，普通页的FSO不会是负数，以此区分两种页面
+ * ChunkLength: 2字节 本页中数据段的长度
+ * NextPgno:    4字节 链上的下一页，0表示最后一页
+ */
+public class PageOverflow {
+
+    private static final short FLAG = -1;
+    private static final int OF_FLAG = 0;
+    private static final int OF_LENGTH = OF_FLAG + 2;
+    private static final int OF_NEXT = OF_LENGTH + 2;
+    private static final int OF_DATA = OF_NEXT + 4;
+    public static final int MAX_CHUNK = PageCache.PAGE_SIZE - OF_DATA;
+
+    // 用data[from, from+length)生成一个溢出页
+    public static byte[] initRaw(byte[] data, int from, int length, int next) {
+        byte[] raw = new byte[PageCache.PAGE_SIZE];
+        SubArray sa = new SubArray(raw, 0, raw.length);
+        sa.putShort(OF_FLAG, FLAG);
+        sa.putShort(OF_LENGTH, (short)length);
+        sa.putInt(OF_NEXT, next);
+        sa.putBytes(OF_DATA, data, from, length);
+        return raw;
+    }
+
+    public static boolean isOverflow(Page pg) {
+        return pg.getData().getShort(OF_FLAG) == FLAG;
+    }
+
+    public static int getNext(Page pg) {
+        return pg.getData().getInt(OF_NEXT);
+    }
+
+    // 以拷贝的形式返回本页的数据段
+    public static byte[] getChunk(Page pg) {
+        SubArray raw = pg.getData();
+        int length = raw.getShort(OF_LENGTH);
+        return raw.getBytes(OF_DATA, OF_DATA + length);
+    }
+}
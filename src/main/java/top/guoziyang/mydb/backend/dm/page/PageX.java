@@ -1,30 +1,54 @@
 package top.guoziyang.mydb.backend.dm.page;
 
-import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToLongBiFunction;
 
+import top.guoziyang.mydb.backend.common.SubArray;
 import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
-import top.guoziyang.mydb.backend.utils.Parser;
 
 /**
  * PageX管理普通页
  * 普通页结构
- * [FreeSpaceOffset] [Data]
+ * [FreeSpaceOffset] [SlotNumber] [PageLSN] [Data] ... [FreeSpace] ... [Slot n-1] ... [Slot 1] [Slot 0]
  * FreeSpaceOffset: 2字节 空闲位置开始偏移
+ * SlotNumber:      2字节 槽的个数
+ * PageLSN:         8字节 已应用到本页的最后一条日志的LSN，-1表示还没有
+ * Data:            数据项从页头之后向后增长
+ * Slot:            每个2字节，从页尾向前增长，记录数据项在页内的偏移，0表示该槽的数据项已被回收
+ *
+ * uid的低16位是槽号，整理页面时数据项可以移动而uid不变
+ * 整理页面时被回收的槽清零，末尾的空槽截去；之后插入的数据项优先复用清零的槽，槽目录不会无限增长
+ * 回收数据项之前已经删除了指向它的索引项，清零的槽不再被引用
+ *
+ * 恢复时LSN不大于PageLSN的日志已经包含在页面中，不再重做
  */
 public class PageX {
-    
+
     private static final short OF_FREE = 0;
-    private static final short OF_DATA = 2;
+    private static final short OF_SLOTS = 2;
+    private static final short OF_LSN = 4;
+    private static final short OF_DATA = 12;
+    public static final int SLOT_SIZE = 2;
     public static final int MAX_FREE_SPACE = PageCache.PAGE_SIZE - OF_DATA;
+    // 无效数据项占用的空间达到该值时整理页面
+    public static final int COMPACT_THRESHOLD = PageCache.PAGE_SIZE / 8;
+
+    // 数据项头部：[ValidFlag 1字节] [DataSize 2字节]，与DataItem一致
+    private static final int ITEM_OF_VALID = 0;
+    private static final int ITEM_OF_SIZE = 1;
+    private static final int ITEM_OF_DATA = 3;
 
     public static byte[] initRaw() {
         byte[] raw = new byte[PageCache.PAGE_SIZE];
-        setFSO(raw, OF_DATA);
+        SubArray sa = new SubArray(raw, 0, raw.length);
+        setFSO(sa, OF_DATA);
+        setSlotNumber(sa, (short)0);
+        sa.putLong(OF_LSN, -1);
         return raw;
     }
 
-    private static void setFSO(byte[] raw, short ofData) {
-        System.arraycopy(Parser.short2Byte(ofData), 0, raw, OF_FREE, OF_DATA);
+    private static void setFSO(SubArray raw, short ofData) {
+        raw.putShort(OF_FREE, ofData);
     }
 
     // 获取pg的FSO
@@ -32,38 +56,256 @@ public class PageX {
         return getFSO(pg.getData());
     }
 
-    private static short getFSO(byte[] raw) {
-        return Parser.parseShort(Arrays.copyOfRange(raw, 0, 2));
+    private static short getFSO(SubArray raw) {
+        return raw.getShort(OF_FREE);
+    }
+
+    private static void setSlotNumber(SubArray raw, short n) {
+        raw.putShort(OF_SLOTS, n);
+    }
+
+    private static short getSlotNumber(SubArray raw) {
+        return raw.getShort(OF_SLOTS);
+    }
+
+    private static int slotPosition(int slot) {
+        return PageCache.PAGE_SIZE - (slot+1) * SLOT_SIZE;
     }
 
-    // 将raw插入pg中，返回插入位置
+    private static short getSlot(SubArray raw, int slot) {
+        if(slot < 0 || slot >= getSlotNumber(raw)) {
+            return 0;
+        }
+        return raw.getShort(slotPosition(slot));
+    }
+
+    private static void setSlot(SubArray raw, int slot, short offset) {
+        raw.putShort(slotPosition(slot), offset);
+        if(getSlotNumber(raw) <= slot) {
+            setSlotNumber(raw, (short)(slot+1));
+        }
+    }
+
+    // 按槽号从小到大取count个清零的槽，不够时在末尾分配新槽
+    private static short[] freeSlots(SubArray raw, int count) {
+        short[] slots = new short[count];
+        short n = getSlotNumber(raw);
+        int k = 0;
+        for(short i = 0; i < n && k < count; i ++) {
+            if(raw.getShort(slotPosition(i)) == 0) {
+                slots[k ++] = i;
+            }
+        }
+        while(k < count) {
+            slots[k ++] = n ++;
+        }
+        return slots;
+    }
+
+    // 槽是否已经分配过，已被回收的槽也算已分配
+    public static boolean hasSlot(Page pg, short slot) {
+        return slot >= 0 && slot < getSlotNumber(pg.getData());
+    }
+
+    // 槽对应数据项在页内的偏移，槽不存在或已被回收时返回0
+    public static short getOffset(Page pg, short slot) {
+        return getSlot(pg.getData(), slot);
+    }
+
+    // 将raw插入pg中，返回分配的槽号，有清零的槽时复用最小的一个
+    // 多个线程可以同时向同一页插入，分配位置和槽在页面锁内完成
     public static short insert(Page pg, byte[] raw) {
+        return insertBatch(pg, List.of(raw), null)[0];
+    }
+
+    public static short[] insertBatch(Page pg, List<byte[]> raws) {
+        return insertBatch(pg, raws, null);
+    }
+
+    /**
+     * 在一次加锁中依次插入raws，返回分配的槽号
+     * log不为null时，先用分配的槽和位置调用log写入日志，再修改页面，返回的LSN记为PageLSN；
+     * 页面可能在释放之前就被写回时（内存映射），日志必须先于页面的修改
+     */
+    public static short[] insertBatch(Page pg, List<byte[]> raws, ToLongBiFunction<short[], short[]> log) {
+        pg.lock();
+        try {
+            SubArray data = pg.getData();
+            short[] slots = freeSlots(data, raws.size());
+            short[] offsets = new short[raws.size()];
+            short fso = getFSO(data);
+            for(int i = 0; i < raws.size(); i ++) {
+                offsets[i] = fso;
+                fso += raws.get(i).length;
+            }
+            long lsn = log == null ? -1 : log.applyAsLong(slots, offsets);
+
+            pg.setDirty(true);
+            for(int i = 0; i < raws.size(); i ++) {
+                data.putBytes(offsets[i], raws.get(i));
+                setSlot(data, slots[i], offsets[i]);
+            }
+            setFSO(data, fso);
+            if(getPageLsn(pg) < lsn) {
+                data.putLong(OF_LSN, lsn);
+            }
+            return slots;
+        } finally {
+            pg.unlock();
+        }
+    }
+
+    // 扩展区中预分配后从未写入的页面全为0，FSO为0
+    public static boolean isInitialized(Page pg) {
+        return getFSO(pg.getData()) >= OF_DATA;
+    }
+
+    public static void init(Page pg) {
         pg.setDirty(true);
-        short offset = getFSO(pg.getData());
-        System.arraycopy(raw, 0, pg.getData(), offset, raw.length);
-        setFSO(pg.getData(), (short)(offset + raw.length));
-        return offset;
+        setFSO(pg.getData(), OF_DATA);
+        setSlotNumber(pg.getData(), (short)0);
+        pg.getData().putLong(OF_LSN, -1);
+    }
+
+    public static long getPageLsn(Page pg) {
+        return pg.getData().getLong(OF_LSN);
+    }
+
+    // 写入修改pg的日志之后、释放页面之前调用，同一页的多条日志可能乱序写入，只保留最大的LSN
+    public static void setPageLsn(Page pg, long lsn) {
+        pg.lock();
+        try {
+            if(getPageLsn(pg) < lsn) {
+                pg.getData().putLong(OF_LSN, lsn);
+            }
+        } finally {
+            pg.unlock();
+        }
+    }
+
+    // lsn处日志的修改是否已经在pg中，未初始化的页面和溢出页没有PageLSN
+    public static boolean isApplied(Page pg, long lsn) {
+        return isInitialized(pg) && getPageLsn(pg) >= lsn;
     }
 
-    // 获取页面的空闲空间大小
+    // 获取页面的空闲空间大小，槽目录占用的空间不可用
     public static int getFreeSpace(Page pg) {
-        return PageCache.PAGE_SIZE - (int)getFSO(pg.getData());
+        SubArray raw = pg.getData();
+        return PageCache.PAGE_SIZE - getSlotNumber(raw) * SLOT_SIZE - (int)getFSO(raw);
     }
 
-    // 将raw插入pg中的offset位置，并将pg的offset设置为较大的offset
-    public static void recoverInsert(Page pg, byte[] raw, short offset) {
+    // 无效数据项占用的空间
+    public static int getDeadSpace(Page pg) {
+        SubArray raw = pg.getData();
+        int dead = 0;
+        int n = getSlotNumber(raw);
+        for(int i = 0; i < n; i ++) {
+            short offset = getSlot(raw, i);
+            if(offset != 0 && raw.get(offset + ITEM_OF_VALID) != 0) {
+                dead += itemLength(raw, offset);
+            }
+        }
+        return dead;
+    }
+
+    private static int itemLength(SubArray raw, short offset) {
+        return ITEM_OF_DATA + raw.getShort(offset + ITEM_OF_SIZE);
+    }
+
+    /**
+     * 整理页面：回收无效数据项，把有效数据项紧密排列到页头之后，并更新它们的槽，截去末尾的空槽
+     * 调用者必须保证页面没有其他引用，返回回收的字节数，包括截去的槽
+     */
+    public static int compact(Page pg) {
+        SubArray raw = pg.getData();
+        int n = getSlotNumber(raw);
+        short oldFSO = getFSO(raw);
+        byte[] image = raw.getBytes(0, oldFSO);
+        short fso = OF_DATA;
+        // 按偏移的顺序搬移，搬移的目标位置不会超过来源位置
+        short[] order = new short[n];
+        int live = 0;
+        for(int i = 0; i < n; i ++) {
+            short offset = getSlot(raw, i);
+            if(offset == 0) continue;
+            if(raw.get(offset + ITEM_OF_VALID) != 0) {
+                setSlot(raw, i, (short)0);
+                continue;
+            }
+            order[live ++] = (short)i;
+        }
+        sortByOffset(raw, order, live);
+        for(int k = 0; k < live; k ++) {
+            short offset = getSlot(raw, order[k]);
+            int length = itemLength(raw, offset);
+            raw.putBytes(fso, image, offset, length);
+            setSlot(raw, order[k], fso);
+            fso += length;
+        }
+        raw.putBytes(fso, new byte[oldFSO - fso]);
+        setFSO(raw, fso);
+        int slots = n;
+        while(slots > 0 && getSlot(raw, slots - 1) == 0) {
+            slots --;
+        }
+        setSlotNumber(raw, (short)slots);
         pg.setDirty(true);
-        System.arraycopy(raw, 0, pg.getData(), offset, raw.length);
+        return oldFSO - fso + (n - slots) * SLOT_SIZE;
+    }
+
+    private static void sortByOffset(SubArray raw, short[] slots, int n) {
+        for(int i = 1; i < n; i ++) {
+            short s = slots[i];
+            short offset = getSlot(raw, s);
+            int j = i - 1;
+            while(j >= 0 && getSlot(raw, slots[j]) > offset) {
+                slots[j+1] = slots[j];
+                j --;
+            }
+            slots[j+1] = s;
+        }
+    }
 
-        short rawFSO = getFSO(pg.getData());
+    // 用日志中的页面映像覆盖pg
+    public static void recoverImage(Page pg, byte[] image) {
+        pg.setDirty(true);
+        pg.getData().putBytes(0, image);
+    }
+
+    // 将raw插入pg中的offset位置并设置槽，并将pg的offset设置为较大的offset
+    public static void recoverInsert(Page pg, byte[] raw, short slot, short offset) {
+        pg.setDirty(true);
+        SubArray data = pg.getData();
+        if(!isInitialized(pg)) {
+            init(pg);
+        }
+        data.putBytes(offset, raw);
+        setSlot(data, slot, offset);
+
+        short rawFSO = getFSO(data);
         if(rawFSO < offset + raw.length) {
-            setFSO(pg.getData(), (short)(offset+raw.length));
+            setFSO(data, (short)(offset+raw.length));
         }
     }
 
-    // 将raw插入pg中的offset位置，不更新update
-    public static void recoverUpdate(Page pg, byte[] raw, short offset) {
+    // 将槽中的数据项标记为无效，槽不存在时返回false
+    public static boolean recoverInvalidate(Page pg, short slot) {
+        short offset = getSlot(pg.getData(), slot);
+        if(offset == 0) {
+            return false;
+        }
+        pg.setDirty(true);
+        pg.getData().put(offset + ITEM_OF_VALID, (byte)1);
+        return true;
+    }
+
+    // 将raw写入槽对应的数据项，不更新update，槽不存在时忽略
+    public static void recoverUpdate(Page pg, byte[] raw, short slot) {
+        short offset = getSlot(pg.getData(), slot);
+        if(offset == 0) {
+            return;
+        }
         pg.setDirty(true);
-        System.arraycopy(raw, 0, pg.getData(), offset, raw.length);
+        pg.getData().putBytes(offset, raw);
     }
 }
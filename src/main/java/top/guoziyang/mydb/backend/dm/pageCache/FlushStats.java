@@ -0,0 +1,49 @@
+package top.guoziyang.mydb.backend.dm.pageCache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 页面写回的统计信息
+ * 后台写线程按批写回脏页，每批合并成若干连续的run，整批只force一次
+ */
+public class FlushStats {
+    private long startNanos = System.nanoTime();
+
+    AtomicLong batches = new AtomicLong();        // 后台写回的批次数
+    AtomicLong runs = new AtomicLong();           // 合并后的写入次数
+    AtomicLong pages = new AtomicLong();          // 后台写回的页数
+    AtomicLong evictions = new AtomicLong();      // 驱逐时同步写回的页数
+    AtomicLong forces = new AtomicLong();         // force次数
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getRuns() {
+        return runs.get();
+    }
+
+    public long getPagesWritten() {
+        return pages.get();
+    }
+
+    public long getEvictionWrites() {
+        return evictions.get();
+    }
+
+    public long getForces() {
+        return forces.get();
+    }
+
+    // 自创建以来平均每秒写回的页数
+    public double getFlushRate() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds <= 0 ? 0 : (pages.get() + evictions.get()) / seconds;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("batches=%d runs=%d pages=%d evictions=%d forces=%d rate=%.1f pages/s",
+            getBatches(), getRuns(), getPagesWritten(), getEvictionWrites(), getForces(), getFlushRate());
+    }
+}
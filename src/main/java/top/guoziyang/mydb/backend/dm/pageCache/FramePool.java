@@ -0,0 +1,60 @@
+package top.guoziyang.mydb.backend.dm.pageCache;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 页帧池
+ * 以CHUNK_FRAMES个页为一块申请堆外内存，切分成页帧供缓存使用，页面被驱逐后帧回到池中复用，
+ * 缓冲池再大也不会在堆上留下大量长期存活的数组
+ */
+class FramePool {
+    private static final int CHUNK_FRAMES = 256;
+
+    private int maxFrames;
+    private int allocated;
+    private ConcurrentLinkedDeque<ByteBuffer> free;
+    private Lock lock;
+
+    FramePool(int maxFrames) {
+        this.maxFrames = maxFrames;
+        this.free = new ConcurrentLinkedDeque<>();
+        this.lock = new ReentrantLock();
+    }
+
+    ByteBuffer allocate() {
+        ByteBuffer frame = free.poll();
+        if(frame != null) {
+            return frame;
+        }
+        lock.lock();
+        try {
+            frame = free.poll();
+            if(frame != null) {
+                return frame;
+            }
+            int n = Math.min(CHUNK_FRAMES, maxFrames - allocated);
+            if(n <= 0) {
+                // 缓存短暂超出容量时单独申请
+                return ByteBuffer.allocateDirect(PageCache.PAGE_SIZE);
+            }
+            ByteBuffer chunk = ByteBuffer.allocateDirect(n * PageCache.PAGE_SIZE);
+            for(int i = 0; i < n; i ++) {
+                chunk.position(i * PageCache.PAGE_SIZE);
+                chunk.limit((i+1) * PageCache.PAGE_SIZE);
+                free.push(chunk.slice());
+            }
+            allocated += n;
+            frame = free.poll();
+            return frame != null ? frame : ByteBuffer.allocateDirect(PageCache.PAGE_SIZE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void recycle(ByteBuffer frame) {
+        free.push(frame);
+    }
+}
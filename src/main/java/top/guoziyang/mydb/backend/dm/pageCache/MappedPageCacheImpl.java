@@ -0,0 +1,205 @@
+package top.guoziyang.mydb.backend.dm.pageCache;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.ToIntFunction;
+
+import top.guoziyang.mydb.backend.common.AbstractCache;
+import top.guoziyang.mydb.backend.common.EvictionPolicy;
+import top.guoziyang.mydb.backend.dm.page.Page;
+import top.guoziyang.mydb.backend.dm.page.PageImpl;
+import top.guoziyang.mydb.backend.utils.Panic;
+import top.guoziyang.mydb.common.Error;
+
+/**
+ * 基于内存映射的PageCache
+ * 数据库文件按SEGMENT_SIZE分段映射，newPage超出已映射范围时映射新的段（同时扩展文件），
+ * Page是映射段上的零拷贝视图，读写页面不再经过read/write系统调用，预读交给操作系统
+ * 映射段会让文件长度按段增长；映射期间截断文件的结果是未定义的（Windows上直接失败），
+ * 所以文件不会被截断，打开时从尾部跳过全0的页面得到实际页数，回退页数时把多出的页面清零
+ */
+public class MappedPageCacheImpl extends AbstractCache<Page> implements PageCache {
+
+    private static final int MEM_MIN_LIM = 10;
+    static final int SEGMENT_PAGES = 1 << 13;
+    static final long SEGMENT_SIZE = (long)SEGMENT_PAGES * PAGE_SIZE;
+
+    private RandomAccessFile file;
+    private FileChannel fc;
+    private CopyOnWriteArrayList<MappedByteBuffer> segments;
+    private Lock mapLock;
+
+    private AtomicInteger pageNumbers;
+    private volatile LongSupplier lsnSource = () -> 0;
+
+    MappedPageCacheImpl(RandomAccessFile file, FileChannel fileChannel, int maxResource, String policy) {
+        super(maxResource, EvictionPolicy.newPolicy(policy, maxResource));
+        if(maxResource < MEM_MIN_LIM) {
+            Panic.panic(Error.MemTooSmallException);
+        }
+        long length = 0;
+        try {
+            length = file.length();
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        this.file = file;
+        this.fc = fileChannel;
+        this.segments = new CopyOnWriteArrayList<>();
+        this.mapLock = new ReentrantLock();
+        this.pageNumbers = new AtomicInteger(usedPages((int)(length / PAGE_SIZE)));
+    }
+
+    // 文件停留在映射段的长度，从尾部跳过全0的页面，这些是映射时扩展出来但没有写入过或者被回退的页面
+    private int usedPages(int filePages) {
+        int pgno = filePages;
+        for(; pgno > 0; pgno --) {
+            if(!isZero(pageView(pgno))) break;
+        }
+        return pgno;
+    }
+
+    private static boolean isZero(ByteBuffer view) {
+        while(view.remaining() >= Long.BYTES) {
+            if(view.getLong() != 0) return false;
+        }
+        while(view.hasRemaining()) {
+            if(view.get() != 0) return false;
+        }
+        return true;
+    }
+
+    // 取得pgno所在的映射段，不存在则映射
+    private MappedByteBuffer segment(int pgno) {
+        int idx = (pgno-1) / SEGMENT_PAGES;
+        if(idx < segments.size()) {
+            return segments.get(idx);
+        }
+        mapLock.lock();
+        try {
+            while(segments.size() <= idx) {
+                long position = segments.size() * SEGMENT_SIZE;
+                segments.add(fc.map(FileChannel.MapMode.READ_WRITE, position, SEGMENT_SIZE));
+            }
+        } catch(IOException e) {
+            Panic.panic(e);
+        } finally {
+            mapLock.unlock();
+        }
+        return segments.get(idx);
+    }
+
+    // 返回pgno对应页面在映射段中的视图
+    private ByteBuffer pageView(int pgno) {
+        ByteBuffer view = segment(pgno).duplicate();
+        int pos = (int)(((long)(pgno-1) % SEGMENT_PAGES) * PAGE_SIZE);
+        view.position(pos);
+        view.limit(pos + PAGE_SIZE);
+        return view.slice();
+    }
+
+    public int newPage(byte[] initData) {
+        int pgno = pageNumbers.incrementAndGet();
+        pageView(pgno).put(initData);
+        return pgno;
+    }
+
+    public Page getPage(int pgno) throws Exception {
+        return get((long)pgno);
+    }
+
+    /**
+     * 页面直接是映射段上的视图，不拷贝数据
+     */
+    @Override
+    protected Page getForCache(long key) throws Exception {
+        int pgno = (int)key;
+        return new PageImpl(pgno, pageView(pgno), this);
+    }
+
+    // 修改直接落在映射区域上，由操作系统或force写回
+    @Override
+    protected void releaseForCache(Page pg) {
+        pg.setDirty(false);
+    }
+
+    public void release(Page page) {
+        release((long)page.getPageNumber());
+    }
+
+    public int runExclusive(Page pg, ToIntFunction<Page> action) {
+        return runIfExclusive(pg.getPageNumber(), action);
+    }
+
+    public void flushPage(Page pg) {
+        segment(pg.getPageNumber()).force();
+        pg.setDirty(false);
+    }
+
+    public void setLsnSource(LongSupplier lsnSource) {
+        this.lsnSource = lsnSource;
+    }
+
+    public long currentLsn() {
+        return lsnSource.getAsLong();
+    }
+
+    // 映射区域的修改由操作系统随时写回，无法在写回之前落盘日志
+    public boolean setLogFlusher(Runnable logFlusher) {
+        return false;
+    }
+
+    // 修改直接落在映射区域上，force之后调用开始之前的所有修改都已持久化，脏页表为空
+    public Map<Integer, Long> dirtyPageTable() {
+        checkpoint();
+        return new HashMap<>();
+    }
+
+    public void checkpoint() {
+        for(MappedByteBuffer seg : segments) {
+            seg.force();
+        }
+    }
+
+    // 映射区域的预读交给操作系统
+    public void prefetch(int pgno, int count) {}
+
+    // 映射区域不能截断，回退页数并把多出的页面清零落盘，重新打开时不会再计入页数
+    public void truncateByBgno(int maxPgno) {
+        int last = pageNumbers.getAndSet(maxPgno);
+        byte[] zero = new byte[PAGE_SIZE];
+        for(int pgno = maxPgno + 1; pgno <= last; pgno ++) {
+            pageView(pgno).put(zero);
+        }
+        checkpoint();
+    }
+
+    // 不截断文件，只落盘并丢弃映射段的引用，映射在段被回收时解除
+    @Override
+    public void close() {
+        super.close();
+        checkpoint();
+        segments.clear();
+        try {
+            fc.close();
+            file.close();
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    public int getPageNumber() {
+        return pageNumbers.intValue();
+    }
+
+}
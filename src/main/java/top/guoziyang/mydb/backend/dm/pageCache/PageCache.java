@@ -4,7 +4,11 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.function.ToIntFunction;
 
+import top.guoziyang.mydb.backend.common.EvictionPolicy;
 import top.guoziyang.mydb.backend.dm.page.Page;
 import top.guoziyang.mydb.backend.utils.Panic;
 import top.guoziyang.mydb.common.Error;
@@ -12,6 +16,7 @@ import top.guoziyang.mydb.common.Error;
 public interface PageCache {
     
     public static final int PAGE_SIZE = 1 << 13;
+    public static final int READ_AHEAD_PAGES = 32;
 
     int newPage(byte[] initData);
     Page getPage(int pgno) throws Exception;
@@ -21,8 +26,49 @@ public interface PageCache {
     void truncateByBgno(int maxPgno);
     int getPageNumber();
     void flushPage(Page pg);
+    // 写回所有未被引用的脏页并落盘
+    void checkpoint();
+    // 提示即将访问[pgno, pgno+count)的页面，可以提前异步读入
+    void prefetch(int pgno, int count);
+    // 调用者持有pg唯一的引用时执行action并返回其结果，执行期间其他线程不能获取pg；否则返回-1
+    int runExclusive(Page pg, ToIntFunction<Page> action);
+    // 设置日志当前LSN的来源，页面变脏时以此作为recLSN
+    void setLsnSource(LongSupplier lsnSource);
+    long currentLsn();
+    // 设置写回页面之前落盘日志的方法，修改页面的日志可以不等落盘就释放页面
+    // 返回false表示页面可能在任何时候被写回，日志必须在释放页面之前落盘
+    boolean setLogFlusher(Runnable logFlusher);
+    // 检查点使用的脏页表：返回仍为脏的页面的页号和recLSN，返回前落盘所有已经写回的页面，
+    // 不在表中的页面在调用开始之前的修改都已持久化
+    Map<Integer, Long> dirtyPageTable();
 
     public static PageCacheImpl create(String path, long memory) {
+        return create(path, memory, EvictionPolicy.CLOCK);
+    }
+
+    public static PageCacheImpl create(String path, long memory, String policy) {
+        File f = createFile(path);
+
+        FileChannel fc = null;
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(f, "rw");
+            fc = raf.getChannel();
+        } catch (FileNotFoundException e) {
+           Panic.panic(e);
+        }
+        return new PageCacheImpl(raf, fc, (int)memory/PAGE_SIZE, policy);
+    }
+
+    /**
+     * 按open的参数创建：新建空文件后以相同的方式打开
+     */
+    public static PageCache create(String path, long memory, String policy, boolean mmap, int dirtyRatio) {
+        createFile(path);
+        return open(path, memory, policy, mmap, dirtyRatio);
+    }
+
+    private static File createFile(String path) {
         File f = new File(path+PageCacheImpl.DB_SUFFIX);
         try {
             if(!f.createNewFile()) {
@@ -34,6 +80,25 @@ public interface PageCache {
         if(!f.canRead() || !f.canWrite()) {
             Panic.panic(Error.FileCannotRWException);
         }
+        return f;
+    }
+
+    public static PageCacheImpl open(String path, long memory) {
+        return open(path, memory, EvictionPolicy.CLOCK);
+    }
+
+    public static PageCacheImpl open(String path, long memory, String policy) {
+        return open(path, memory, policy, PageCacheImpl.DEFAULT_DIRTY_RATIO);
+    }
+
+    public static PageCacheImpl open(String path, long memory, String policy, int dirtyRatio) {
+        File f = new File(path+PageCacheImpl.DB_SUFFIX);
+        if(!f.exists()) {
+            Panic.panic(Error.FileNotExistsException);
+        }
+        if(!f.canRead() || !f.canWrite()) {
+            Panic.panic(Error.FileCannotRWException);
+        }
 
         FileChannel fc = null;
         RandomAccessFile raf = null;
@@ -43,10 +108,23 @@ public interface PageCache {
         } catch (FileNotFoundException e) {
            Panic.panic(e);
         }
-        return new PageCacheImpl(raf, fc, (int)memory/PAGE_SIZE);
+        return new PageCacheImpl(raf, fc, (int)memory/PAGE_SIZE, policy, dirtyRatio);
     }
 
-    public static PageCacheImpl open(String path, long memory) {
+    /**
+     * mmap为true时打开基于内存映射的实现，否则为基于FileChannel读写的实现
+     */
+    public static PageCache open(String path, long memory, String policy, boolean mmap) {
+        return open(path, memory, policy, mmap, PageCacheImpl.DEFAULT_DIRTY_RATIO);
+    }
+
+    /**
+     * dirtyRatio为脏页高水位占缓存页数的百分比，超过后唤醒后台写线程，只对非mmap实现有效
+     */
+    public static PageCache open(String path, long memory, String policy, boolean mmap, int dirtyRatio) {
+        if(!mmap) {
+            return open(path, memory, policy, dirtyRatio);
+        }
         File f = new File(path+PageCacheImpl.DB_SUFFIX);
         if(!f.exists()) {
             Panic.panic(Error.FileNotExistsException);
@@ -63,6 +141,6 @@ public interface PageCache {
         } catch (FileNotFoundException e) {
            Panic.panic(e);
         }
-        return new PageCacheImpl(raf, fc, (int)memory/PAGE_SIZE);
+        return new MappedPageCacheImpl(raf, fc, (int)memory/PAGE_SIZE, policy);
     }
 }
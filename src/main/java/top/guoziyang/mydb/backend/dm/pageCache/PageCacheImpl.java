@@ -4,29 +4,92 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.ToIntFunction;
 
 import top.guoziyang.mydb.backend.common.AbstractCache;
+import top.guoziyang.mydb.backend.common.EvictionPolicy;
 import top.guoziyang.mydb.backend.dm.page.Page;
 import top.guoziyang.mydb.backend.dm.page.PageImpl;
 import top.guoziyang.mydb.backend.utils.Panic;
 import top.guoziyang.mydb.common.Error;
 
+/**
+ * 基于FileChannel读写的PageCache
+ *
+ * 页面的写回不再逐页force：脏页数超过高水位时唤醒后台写线程，收集未被引用的脏页，
+ * 按页号排序后把连续的页面合并成一次写入，整批只force一次；checkpoint和close时同样处理所有脏页。
+ * 持久性由日志保证：页面的修改都发生在页面被引用期间，而日志在修改返回前已经落盘，
+ * 所以只写回未被引用的页面就不会把没有日志的修改写进数据文件
+ *
+ * 读取方面支持预读：连续的缺页或显式的prefetch提示会让预读线程用一次分散读取把后续页面读入页帧，
+ * 预读的页面在加载期间就占住缓存位置，并发的getPage等待它完成，而不会重复读盘
+ *
+ * 文件按扩展区（EXTENT_PAGES个页面）增长：newPage超出已分配区域时一次性把文件扩展一个扩展区，
+ * 区内的页面从内存中依次分配，不再逐页扩展文件。已分配但未使用的尾部在close时截断；
+ * 崩溃后文件尾部可能留有全0的预分配页面，打开时从尾部跳过这些页面得到实际页数
+ */
 public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
     
     private static final int MEM_MIN_LIM = 10;
     public static final String DB_SUFFIX = ".db";
+    public static final int DEFAULT_DIRTY_RATIO = 50;     // 默认脏页高水位，占缓存页数的百分比
+
+    private static final int RUN_PAGES = 32;              // 一次合并写入的最大页数
+    static final int EXTENT_PAGES = 128;                  // 每次扩展文件的页数，即1MB
+    private static final int SEQUENTIAL_TRIGGER = 2;      // 连续缺页达到该次数时开始预读
 
     private RandomAccessFile file;
     private FileChannel fc;
-    private Lock fileLock;
+    private FramePool frames;
+
+    private AtomicInteger pageNumbers;                    // 已经分配出去并写入初始内容的页数
+    private volatile int allocatedPages;                  // 文件中已预分配的页数
+    private Lock extendLock;                              // 分配页面和改变文件长度时持有
+
+    private Set<Integer> dirtyPages;                      // 被释放时仍为脏的页号，可能包含已经写回的页
+    private int dirtyHighWater;
+    private int runPages;
+    private ByteBuffer staging;                           // 合并写入的缓冲区，只在checkpointLock内使用
+    private AtomicBoolean unforced;                       // 上次force之后是否有写入
+    private FlushStats stats;
+
+    private Lock checkpointLock;
+    private Lock writerLock;
+    private Condition writerWakeup;
+    private volatile boolean closed;
+    private Thread writer;
 
-    private AtomicInteger pageNumbers;
+    private volatile LongSupplier lsnSource = () -> 0;
+    private volatile Runnable logFlusher = () -> {};
 
-    PageCacheImpl(RandomAccessFile file, FileChannel fileChannel, int maxResource) {
-        super(maxResource);
+    private int readAhead;                                // 一次预读的最大页数
+    private AtomicInteger lastMiss;
+    private AtomicInteger sequentialMisses;
+    private AtomicLong prefetched;
+    private ThreadPoolExecutor prefetcher;
+
+    PageCacheImpl(RandomAccessFile file, FileChannel fileChannel, int maxResource, String policy) {
+        this(file, fileChannel, maxResource, policy, DEFAULT_DIRTY_RATIO);
+    }
+
+    PageCacheImpl(RandomAccessFile file, FileChannel fileChannel, int maxResource, String policy, int dirtyRatio) {
+        super(maxResource, EvictionPolicy.newPolicy(policy, maxResource));
         if(maxResource < MEM_MIN_LIM) {
             Panic.panic(Error.MemTooSmallException);
         }
@@ -38,87 +101,445 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
         }
         this.file = file;
         this.fc = fileChannel;
-        this.fileLock = new ReentrantLock();
-        this.pageNumbers = new AtomicInteger((int)length / PAGE_SIZE);
+        this.frames = new FramePool(maxResource);
+        this.allocatedPages = (int)(length / PAGE_SIZE);
+        this.pageNumbers = new AtomicInteger(usedPages(allocatedPages));
+        this.extendLock = new ReentrantLock();
+
+        this.dirtyPages = ConcurrentHashMap.newKeySet();
+        this.dirtyHighWater = Math.max(1, maxResource * dirtyRatio / 100);
+        // 写线程合并写入时会暂时引用这些页面，不能占用太多缓存
+        this.runPages = Math.max(1, Math.min(RUN_PAGES, maxResource / 4));
+        this.staging = ByteBuffer.allocateDirect(runPages * PAGE_SIZE);
+        this.unforced = new AtomicBoolean(false);
+        this.stats = new FlushStats();
+        this.checkpointLock = new ReentrantLock();
+        this.writerLock = new ReentrantLock();
+        this.writerWakeup = writerLock.newCondition();
+        this.writer = new Thread(this::writerLoop, "page-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+
+        // 预读的页面同样占用缓存，窗口不能超过缓存的一部分，否则会把自己挤出去
+        this.readAhead = Math.max(1, Math.min(READ_AHEAD_PAGES, maxResource / 4));
+        this.lastMiss = new AtomicInteger(-1);
+        this.sequentialMisses = new AtomicInteger(0);
+        this.prefetched = new AtomicLong(0);
+        // 排队的请求都已占住缓存位置，数量不会超过缓存大小；关闭后提交的请求被丢弃，占位由close清理
+        this.prefetcher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, "page-prefetcher");
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.DiscardPolicy());
     }
 
-    public int newPage(byte[] initData) {
-        int pgno = pageNumbers.incrementAndGet();
-        Page pg = new PageImpl(pgno, initData, null);
-        flush(pg);
+    // 从尾部跳过全0的页面，这些是预分配后没有写入过的页面
+    private int usedPages(int filePages) {
+        ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
+        int pgno = filePages;
+        try {
+            for(; pgno > 0; pgno --) {
+                buf.clear();
+                while(buf.hasRemaining()) {
+                    if(fc.read(buf, pageOffset(pgno) + buf.position()) < 0) break;
+                }
+                if(!isZero(buf.array(), buf.position())) break;
+            }
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
         return pgno;
     }
 
+    private static boolean isZero(byte[] raw, int length) {
+        for(int i = 0; i < length; i ++) {
+            if(raw[i] != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 从已分配的扩展区中取出一个页面，页面内容只写入操作系统缓存，不单独force
+     * 写入初始内容之后才计入页数，预读不会把还没有初始化的页面读入缓存
+     */
+    public int newPage(byte[] initData) {
+        extendLock.lock();
+        try {
+            int pgno = pageNumbers.get() + 1;
+            if(pgno > allocatedPages) {
+                extend(pgno);
+            }
+            Page pg = new PageImpl(pgno, initData, null);
+            write(pg);
+            pageNumbers.set(pgno);
+            return pgno;
+        } finally {
+            extendLock.unlock();
+        }
+    }
+
+    // 把文件扩展到包含pgno的扩展区末尾，Java没有fallocate，这里是一次setLength
+    private void extend(int pgno) {
+        extendLock.lock();
+        try {
+            if(pgno <= allocatedPages) {
+                return;
+            }
+            int end = (pgno + EXTENT_PAGES - 1) / EXTENT_PAGES * EXTENT_PAGES;
+            file.setLength(pageOffset(end + 1));
+            allocatedPages = end;
+        } catch(IOException e) {
+            Panic.panic(e);
+        } finally {
+            extendLock.unlock();
+        }
+    }
+
     public Page getPage(int pgno) throws Exception {
         return get((long)pgno);
     }
 
     /**
-     * 根据pageNumber从数据库文件中读取页数据，并包裹成Page
+     * 根据pageNumber从数据库文件中读取页数据到帧池的页帧中，并包裹成Page
+     * 页面引用归零后仍驻留在缓存中，直到被置换策略选中才写回
      */
     @Override
     protected Page getForCache(long key) throws Exception {
         int pgno = (int)key;
         long offset = PageCacheImpl.pageOffset(pgno);
+        detectSequential(pgno);
 
-        ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
-        fileLock.lock();
+        ByteBuffer buf = frames.allocate();
+        buf.clear();
+        // 按位置读取不改变channel的position，多个缺页可以并行读盘
         try {
-            fc.position(offset);
-            fc.read(buf);
+            while(buf.hasRemaining()) {
+                if(fc.read(buf, offset + buf.position()) < 0) break;
+            }
         } catch(IOException e) {
             Panic.panic(e);
         }
-        fileLock.unlock();
-        return new PageImpl(pgno, buf.array(), this);
+        // 文件末尾之外的部分清零，避免残留上一个页面的数据
+        while(buf.hasRemaining()) {
+            buf.put((byte)0);
+        }
+        buf.clear();
+        return new PageImpl(pgno, buf, this);
     }
 
+    // 连续的缺页说明正在顺序扫描，预读其后的页面
+    private void detectSequential(int pgno) {
+        int prev = lastMiss.getAndSet(pgno);
+        if(pgno != prev + 1) {
+            sequentialMisses.set(0);
+            return;
+        }
+        if(sequentialMisses.incrementAndGet() >= SEQUENTIAL_TRIGGER) {
+            // 读完预读窗口后的下一次缺页仍视为顺序访问，继续预读
+            lastMiss.set(pgno + readAhead);
+            prefetch(pgno + 1, readAhead);
+        }
+    }
+
+    /**
+     * 提示即将访问[pgno, pgno+count)的页面
+     * 在调用线程中为不在缓存中的页面占位，之后的getPage会等待预读完成而不是重复读盘，读盘由预读线程异步进行
+     */
+    public void prefetch(int pgno, int count) {
+        int first = Math.max(pgno, 1);
+        int last = Math.min(pgno + Math.min(count, readAhead) - 1, pageNumbers.get());
+        if(first > last || closed) {
+            return;
+        }
+        int runStart = first, runLength = 0;
+        for(int i = first; i <= last; i ++) {
+            if(reserve(i)) {
+                if(runLength == 0) runStart = i;
+                runLength ++;
+            } else if(runLength > 0) {
+                // 已在缓存中的页面打断了连续区间
+                submitRun(runStart, runLength);
+                runLength = 0;
+            }
+        }
+        if(runLength > 0) {
+            submitRun(runStart, runLength);
+        }
+    }
+
+    private void submitRun(int first, int length) {
+        prefetcher.execute(() -> readRun(first, length));
+    }
+
+    // 一次分散读取把连续的页面读入各自的页帧
+    // 只有预读线程使用channel的position，其他读写都是按位置进行的
+    private void readRun(int first, int length) {
+        ByteBuffer[] bufs = new ByteBuffer[length];
+        for(int i = 0; i < length; i ++) {
+            bufs[i] = frames.allocate();
+            bufs[i].clear();
+        }
+        try {
+            fc.position(pageOffset(first));
+            while(bufs[length-1].hasRemaining()) {
+                if(fc.read(bufs) < 0) break;
+            }
+        } catch(IOException e) {
+            for(int i = 0; i < length; i ++) {
+                fail(first + i, e);
+                frames.recycle(bufs[i]);
+            }
+            return;
+        }
+        for(int i = 0; i < length; i ++) {
+            ByteBuffer buf = bufs[i];
+            while(buf.hasRemaining()) {
+                buf.put((byte)0);
+            }
+            buf.clear();
+            complete(first + i, new PageImpl(first + i, buf, this));
+        }
+        prefetched.addAndGet(length);
+    }
+
+    public long getPrefetchedPages() {
+        return prefetched.get();
+    }
+
+    /**
+     * 被驱逐的脏页同步写回，但不force，由下一次checkpoint统一force
+     */
     @Override
     protected void releaseForCache(Page pg) {
         if(pg.isDirty()) {
-            flush(pg);
+            logFlusher.run();
+            write(pg);
             pg.setDirty(false);
+            stats.evictions.incrementAndGet();
         }
+        frames.recycle(((PageImpl)pg).frame());
     }
 
     public void release(Page page) {
+        if(page.isDirty()) {
+            dirtyPages.add(page.getPageNumber());
+            if(dirtyPages.size() > dirtyHighWater) {
+                wakeWriter();
+            }
+        }
         release((long)page.getPageNumber());
     }
 
+    public int runExclusive(Page pg, ToIntFunction<Page> action) {
+        return runIfExclusive(pg.getPageNumber(), action);
+    }
+
     public void flushPage(Page pg) {
-        flush(pg);
+        logFlusher.run();
+        write(pg);
+        pg.setDirty(false);
+        force();
+    }
+
+    public void setLsnSource(LongSupplier lsnSource) {
+        this.lsnSource = lsnSource;
+    }
+
+    public long currentLsn() {
+        return lsnSource.getAsLong();
+    }
+
+    // 脏页写回之前先让日志落盘；newPage写入的新页面不依赖任何日志
+    public boolean setLogFlusher(Runnable logFlusher) {
+        this.logFlusher = logFlusher;
+        return true;
+    }
+
+    /**
+     * 在checkpointLock内收集脏页，写线程不会有拷贝了但还没写入的页面；
+     * 被驱逐的页面在移出缓存之前已经写入，收集之后的force把它们一起落盘
+     */
+    public Map<Integer, Long> dirtyPageTable() {
+        checkpointLock.lock();
+        try {
+            Map<Integer, Long> dpt = new HashMap<>();
+            forEachLoaded(pg -> {
+                if(pg.isDirty()) {
+                    dpt.put(pg.getPageNumber(), pg.getRecLsn());
+                }
+            });
+            force();
+            return dpt;
+        } finally {
+            checkpointLock.unlock();
+        }
     }
 
-    private void flush(Page pg) {
-        int pgno = pg.getPageNumber();
-        long offset = pageOffset(pgno);
+    private void write(Page pg) {
+        ByteBuffer buf = pg.getData().raw.duplicate();
+        buf.clear();
+        writeAt(buf, pageOffset(pg.getPageNumber()));
+    }
 
-        fileLock.lock();
+    private void writeAt(ByteBuffer buf, long offset) {
+        long start = offset - buf.position();
+        try {
+            while(buf.hasRemaining()) {
+                fc.write(buf, start + buf.position());
+            }
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+        unforced.set(true);
+    }
+
+    private void force() {
+        if(!unforced.getAndSet(false)) {
+            return;
+        }
         try {
-            ByteBuffer buf = ByteBuffer.wrap(pg.getData());
-            fc.position(offset);
-            fc.write(buf);
             fc.force(false);
         } catch(IOException e) {
             Panic.panic(e);
+        }
+        stats.forces.incrementAndGet();
+    }
+
+    /**
+     * 写回所有未被引用的脏页，并force一次
+     * 被引用的脏页留给下一次checkpoint，持有者释放时会重新登记
+     */
+    public void checkpoint() {
+        checkpointLock.lock();
+        try {
+            writeDirtyPages();
+            force();
         } finally {
-            fileLock.unlock();
+            checkpointLock.unlock();
         }
     }
 
+    private void writeDirtyPages() {
+        int[] pgnos = dirtyPages.stream().mapToInt(Integer::intValue).sorted().toArray();
+        if(pgnos.length == 0) {
+            return;
+        }
+        List<Integer> run = new ArrayList<>();
+        for(int pgno : pgnos) {
+            dirtyPages.remove(pgno);
+            if(!run.isEmpty() && (pgno != run.get(0) + run.size() || run.size() == runPages)) {
+                writeRun(run);
+            }
+            int slot = run.size();
+            // 独占该页时拷贝，拷贝的是一个没有进行中修改的完整页面
+            boolean pinned = pinIfUnreferenced(pgno, pg -> {
+                if(!pg.isDirty()) {
+                    return false;
+                }
+                ByteBuffer src = pg.getData().raw.duplicate();
+                src.clear();
+                ByteBuffer dst = staging.duplicate();
+                dst.position(slot * PAGE_SIZE);
+                dst.put(src);
+                pg.setDirty(false);
+                return true;
+            });
+            if(pinned) {
+                run.add(pgno);
+            }
+        }
+        if(!run.isEmpty()) {
+            writeRun(run);
+        }
+        stats.batches.incrementAndGet();
+    }
+
+    // 写入一段连续的页面，写完后才解除引用，避免驱逐时写入的新内容被旧的拷贝覆盖
+    private void writeRun(List<Integer> run) {
+        logFlusher.run();
+        ByteBuffer buf = staging.duplicate();
+        buf.position(0);
+        buf.limit(run.size() * PAGE_SIZE);
+        writeAt(buf, pageOffset(run.get(0)));
+        for(int pgno : run) {
+            release((long)pgno);
+        }
+        stats.runs.incrementAndGet();
+        stats.pages.addAndGet(run.size());
+        run.clear();
+    }
+
+    private void wakeWriter() {
+        writerLock.lock();
+        try {
+            writerWakeup.signal();
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    private void writerLoop() {
+        while(!closed) {
+            writerLock.lock();
+            try {
+                if(!closed && dirtyPages.size() <= dirtyHighWater) {
+                    writerWakeup.await();
+                }
+            } catch(InterruptedException e) {
+                return;
+            } finally {
+                writerLock.unlock();
+            }
+            if(closed) {
+                return;
+            }
+            checkpoint();
+        }
+    }
+
+    public FlushStats getFlushStats() {
+        return stats;
+    }
+
     public void truncateByBgno(int maxPgno) {
-        long size = pageOffset(maxPgno + 1);
+        extendLock.lock();
         try {
-            file.setLength(size);
+            file.setLength(pageOffset(maxPgno + 1));
+            allocatedPages = maxPgno;
+            pageNumbers.set(maxPgno);
         } catch (IOException e) {
             Panic.panic(e);
+        } finally {
+            extendLock.unlock();
         }
-        pageNumbers.set(maxPgno);
     }
 
     @Override
     public void close() {
+        // 不能中断写线程和预读线程，中断会关闭正在读写的FileChannel
+        closed = true;
+        prefetcher.shutdown();
+        try {
+            prefetcher.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch(InterruptedException e) {
+            Panic.panic(e);
+        }
+        wakeWriter();
+        try {
+            writer.join();
+        } catch(InterruptedException e) {
+            Panic.panic(e);
+        }
         super.close();
+        try {
+            // 截掉预分配但没有使用的页面
+            file.setLength(pageOffset(pageNumbers.get() + 1));
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        unforced.set(true);
+        force();
         try {
             fc.close();
             file.close();
@@ -132,7 +553,7 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
     }
 
     private static long pageOffset(int pgno) {
-        return (pgno-1) * PAGE_SIZE;
+        return (long)(pgno-1) * PAGE_SIZE;
     }
     
 }
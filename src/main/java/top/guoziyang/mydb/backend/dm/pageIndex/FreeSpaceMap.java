@@ -0,0 +1,160 @@
+package top.guoziyang.mydb.backend.dm.pageIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import top.guoziyang.mydb.backend.utils.Panic;
+
+/**
+ * FreeSpaceMap 把PageIndex保存到.fsm文件中，打开时不必读取所有页面来重建PageIndex
+ *
+ * 文件结构
+ * [ValidCheck][Lsn][PageNumber][FreeSpace2][FreeSpace3]...[FreeSpaceN][Checksum]
+ * ValidCheck 8字节，正常关闭时为PageOne中的ValidCheck，检查点时为全0
+ * Lsn        8字节，保存时日志的末尾，之后对页面的修改都记录在这个位置之后的日志中
+ * PageNumber 4字节，页数
+ * FreeSpace  每页2字节，从第2页开始
+ * Checksum   4字节，之前所有内容的CRC32
+ *
+ * 正常关闭和每次检查点时写入：正常打开时只使用关闭时写入、ValidCheck一致的文件；
+ * 崩溃恢复扫描的日志覆盖了Lsn之后的全部日志时也可以使用，只需重新读取这些日志修改过的页面和之后新增的页面
+ * PageIndex中的空闲空间在写入日志之前就已预留，保存的值只会少于页面中实际的空闲空间
+ * 先写入临时文件再改名，写到一半崩溃不会留下不完整的文件
+ */
+public class FreeSpaceMap {
+
+    public static final String FSM_SUFFIX = ".fsm";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final int OF_VC = 0;
+    private static final int LEN_VC = 8;
+    private static final int OF_LSN = OF_VC + LEN_VC;
+    private static final int OF_PAGE_NUMBER = OF_LSN + 8;
+    private static final int OF_ENTRIES = OF_PAGE_NUMBER + 4;
+    private static final int LEN_CHECKSUM = 4;
+
+    private byte[] vc;
+    private long lsn;
+    private int pageNumber;
+    private short[] freeSpace;
+
+    private FreeSpaceMap(byte[] vc, long lsn, int pageNumber, short[] freeSpace) {
+        this.vc = vc;
+        this.lsn = lsn;
+        this.pageNumber = pageNumber;
+        this.freeSpace = freeSpace;
+    }
+
+    // 删除path的空闲空间文件和写到一半留下的临时文件
+    public static void remove(String path) {
+        new File(path+FSM_SUFFIX).delete();
+        new File(path+FSM_SUFFIX+TMP_SUFFIX).delete();
+    }
+
+    /**
+     * vc为null表示不是在正常关闭时保存的
+     */
+    public static void save(String path, byte[] vc, long lsn, int pageNumber, PageIndex pIndex) {
+        int entries = Math.max(pageNumber - 1, 0);
+        ByteBuffer buf = ByteBuffer.allocate(OF_ENTRIES + entries * 2 + LEN_CHECKSUM);
+        buf.put(vc == null ? new byte[LEN_VC] : vc, 0, LEN_VC);
+        buf.putLong(lsn);
+        buf.putInt(pageNumber);
+        short[] freeSpace = new short[entries];
+        for(PageInfo pi : pIndex.pages()) {
+            if(pi.pgno >= 2 && pi.pgno <= pageNumber) {
+                freeSpace[pi.pgno - 2] = (short)pi.freeSpace;
+            }
+        }
+        for(short fs : freeSpace) {
+            buf.putShort(fs);
+        }
+        buf.putInt(checksum(buf.array(), buf.position()));
+        buf.flip();
+
+        File tmp = new File(path+FSM_SUFFIX+TMP_SUFFIX);
+        try(RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            FileChannel fc = raf.getChannel();
+            raf.setLength(0);
+            while(buf.hasRemaining()) {
+                fc.write(buf, buf.position());
+            }
+            fc.force(false);
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+        try {
+            Files.move(tmp.toPath(), new File(path+FSM_SUFFIX).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    /**
+     * 读取.fsm文件，不存在或校验和不一致时返回null
+     */
+    public static FreeSpaceMap read(String path) {
+        File f = new File(path+FSM_SUFFIX);
+        if(!f.exists() || f.length() < OF_ENTRIES + LEN_CHECKSUM || f.length() > Integer.MAX_VALUE) {
+            return null;
+        }
+        int length = (int)f.length();
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        try(RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            FileChannel fc = raf.getChannel();
+            while(buf.hasRemaining()) {
+                if(fc.read(buf, buf.position()) < 0) return null;
+            }
+        } catch(IOException e) {
+            return null;
+        }
+        byte[] raw = buf.array();
+        if(buf.getInt(length - LEN_CHECKSUM) != checksum(raw, length - LEN_CHECKSUM)) {
+            return null;
+        }
+        int pageNumber = buf.getInt(OF_PAGE_NUMBER);
+        int entries = Math.max(pageNumber - 1, 0);
+        if(length != OF_ENTRIES + entries * 2 + LEN_CHECKSUM) {
+            return null;
+        }
+        short[] freeSpace = new short[entries];
+        for(int i = 0; i < entries; i ++) {
+            freeSpace[i] = buf.getShort(OF_ENTRIES + i * 2);
+        }
+        return new FreeSpaceMap(Arrays.copyOfRange(raw, OF_VC, OF_VC+LEN_VC), buf.getLong(OF_LSN), pageNumber, freeSpace);
+    }
+
+    // 是否在ValidCheck为vc的那次正常关闭时写入
+    public boolean savedOnClose(byte[] vc) {
+        return Arrays.equals(this.vc, vc);
+    }
+
+    public long getLsn() {
+        return lsn;
+    }
+
+    /**
+     * 把不超过pageNumber的页面的空闲空间加入pIndex，返回载入的最大页号，之后的页面需要另外读取
+     */
+    public int load(PageIndex pIndex, int pageNumber) {
+        int last = Math.min(this.pageNumber, pageNumber);
+        for(int pgno = 2; pgno <= last; pgno ++) {
+            pIndex.add(pgno, freeSpace[pgno - 2]);
+        }
+        return Math.max(last, 1);
+    }
+
+    private static int checksum(byte[] raw, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(raw, 0, length);
+        return (int)crc.getValue();
+    }
+}
@@ -1,55 +1,172 @@
 package top.guoziyang.mydb.backend.dm.pageIndex;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
 
+/**
+ * PageIndex 按空闲空间把页面分到若干区间中
+ *
+ * 选择页面时在页面上原子地预留空间，页面仍留在索引中，
+ * 多个线程可以同时向同一页追加数据，不必因为页面暂时被取出而申请新页
+ *
+ * 每个区间是一个无锁队列；预留空间后页面可能应当换到更低的区间，
+ * 换区间时加入新队列，旧队列中的元素在扫描时发现不属于该区间再删除
+ * 每个页面在每个队列中最多有一个元素，换回仍留有旧元素的区间时不再重复加入；
+ * 第0个区间的空闲空间小于任何一次选择的下限，不会被扫描，不加入队列
+ */
 public class PageIndex {
     // 将一页划成40个区间
     private static final int INTERVALS_NO = 40;
     private static final int THRESHOLD = PageCache.PAGE_SIZE / INTERVALS_NO;
 
-    private Lock lock;
-    private List<PageInfo>[] lists;
+    static class Entry {
+        final int pgno;
+        final AtomicInteger freeSpace;
+        volatile int interval = -1;         // 当前所属的区间
+        long queued;                        // 队列中留有该页面元素的区间，按位记录，在synchronized(this)中修改
+
+        Entry(int pgno, int freeSpace) {
+            this.pgno = pgno;
+            this.freeSpace = new AtomicInteger(freeSpace);
+        }
+
+        // 预留size字节，返回预留前的空闲空间，空间不足返回-1
+        int reserve(int size) {
+            while(true) {
+                int free = freeSpace.get();
+                if(free < size) return -1;
+                if(freeSpace.compareAndSet(free, free - size)) return free;
+            }
+        }
+    }
+
+    private ConcurrentHashMap<Integer, Entry> pages;
+    Queue<Entry>[] lists;
+    private AtomicLong moves;                   // 页面换区间的次数
 
     @SuppressWarnings("unchecked")
     public PageIndex() {
-        lock = new ReentrantLock();
-        lists = new List[INTERVALS_NO+1];
+        pages = new ConcurrentHashMap<>();
+        lists = new Queue[INTERVALS_NO+1];
         for (int i = 0; i < INTERVALS_NO+1; i ++) {
-            lists[i] = new ArrayList<>();
+            lists[i] = new ConcurrentLinkedQueue<>();
         }
+        moves = new AtomicLong(0);
     }
 
+    /**
+     * 登记页面的空闲空间，页面已在索引中时覆盖原有的值
+     */
     public void add(int pgno, int freeSpace) {
-        lock.lock();
-        try {
-            int number = freeSpace / THRESHOLD;
-            lists[number].add(new PageInfo(pgno, freeSpace));
-        } finally {
-            lock.unlock();
-        }
+        Entry e = pages.computeIfAbsent(pgno, k -> new Entry(pgno, freeSpace));
+        e.freeSpace.set(freeSpace);
+        place(e);
+    }
+
+    /**
+     * 登记一个新页面并立即为调用者预留spaceSize字节
+     */
+    public PageInfo addAndReserve(int pgno, int freeSpace, int spaceSize) {
+        Entry e = new Entry(pgno, freeSpace - spaceSize);
+        pages.put(pgno, e);
+        place(e);
+        return new PageInfo(pgno, freeSpace - spaceSize);
+    }
+
+    /**
+     * 页面整理后归还回收的空间，页面不在索引中时忽略
+     */
+    public void reclaim(int pgno, int size) {
+        Entry e = pages.get(pgno);
+        if(e == null) return;
+        e.freeSpace.addAndGet(size);
+        place(e);
+    }
+
+    /**
+     * 在指定页面上继续预留spaceSize字节，空间不足或页面不在索引中时返回false
+     */
+    public boolean reserve(int pgno, int spaceSize) {
+        Entry e = pages.get(pgno);
+        if(e == null) return false;
+        int free = e.reserve(spaceSize);
+        place(e);
+        return free >= 0;
     }
 
+    /**
+     * 选择一个空闲空间不小于spaceSize的页面并预留空间
+     */
     public PageInfo select(int spaceSize) {
-        lock.lock();
-        try {
-            int number = spaceSize / THRESHOLD;
-            if(number < INTERVALS_NO) number ++;
-            while(number <= INTERVALS_NO) {
-                if(lists[number].size() == 0) {
-                    number ++;
-                    continue;
+        int first = spaceSize / THRESHOLD;
+        if(first < INTERVALS_NO) first ++;
+        for(int round = 0; round < 2; round ++) {
+            // 扫描期间有页面换了区间时，它可能换到了已经扫描过的区间，重新扫描一次
+            long moves = this.moves.get();
+            for(int number = first; number <= INTERVALS_NO; number ++) {
+                Iterator<Entry> it = lists[number].iterator();
+                while(it.hasNext()) {
+                    Entry e = it.next();
+                    if(e.interval != number) {
+                        // 页面已经换到了其他区间
+                        unqueue(e, number, it);
+                        continue;
+                    }
+                    int free = e.reserve(spaceSize);
+                    place(e);
+                    if(free >= 0) {
+                        return new PageInfo(e.pgno, free - spaceSize);
+                    }
                 }
-                return lists[number].remove(0);
             }
-            return null;
-        } finally {
-            lock.unlock();
+            if(this.moves.get() == moves) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    // 删除队列中不再属于该区间的元素，页面已经换回该区间时保留
+    private void unqueue(Entry e, int number, Iterator<Entry> it) {
+        synchronized(e) {
+            if(e.interval != number) {
+                it.remove();
+                e.queued &= ~(1L << number);
+            }
+        }
+    }
+
+    // 把页面放入与当前空闲空间对应的区间
+    private void place(Entry e) {
+        synchronized(e) {
+            int number = e.freeSpace.get() / THRESHOLD;
+            if(e.interval != number) {
+                e.interval = number;
+                moves.incrementAndGet();
+                long bit = 1L << number;
+                if(number > 0 && (e.queued & bit) == 0) {
+                    e.queued |= bit;
+                    lists[number].add(e);
+                }
+            }
+        }
+    }
+
+    // 返回当前索引中所有页面的空闲空间信息
+    public List<PageInfo> pages() {
+        List<PageInfo> res = new ArrayList<>();
+        for(Entry e : pages.values()) {
+            res.add(new PageInfo(e.pgno, e.freeSpace.get()));
         }
+        return res;
     }
 
 }
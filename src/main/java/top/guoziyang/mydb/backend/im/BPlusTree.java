@@ -1,7 +1,6 @@
 package top.guoziyang.mydb.backend.im;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -10,15 +9,19 @@ import top.guoziyang.mydb.backend.common.SubArray;
 import top.guoziyang.mydb.backend.dm.DataManager;
 import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
 import top.guoziyang.mydb.backend.im.Node.InsertAndSplitRes;
+import top.guoziyang.mydb.backend.im.Node.LeafDeleteRes;
 import top.guoziyang.mydb.backend.im.Node.LeafSearchRangeRes;
 import top.guoziyang.mydb.backend.im.Node.SearchNextRes;
 import top.guoziyang.mydb.backend.tm.TransactionManagerImpl;
 import top.guoziyang.mydb.backend.utils.Parser;
 
+/**
+ * 根节点的uid保存在boot数据项中
+ * boot数据项每次使用时读取，不一直持有，否则它所在的页面一直被引用，不能被写回
+ */
 public class BPlusTree {
     DataManager dm;
     long bootUid;
-    DataItem bootDataItem;
     Lock bootLock;
 
     public static long create(DataManager dm) throws Exception {
@@ -30,20 +33,22 @@ public class BPlusTree {
     public static BPlusTree load(long bootUid, DataManager dm) throws Exception {
         DataItem bootDataItem = dm.read(bootUid);
         assert bootDataItem != null;
+        bootDataItem.release();
         BPlusTree t = new BPlusTree();
         t.bootUid = bootUid;
         t.dm = dm;
-        t.bootDataItem = bootDataItem;
         t.bootLock = new ReentrantLock();
         return t;
     }
 
-    private long rootUid() {
+    private long rootUid() throws Exception {
         bootLock.lock();
+        DataItem bootDataItem = dm.read(bootUid);
         try {
             SubArray sa = bootDataItem.data();
-            return Parser.parseLong(Arrays.copyOfRange(sa.raw, sa.start, sa.start+8));
+            return sa.getLong(0);
         } finally {
+            bootDataItem.release();
             bootLock.unlock();
         }
     }
@@ -53,10 +58,15 @@ public class BPlusTree {
         try {
             byte[] rootRaw = Node.newRootRaw(left, right, rightKey);
             long newRootUid = dm.insert(TransactionManagerImpl.SUPER_XID, rootRaw);
-            bootDataItem.before();
-            SubArray diRaw = bootDataItem.data();
-            System.arraycopy(Parser.long2Byte(newRootUid), 0, diRaw.raw, diRaw.start, 8);
-            bootDataItem.after(TransactionManagerImpl.SUPER_XID);
+            DataItem bootDataItem = dm.read(bootUid);
+            try {
+                bootDataItem.before();
+                SubArray diRaw = bootDataItem.data();
+                diRaw.putLong(0, newRootUid);
+                bootDataItem.after(TransactionManagerImpl.SUPER_XID);
+            } finally {
+                bootDataItem.release();
+            }
         } finally {
             bootLock.unlock();
         }
@@ -93,8 +103,15 @@ public class BPlusTree {
         long rootUid = rootUid();
         long leafUid = searchLeaf(rootUid, leftKey);
         List<Long> uids = new ArrayList<>();
+        boolean scanning = false;
         while(true) {
             Node leaf = Node.loadNode(this, leafUid);
+            if(scanning) {
+                // 已经跨过了叶子，后面很可能还要继续读兄弟节点
+                long sibling = leaf.getSibling();
+                if(sibling != 0) dm.prefetch(sibling);
+            }
+            scanning = true;
             LeafSearchRangeRes res = leaf.leafSearchRange(leftKey, rightKey);
             leaf.release();
             uids.addAll(res.uids);
@@ -107,6 +124,25 @@ public class BPlusTree {
         return uids;
     }
 
+    // 删除(key, uid)，不存在时返回false
+    public boolean delete(long key, long uid) throws Exception {
+        // 相同的键可能被分裂到分隔键左侧的叶子中，从略小的键开始查找，沿兄弟节点向右
+        long startKey = key == Long.MIN_VALUE ? key : key - 1;
+        long leafUid = searchLeaf(rootUid(), startKey);
+        while(true) {
+            Node leaf = Node.loadNode(this, leafUid);
+            LeafDeleteRes res = leaf.leafDelete(key, uid);
+            leaf.release();
+            if(res.deleted) {
+                return true;
+            }
+            if(res.siblingUid == 0) {
+                return false;
+            }
+            leafUid = res.siblingUid;
+        }
+    }
+
     public void insert(long key, long uid) throws Exception {
         long rootUid = rootUid();
         InsertRes res = insert(rootUid, uid, key);
@@ -156,7 +192,5 @@ public class BPlusTree {
         }
     }
 
-    public void close() {
-        bootDataItem.release();
-    }
+    public void close() {}
 }
@@ -1,13 +1,11 @@
 package top.guoziyang.mydb.backend.im;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import top.guoziyang.mydb.backend.common.SubArray;
 import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
 import top.guoziyang.mydb.backend.tm.TransactionManagerImpl;
-import top.guoziyang.mydb.backend.utils.Parser;
 
 /**
  * Node结构如下：
@@ -30,63 +28,67 @@ public class Node {
 
     static void setRawIsLeaf(SubArray raw, boolean isLeaf) {
         if(isLeaf) {
-            raw.raw[raw.start + IS_LEAF_OFFSET] = (byte)1;
+            raw.put(IS_LEAF_OFFSET, (byte)1);
         } else {
-            raw.raw[raw.start + IS_LEAF_OFFSET] = (byte)0;
+            raw.put(IS_LEAF_OFFSET, (byte)0);
         }
     }
 
     static boolean getRawIfLeaf(SubArray raw) {
-        return raw.raw[raw.start + IS_LEAF_OFFSET] == (byte)1;
+        return raw.get(IS_LEAF_OFFSET) == (byte)1;
     }
 
     static void setRawNoKeys(SubArray raw, int noKeys) {
-        System.arraycopy(Parser.short2Byte((short)noKeys), 0, raw.raw, raw.start+NO_KEYS_OFFSET, 2);
+        raw.putShort(NO_KEYS_OFFSET, (short)noKeys);
     }
 
     static int getRawNoKeys(SubArray raw) {
-        return (int)Parser.parseShort(Arrays.copyOfRange(raw.raw, raw.start+NO_KEYS_OFFSET, raw.start+NO_KEYS_OFFSET+2));
+        return (int)raw.getShort(NO_KEYS_OFFSET);
     }
 
     static void setRawSibling(SubArray raw, long sibling) {
-        System.arraycopy(Parser.long2Byte(sibling), 0, raw.raw, raw.start+SIBLING_OFFSET, 8);
+        raw.putLong(SIBLING_OFFSET, sibling);
     }
 
     static long getRawSibling(SubArray raw) {
-        return Parser.parseLong(Arrays.copyOfRange(raw.raw, raw.start+SIBLING_OFFSET, raw.start+SIBLING_OFFSET+8));
+        return raw.getLong(SIBLING_OFFSET);
     }
 
     static void setRawKthSon(SubArray raw, long uid, int kth) {
-        int offset = raw.start+NODE_HEADER_SIZE+kth*(8*2);
-        System.arraycopy(Parser.long2Byte(uid), 0, raw.raw, offset, 8);
+        int offset = NODE_HEADER_SIZE+kth*(8*2);
+        raw.putLong(offset, uid);
     }
 
     static long getRawKthSon(SubArray raw, int kth) {
-        int offset = raw.start+NODE_HEADER_SIZE+kth*(8*2);
-        return Parser.parseLong(Arrays.copyOfRange(raw.raw, offset, offset+8));
+        int offset = NODE_HEADER_SIZE+kth*(8*2);
+        return raw.getLong(offset);
     }
 
     static void setRawKthKey(SubArray raw, long key, int kth) {
-        int offset = raw.start+NODE_HEADER_SIZE+kth*(8*2)+8;
-        System.arraycopy(Parser.long2Byte(key), 0, raw.raw, offset, 8);
+        int offset = NODE_HEADER_SIZE+kth*(8*2)+8;
+        raw.putLong(offset, key);
     }
 
     static long getRawKthKey(SubArray raw, int kth) {
-        int offset = raw.start+NODE_HEADER_SIZE+kth*(8*2)+8;
-        return Parser.parseLong(Arrays.copyOfRange(raw.raw, offset, offset+8));
+        int offset = NODE_HEADER_SIZE+kth*(8*2)+8;
+        return raw.getLong(offset);
     }
 
     static void copyRawFromKth(SubArray from, SubArray to, int kth) {
-        int offset = from.start+NODE_HEADER_SIZE+kth*(8*2);
-        System.arraycopy(from.raw, offset, to.raw, to.start+NODE_HEADER_SIZE, from.end-offset);
+        int offset = NODE_HEADER_SIZE+kth*(8*2);
+        to.putBytes(NODE_HEADER_SIZE, from.getBytes(offset, from.length()));
     }
 
     static void shiftRawKth(SubArray raw, int kth) {
-        int begin = raw.start+NODE_HEADER_SIZE+(kth+1)*(8*2);
-        int end = raw.start+NODE_SIZE-1;
-        for(int i = end; i >= begin; i --) {
-            raw.raw[i] = raw.raw[i-(8*2)];
-        }
+        int begin = NODE_HEADER_SIZE+(kth+1)*(8*2);
+        int end = NODE_SIZE;
+        raw.move(begin-(8*2), begin, end-begin);
+    }
+
+    static void unshiftRawKth(SubArray raw, int kth) {
+        int begin = NODE_HEADER_SIZE+(kth+1)*(8*2);
+        int end = NODE_SIZE;
+        raw.move(begin, begin-(8*2), end-begin);
     }
 
     static byte[] newRootRaw(long left, long right, long key)  {
@@ -100,7 +102,7 @@ public class Node {
         setRawKthSon(raw, right, 1);
         setRawKthKey(raw, Long.MAX_VALUE, 1);
 
-        return raw.raw;
+        return raw.toArray();
     }
 
     static byte[] newNilRootRaw()  {
@@ -110,7 +112,7 @@ public class Node {
         setRawNoKeys(raw, 0);
         setRawSibling(raw, 0);
 
-        return raw.raw;
+        return raw.toArray();
     }
 
     static Node loadNode(BPlusTree bTree, long uid) throws Exception {
@@ -137,6 +139,15 @@ public class Node {
         }
     }
 
+    public long getSibling() {
+        dataItem.rLock();
+        try {
+            return getRawSibling(raw);
+        } finally {
+            dataItem.rUnLock();
+        }
+    }
+
     class SearchNextRes {
         long uid;
         long siblingUid;
@@ -204,6 +215,44 @@ public class Node {
         }
     }
 
+    class LeafDeleteRes {
+        boolean deleted;
+        long siblingUid;
+    }
+
+    // 从叶子中删除(key, uid)，key可能延续到兄弟节点时返回兄弟节点
+    // 只删除叶子中的键，不合并节点，内部节点的键仍然可以正确地引导查找
+    public LeafDeleteRes leafDelete(long key, long uid) {
+        LeafDeleteRes res = new LeafDeleteRes();
+        dataItem.before();
+        try {
+            int noKeys = getRawNoKeys(raw);
+            int kth = 0;
+            while(kth < noKeys && getRawKthKey(raw, kth) < key) {
+                kth ++;
+            }
+            while(kth < noKeys && getRawKthKey(raw, kth) == key) {
+                if(getRawKthSon(raw, kth) == uid) {
+                    unshiftRawKth(raw, kth);
+                    setRawNoKeys(raw, noKeys-1);
+                    res.deleted = true;
+                    return res;
+                }
+                kth ++;
+            }
+            if(kth == noKeys) {
+                res.siblingUid = getRawSibling(raw);
+            }
+            return res;
+        } finally {
+            if(res.deleted) {
+                dataItem.after(TransactionManagerImpl.SUPER_XID);
+            } else {
+                dataItem.unBefore();
+            }
+        }
+    }
+
     class InsertAndSplitRes {
         long siblingUid, newSon, newKey;
     }
@@ -285,7 +334,7 @@ public class Node {
         setRawNoKeys(nodeRaw, BALANCE_NUMBER);
         setRawSibling(nodeRaw, getRawSibling(raw));
         copyRawFromKth(raw, nodeRaw, BALANCE_NUMBER);
-        long son = tree.dm.insert(TransactionManagerImpl.SUPER_XID, nodeRaw.raw);
+        long son = tree.dm.insert(TransactionManagerImpl.SUPER_XID, nodeRaw.toArray());
         setRawNoKeys(raw, BALANCE_NUMBER);
         setRawSibling(raw, son);
 
@@ -396,17 +396,24 @@ public class Parser {
         return new Commit();
     }
 
+    // begin [isolation level (read committed | repeatable read)] [async]
     private static Begin parseBegin(Tokenizer tokenizer) throws Exception {
-        String isolation = tokenizer.peek();
         Begin begin = new Begin();
-        if("".equals(isolation)) {
-            return begin;
+        if("isolation".equals(tokenizer.peek())) {
+            tokenizer.pop();
+            parseIsolationLevel(tokenizer, begin);
+        }
+        if("async".equals(tokenizer.peek())) {
+            tokenizer.pop();
+            begin.isAsync = true;
         }
-        if(!"isolation".equals(isolation)) {
+        if(!"".equals(tokenizer.peek())) {
             throw Error.InvalidCommandException;
         }
+        return begin;
+    }
 
-        tokenizer.pop();
+    private static void parseIsolationLevel(Tokenizer tokenizer, Begin begin) throws Exception {
         String level = tokenizer.peek();
         if(!"level".equals(level)) {
             throw Error.InvalidCommandException;
@@ -419,10 +426,6 @@ public class Parser {
             String tmp2 = tokenizer.peek();
             if("committed".equals(tmp2)) {
                 tokenizer.pop();
-                if(!"".equals(tokenizer.peek())) {
-                    throw Error.InvalidCommandException;
-                }
-                return begin;
             } else {
                 throw Error.InvalidCommandException;
             }
@@ -432,10 +435,6 @@ public class Parser {
             if("read".equals(tmp2)) {
                 begin.isRepeatableRead = true;
                 tokenizer.pop();
-                if(!"".equals(tokenizer.peek())) {
-                    throw Error.InvalidCommandException;
-                }
-                return begin;
             } else {
                 throw Error.InvalidCommandException;
             }
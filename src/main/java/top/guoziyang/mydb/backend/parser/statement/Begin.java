@@ -2,4 +2,5 @@ package top.guoziyang.mydb.backend.parser.statement;
 
 public class Begin {
     public boolean isRepeatableRead;
+    public boolean isAsync;
 }
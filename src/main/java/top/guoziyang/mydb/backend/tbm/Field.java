@@ -5,6 +5,7 @@ import java.util.List;
 
 import com.google.common.primitives.Bytes;
 
+import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
 import top.guoziyang.mydb.backend.im.BPlusTree;
 import top.guoziyang.mydb.backend.parser.statement.SingleExpression;
 import top.guoziyang.mydb.backend.tm.TransactionManagerImpl;
@@ -18,8 +19,14 @@ import top.guoziyang.mydb.common.Error;
  * 二进制格式为：
  * [FieldName][TypeName][IndexUid]
  * 如果field无索引，IndexUid为0
+ *
+ * string类型的值编码后超过OVERFLOW_THRESHOLD时存放到溢出页中，行中只保存
+ * [OVERFLOW_MARK][Pointer][Length]，读出的值是OverflowValue，用到时才读取溢出页
  */
 public class Field {
+    static final int OVERFLOW_THRESHOLD = PageCache.PAGE_SIZE / 4;
+    private static final int OVERFLOW_MARK = -1;
+
     long uid;
     private Table tb;
     String fieldName;
@@ -104,10 +111,30 @@ public class Field {
         bt.insert(uKey, uid);
     }
 
+    // 从索引中删除key指向uid的项
+    public boolean remove(Object key, long uid) throws Exception {
+        long uKey = value2Uid(key);
+        return bt.delete(uKey, uid);
+    }
+
     public List<Long> search(long left, long right) throws Exception {
         return bt.searchRange(left, right);
     }
 
+    // 回收值占用的溢出页
+    void freeOverflow(Object v) throws Exception {
+        if(v instanceof OverflowValue) {
+            ((TableManagerImpl)tb.tbm).dm.freeOverflow(((OverflowValue)v).pointer);
+        }
+    }
+
+    private static String stringValue(Object v) {
+        if(v instanceof OverflowValue) {
+            return ((OverflowValue)v).load();
+        }
+        return (String)v;
+    }
+
     public Object string2Value(String str) {
         switch(fieldType) {
             case "int32":
@@ -124,7 +151,7 @@ public class Field {
         long uid = 0;
         switch(fieldType) {
             case "string":
-                uid = Parser.str2Uid((String)key);
+                uid = Parser.str2Uid(stringValue(key));
                 break;
             case "int32":
                 int uint = (int)key;
@@ -136,7 +163,8 @@ public class Field {
         return uid;
     }
 
-    public byte[] value2Raw(Object v) {
+    // 每次都为大字符串写入新的溢出页链，每个版本只回收自己的溢出页
+    public byte[] value2Raw(Object v) throws Exception {
         byte[] raw = null;
         switch(fieldType) {
             case "int32":
@@ -146,7 +174,13 @@ public class Field {
                 raw = Parser.long2Byte((long)v);
                 break;
             case "string":
-                raw = Parser.string2Byte((String)v);
+                String str = stringValue(v);
+                raw = Parser.string2Byte(str);
+                if(raw.length > OVERFLOW_THRESHOLD) {
+                    byte[] data = str.getBytes();
+                    long pointer = ((TableManagerImpl)tb.tbm).dm.insertOverflow(data);
+                    raw = Bytes.concat(Parser.int2Byte(OVERFLOW_MARK), Parser.long2Byte(pointer), Parser.int2Byte(data.length));
+                }
                 break;
         }
         return raw;
@@ -169,6 +203,13 @@ public class Field {
                 res.shift = 8;
                 break;
             case "string":
+                if(Parser.parseInt(Arrays.copyOf(raw, 4)) == OVERFLOW_MARK) {
+                    long pointer = Parser.parseLong(Arrays.copyOfRange(raw, 4, 12));
+                    int length = Parser.parseInt(Arrays.copyOfRange(raw, 12, 16));
+                    res.v = new OverflowValue(((TableManagerImpl)tb.tbm).dm, pointer, length);
+                    res.shift = 16;
+                    break;
+                }
                 ParseStringRes r = Parser.parseString(raw);
                 res.v = r.str;
                 res.shift = r.next;
@@ -187,7 +228,7 @@ public class Field {
                 str = String.valueOf((long)v);
                 break;
             case "string":
-                str = (String)v;
+                str = stringValue(v);
                 break;
         }
         return str;
@@ -0,0 +1,33 @@
+package top.guoziyang.mydb.backend.tbm;
+
+import java.io.InputStream;
+
+import top.guoziyang.mydb.backend.dm.DataManager;
+import top.guoziyang.mydb.backend.utils.Panic;
+
+/**
+ * 存放在溢出页中的字符串，行中只保存指针和长度，第一次用到时才沿溢出页链读入
+ */
+class OverflowValue {
+    DataManager dm;
+    long pointer;
+    int length;
+    private String value;
+
+    OverflowValue(DataManager dm, long pointer, int length) {
+        this.dm = dm;
+        this.pointer = pointer;
+        this.length = length;
+    }
+
+    String load() {
+        if(value == null) {
+            try(InputStream in = dm.readOverflow(pointer)) {
+                value = new String(in.readNBytes(length));
+            } catch(Exception e) {
+                Panic.panic(e);
+            }
+        }
+        return value;
+    }
+}
@@ -3,6 +3,7 @@ package top.guoziyang.mydb.backend.tbm;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -47,19 +48,26 @@ public class Table {
         return tb.parseSelf(raw);
     }
 
+    // 表至少要有一个索引：查询和回收都通过索引找到所有版本，没有索引的表中的版本无法访问也无法冻结
     public static Table createTable(TableManager tbm, long nextUid, long xid, Create create) throws Exception {
-        Table tb = new Table(tbm, create.tableName, nextUid);
+        boolean[] indexed = new boolean[create.fieldName.length];
+        boolean hasIndex = false;
         for(int i = 0; i < create.fieldName.length; i ++) {
-            String fieldName = create.fieldName[i];
-            String fieldType = create.fieldType[i];
-            boolean indexed = false;
             for(int j = 0; j < create.index.length; j ++) {
-                if(fieldName.equals(create.index[j])) {
-                    indexed = true;
+                if(create.fieldName[i].equals(create.index[j])) {
+                    indexed[i] = true;
+                    hasIndex = true;
                     break;
                 }
             }
-            tb.fields.add(Field.createField(tb, xid, fieldName, fieldType, indexed));
+        }
+        if(!hasIndex) {
+            throw Error.TableNoIndexException;
+        }
+
+        Table tb = new Table(tbm, create.tableName, nextUid);
+        for(int i = 0; i < create.fieldName.length; i ++) {
+            tb.fields.add(Field.createField(tb, xid, create.fieldName[i], create.fieldType[i], indexed[i]));
         }
 
         return tb.persistSelf(xid);
@@ -150,18 +158,41 @@ public class Table {
         return count;
     }
 
+    // 只输出选中的字段，未选中的大字段不会读取溢出页
     public String read(long xid, Select read) throws Exception {
+        List<Field> selected = selectFields(read.fields);
         List<Long> uids = parseWhere(read.where);
         StringBuilder sb = new StringBuilder();
         for (Long uid : uids) {
             byte[] raw = ((TableManagerImpl)tbm).vm.read(xid, uid);
             if(raw == null) continue;
             Map<String, Object> entry = parseEntry(raw);
-            sb.append(printEntry(entry)).append("\n");
+            sb.append(printEntry(entry, selected)).append("\n");
         }
         return sb.toString();
     }
 
+    private List<Field> selectFields(String[] names) throws Exception {
+        if(names.length == 1 && "*".equals(names[0])) {
+            return fields;
+        }
+        List<Field> selected = new ArrayList<>();
+        for (String name : names) {
+            Field fd = null;
+            for (Field f : fields) {
+                if(f.fieldName.equals(name)) {
+                    fd = f;
+                    break;
+                }
+            }
+            if(fd == null) {
+                throw Error.FieldNotFoundException;
+            }
+            selected.add(fd);
+        }
+        return selected;
+    }
+
     public void insert(long xid, Insert insert) throws Exception {
         Map<String, Object> entry = string2Entry(insert.values);
         byte[] raw = entry2Raw(entry);
@@ -173,6 +204,37 @@ public class Table {
         }
     }
 
+    // 通过第一个索引找到的所有版本；建表时要求至少一个索引，每个版本都在第一个索引中
+    List<Long> versions() throws Exception {
+        for (Field field : fields) {
+            if(field.isIndexed()) {
+                return new ArrayList<>(new LinkedHashSet<>(parseWhere(null)));
+            }
+        }
+        return new ArrayList<>();
+    }
+
+    // uid的版本对所有事务都不可见时，从所有索引中删除它的键并回收它的空间，返回删除的索引项个数
+    // 版本仍然可见时返回-1
+    int vacuum(long horizon, long uid) throws Exception {
+        byte[] raw = ((TableManagerImpl)tbm).vm.readDead(horizon, uid);
+        if(raw == null) {
+            return -1;
+        }
+        Map<String, Object> entry = parseEntry(raw);
+        int removed = 0;
+        for (Field field : fields) {
+            if(field.isIndexed() && field.remove(entry.get(field.fieldName), uid)) {
+                removed ++;
+            }
+        }
+        ((TableManagerImpl)tbm).vm.free(uid);
+        for (Field field : fields) {
+            field.freeOverflow(entry.get(field.fieldName));
+        }
+        return removed;
+    }
+
     private Map<String, Object> string2Entry(String[] values) throws Exception {
         if(values.length != fields.size()) {
             throw Error.InvalidValuesException;
@@ -261,12 +323,12 @@ public class Table {
         return res;
     }
 
-    private String printEntry(Map<String, Object> entry) {
+    private String printEntry(Map<String, Object> entry, List<Field> selected) {
         StringBuilder sb = new StringBuilder("[");
-        for (int i = 0; i < fields.size(); i++) {
-            Field field = fields.get(i);
+        for (int i = 0; i < selected.size(); i++) {
+            Field field = selected.get(i);
             sb.append(field.printValue(entry.get(field.fieldName)));
-            if(i == fields.size()-1) {
+            if(i == selected.size()-1) {
                 sb.append("]");
             } else {
                 sb.append(", ");
@@ -286,7 +348,7 @@ public class Table {
         return entry;
     }
 
-    private byte[] entry2Raw(Map<String, Object> entry) {
+    private byte[] entry2Raw(Map<String, Object> entry) throws Exception {
         byte[] raw = new byte[0];
         for (Field field : fields) {
             raw = Bytes.concat(raw, field.value2Raw(entry.get(field.fieldName)));
@@ -50,16 +50,27 @@ public class TableManagerImpl implements TableManager {
         return Parser.parseLong(raw);
     }
 
+    // 启动文件不受日志保护，先让表的日志落盘
     private void updateFirstTableUid(long uid) {
+        dm.flushLog();
         byte[] raw = Parser.long2Byte(uid);
         booter.update(raw);
     }
 
+    List<Table> tables() {
+        lock.lock();
+        try {
+            return new ArrayList<>(tableCache.values());
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     public BeginRes begin(Begin begin) {
         BeginRes res = new BeginRes();
         int level = begin.isRepeatableRead?1:0;
-        res.xid = vm.begin(level);
+        res.xid = vm.begin(level, begin.isAsync);
         res.result = "begin".getBytes();
         return res;
     }
@@ -0,0 +1,148 @@
+package top.guoziyang.mydb.backend.tbm;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import top.guoziyang.mydb.backend.utils.Panic;
+
+/**
+ * Vacuum 回收对所有事务都不可见的旧版本
+ *
+ * 每一轮先计算最老的活跃快照，再沿每张表的第一个索引扫描所有版本，
+ * 对不可见的版本先从所有索引中删除它的键，再回收它在数据页中的空间
+ *
+ * 仍然可见的版本，以及表和字段的定义，在对所有事务都可见时被冻结，XMIN改写为SUPER_XID；
+ * 一轮完整扫描之后，所有版本都不再引用的事务的状态被丢弃，XID文件中完全冻结的段被删除
+ *
+ * 每回收batch个版本暂停delay毫秒，避免与前台事务争抢页面和日志
+ * 后台线程不会被中断，FileChannel在中断时会被关闭
+ */
+public class Vacuum {
+
+    public static final long DEFAULT_INTERVAL = 10;       // 两轮之间间隔的秒数
+    static final int DEFAULT_BATCH = 100;
+    static final long DEFAULT_DELAY = 10;
+
+    private TableManagerImpl tbm;
+    private int batch;
+    private long delay;
+    private VacuumStats stats;
+
+    private Lock lock;
+    private Condition wakeup;
+    private volatile boolean closed;
+    private Thread worker;
+
+    public Vacuum(TableManager tbm, int batch, long delay) {
+        this.tbm = (TableManagerImpl)tbm;
+        this.batch = batch;
+        this.delay = delay;
+        this.stats = new VacuumStats();
+        this.lock = new ReentrantLock();
+        this.wakeup = lock.newCondition();
+    }
+
+    /**
+     * 启动后台线程，每隔interval秒执行一轮
+     */
+    public static Vacuum start(TableManager tbm, long interval) {
+        Vacuum v = new Vacuum(tbm, DEFAULT_BATCH, DEFAULT_DELAY);
+        v.worker = new Thread(() -> v.loop(TimeUnit.SECONDS.toMillis(interval)), "vacuum");
+        v.worker.setDaemon(true);
+        v.worker.start();
+        return v;
+    }
+
+    private void loop(long interval) {
+        while(pause(interval)) {
+            try {
+                runPass();
+            } catch(Exception e) {
+                Panic.panic(e);
+            }
+        }
+    }
+
+    /**
+     * 执行一轮回收
+     */
+    public synchronized void runPass() throws Exception {
+        long horizon = tbm.vm.vacuumHorizon();
+        long freezeHorizon = tbm.vm.freezeHorizon();
+        // 扫描过的版本仍然引用的最小XID
+        long oldest = freezeHorizon;
+        int inBatch = 0;
+        for(Table tb : tbm.tables()) {
+            oldest = Math.min(oldest, freeze(freezeHorizon, tb.uid));
+            for(Field field : tb.fields) {
+                oldest = Math.min(oldest, freeze(freezeHorizon, field.uid));
+            }
+            for(long uid : tb.versions()) {
+                if(closed) return;
+                stats.scanned.incrementAndGet();
+                int removed = tb.vacuum(horizon, uid);
+                if(removed < 0) {
+                    oldest = Math.min(oldest, freeze(freezeHorizon, uid));
+                    continue;
+                }
+                stats.reclaimed.incrementAndGet();
+                stats.indexEntries.addAndGet(removed);
+                if(++ inBatch == batch) {
+                    inBatch = 0;
+                    stats.pauses.incrementAndGet();
+                    pause(delay);
+                }
+            }
+        }
+        tbm.vm.truncateStatus(oldest);
+        stats.passes.incrementAndGet();
+    }
+
+    private long freeze(long horizon, long uid) throws Exception {
+        long oldest = tbm.vm.freeze(horizon, uid);
+        if(oldest >= horizon) {
+            stats.frozen.incrementAndGet();
+        }
+        return oldest;
+    }
+
+    // 等待millis毫秒或直到关闭，关闭后返回false
+    private boolean pause(long millis) {
+        lock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+            while(!closed && nanos > 0) {
+                nanos = wakeup.awaitNanos(nanos);
+            }
+            return !closed;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public VacuumStats getStats() {
+        return stats;
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            wakeup.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if(worker != null) {
+            try {
+                worker.join();
+            } catch(InterruptedException e) {
+                Panic.panic(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package top.guoziyang.mydb.backend.tbm;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 回收旧版本的统计信息
+ */
+public class VacuumStats {
+    private long startNanos = System.nanoTime();
+
+    AtomicLong passes = new AtomicLong();         // 完成的轮数
+    AtomicLong scanned = new AtomicLong();        // 检查过的版本数
+    AtomicLong reclaimed = new AtomicLong();      // 回收的版本数
+    AtomicLong indexEntries = new AtomicLong();   // 删除的索引项数
+    AtomicLong pauses = new AtomicLong();         // 限速暂停的次数
+    AtomicLong frozen = new AtomicLong();         // 检查后不再引用早于冻结边界的事务的版本数
+
+    public long getPasses() {
+        return passes.get();
+    }
+
+    public long getScanned() {
+        return scanned.get();
+    }
+
+    public long getReclaimed() {
+        return reclaimed.get();
+    }
+
+    public long getIndexEntriesRemoved() {
+        return indexEntries.get();
+    }
+
+    public long getPauses() {
+        return pauses.get();
+    }
+
+    public long getFrozen() {
+        return frozen.get();
+    }
+
+    // 自创建以来平均每秒回收的版本数
+    public double getReclaimRate() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds <= 0 ? 0 : reclaimed.get() / seconds;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("passes=%d scanned=%d reclaimed=%d indexEntries=%d pauses=%d frozen=%d rate=%.1f versions/s",
+            getPasses(), getScanned(), getReclaimed(), getIndexEntriesRemoved(), getPauses(), getFrozen(), getReclaimRate());
+    }
+}
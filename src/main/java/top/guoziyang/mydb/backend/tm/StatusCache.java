@@ -0,0 +1,86 @@
+package top.guoziyang.mydb.backend.tm;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * XID文件在内存中的缓存，每个事务的状态占2位，按页分配，一页记录XIDS_PER_PAGE个事务
+ * 读取不加锁，状态变化时先更新缓存再写入文件
+ * 没有记录过的事务状态为0，即活跃，与读取XID文件末尾之后的结果一致
+ * 冻结的事务所在的页被释放，页数组中只保留引用
+ */
+class StatusCache {
+
+    static final int XIDS_PER_PAGE = 1 << 15;          // 每页8KB
+    private static final int PAGE_SHIFT = 15;
+    private static final int XIDS_PER_WORD = 32;
+    private static final int WORD_SHIFT = 5;
+    private static final long STATUS_MASK = 3;
+
+    private volatile AtomicLongArray[] pages;
+
+    StatusCache() {
+        pages = new AtomicLongArray[0];
+    }
+
+    byte get(long xid) {
+        AtomicLongArray[] p = pages;
+        long page = xid >>> PAGE_SHIFT;
+        if(page >= p.length || p[(int)page] == null) {
+            return 0;
+        }
+        int index = (int)xid & (XIDS_PER_PAGE - 1);
+        long word = p[(int)page].get(index >>> WORD_SHIFT);
+        return (byte)((word >>> shift(index)) & STATUS_MASK);
+    }
+
+    void set(long xid, byte status) {
+        AtomicLongArray page = page(xid >>> PAGE_SHIFT);
+        if(page == null) {
+            return;
+        }
+        int index = (int)xid & (XIDS_PER_PAGE - 1);
+        int shift = shift(index);
+        int w = index >>> WORD_SHIFT;
+        while(true) {
+            long word = page.get(w);
+            long updated = (word & ~(STATUS_MASK << shift)) | (((long)status & STATUS_MASK) << shift);
+            if(page.compareAndSet(w, word, updated)) {
+                return;
+            }
+        }
+    }
+
+    // 扩展页数组时复制引用，已有的页面不变，并发的读取看到旧数组也能读到正确的状态
+    private AtomicLongArray page(long page) {
+        AtomicLongArray[] p = pages;
+        if(page < p.length) {
+            return p[(int)page];
+        }
+        synchronized(this) {
+            p = pages;
+            if(page >= p.length) {
+                int old = p.length;
+                p = Arrays.copyOf(p, (int)page + 1);
+                for(int i = old; i < p.length; i ++) {
+                    p[i] = new AtomicLongArray(XIDS_PER_PAGE / XIDS_PER_WORD);
+                }
+                pages = p;
+            }
+            return p[(int)page];
+        }
+    }
+
+    // 释放完全在xid之前的页，这些事务已经冻结，不再查询
+    synchronized void truncate(long xid) {
+        AtomicLongArray[] p = Arrays.copyOf(pages, pages.length);
+        for(long page = 0; (page + 1) * XIDS_PER_PAGE <= xid && page < p.length; page ++) {
+            p[(int)page] = null;
+        }
+        pages = p;
+    }
+
+    private static int shift(int index) {
+        return (index & (XIDS_PER_WORD - 1)) << 1;
+    }
+}
@@ -0,0 +1,12 @@
+package top.guoziyang.mydb.backend.tm;
+
+/**
+ * 事务状态日志，由数据管理器写入WAL
+ * 设置之后事务的开始、提交和回滚都记为一条日志，XID文件只作为状态的缓存
+ */
+public interface StatusLog {
+    // 追加xid的状态日志，durable为true时等待日志落盘
+    void append(long xid, byte status, boolean durable);
+    // 等待已经追加的日志全部落盘
+    void flush();
+}
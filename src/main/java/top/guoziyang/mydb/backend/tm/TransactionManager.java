@@ -12,11 +12,25 @@ import top.guoziyang.mydb.common.Error;
 
 public interface TransactionManager {
     long begin();
+    // async为true时事务异步提交：提交只在内存中生效，由flushCommits写入XID文件
+    long begin(boolean async);
     void commit(long xid);
     void abort(long xid);
     boolean isActive(long xid);
     boolean isCommitted(long xid);
     boolean isAborted(long xid);
+    // xid是否以异步提交方式开始且提交还未落盘
+    boolean isAsync(long xid);
+    // 把已经异步提交的事务写入XID文件并落盘，写入前先调用flushLog落盘这些事务的日志
+    void flushCommits(Runnable flushLog);
+    // 设置之后状态变化写入WAL，XID文件不再单独落盘，崩溃后由恢复根据日志重建
+    void setStatusLog(StatusLog log);
+    // 写入异步提交并落盘XID文件，检查点在丢弃之前的日志前调用
+    void flush();
+    // 恢复时重放日志中的事务状态，不写日志也不落盘
+    void redoStatus(long xid, byte status);
+    // 所有版本都不再引用小于xid的事务之后调用，丢弃这些事务的状态，之后它们都作为已提交处理
+    void truncate(long xid);
     void close();
 
     public static TransactionManagerImpl create(String path) {
@@ -31,6 +45,10 @@ public interface TransactionManager {
         if(!f.canRead() || !f.canWrite()) {
             Panic.panic(Error.FileCannotRWException);
         }
+        // XID文件是新建的，残留的段属于之前删除的数据库
+        for(long segment : TransactionManagerImpl.listSegments(path)) {
+            TransactionManagerImpl.segmentFile(path, segment).delete();
+        }
 
         FileChannel fc = null;
         RandomAccessFile raf = null;
@@ -44,13 +62,12 @@ public interface TransactionManager {
         // 写空XID文件头
         ByteBuffer buf = ByteBuffer.wrap(new byte[TransactionManagerImpl.LEN_XID_HEADER_LENGTH]);
         try {
-            fc.position(0);
-            fc.write(buf);
+            fc.write(buf, 0);
         } catch (IOException e) {
             Panic.panic(e);
         }
         
-        return new TransactionManagerImpl(raf, fc);
+        return new TransactionManagerImpl(path, raf, fc);
     }
 
     public static TransactionManagerImpl open(String path) {
@@ -71,6 +88,14 @@ public interface TransactionManager {
            Panic.panic(e);
         }
 
-        return new TransactionManagerImpl(raf, fc);
+        return new TransactionManagerImpl(path, raf, fc);
+    }
+
+    // 删除path的XID文件和所有段
+    public static void remove(String path) {
+        new File(path+TransactionManagerImpl.XID_SUFFIX).delete();
+        for(long segment : TransactionManagerImpl.listSegments(path)) {
+            TransactionManagerImpl.segmentFile(path, segment).delete();
+        }
     }
 }
@@ -1,48 +1,117 @@
 package top.guoziyang.mydb.backend.tm;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import top.guoziyang.mydb.backend.utils.Panic;
-import top.guoziyang.mydb.backend.utils.Parser;
 import top.guoziyang.mydb.common.Error;
 
+/**
+ * XID文件只保存文件头：[XidCounter] [FrozenXid]
+ * 事务状态按XID分段保存在path.xid.%08d中，每段XIDS_PER_SEGMENT个事务，每个事务一个字节
+ * 小于FrozenXid的事务已经冻结：引用它们的版本都已把XMIN改写为SUPER_XID，
+ * 它们的状态不再需要，完全在FrozenXid之前的段被删除，查询时作为已提交处理
+ */
 public class TransactionManagerImpl implements TransactionManager {
 
     // XID文件头长度
-    static final int LEN_XID_HEADER_LENGTH = 8;
+    static final int LEN_XID_HEADER_LENGTH = 16;
+    private static final int OF_FROZEN_XID = 8;
+    // 旧版本的XID文件头只有8字节的xidcounter，之后依次是每个事务的状态
+    private static final int LEN_LEGACY_HEADER = 8;
     // 每个事务的占用长度
     private static final int XID_FIELD_SIZE = 1;
+    static final int XIDS_PER_SEGMENT = 1 << 16;
 
     // 事务的三种状态
-    private static final byte FIELD_TRAN_ACTIVE   = 0;
-	private static final byte FIELD_TRAN_COMMITTED = 1;
-	private static final byte FIELD_TRAN_ABORTED  = 2;
+    public static final byte FIELD_TRAN_ACTIVE   = 0;
+	static final byte FIELD_TRAN_COMMITTED = 1;
+	static final byte FIELD_TRAN_ABORTED  = 2;
 
     // 超级事务，永远为commited状态
     public static final long SUPER_XID = 0;
 
     static final String XID_SUFFIX = ".xid";
     
+    private String path;
     private RandomAccessFile file;
     private FileChannel fc;
     private long xidCounter;
+    private volatile long frozenXid;
     private Lock counterLock;
 
-    TransactionManagerImpl(RandomAccessFile raf, FileChannel fc) {
+    private Map<Long, FileChannel> segments;    // 已经打开的段
+    private Set<Long> dirtySegments;            // 写入后还没有落盘的段
+
+    private Set<Long> asyncXids;            // 异步提交且提交还未落盘的事务
+    private Set<Long> pendingCommits;       // 已经提交但还没写入XID文件的异步事务
+    private Lock flushLock;
+
+    private volatile StatusLog statusLog;   // 为null时每次状态变化都落盘XID文件
+    private ReadWriteLock statusLock;       // 读锁内写状态日志和XID文件，写锁内落盘XID文件
+    private StatusCache cache;              // 所有事务的状态，查询不再读取文件
+
+    TransactionManagerImpl(String path, RandomAccessFile raf, FileChannel fc) {
+        this.path = path;
         this.file = raf;
         this.fc = fc;
+        segments = new ConcurrentHashMap<>();
+        dirtySegments = ConcurrentHashMap.newKeySet();
         counterLock = new ReentrantLock();
+        asyncXids = ConcurrentHashMap.newKeySet();
+        pendingCommits = ConcurrentHashMap.newKeySet();
+        flushLock = new ReentrantLock();
+        statusLock = new ReentrantReadWriteLock();
+        cache = new StatusCache();
         checkXIDCounter();
+        loadCache();
+    }
+
+    static File segmentFile(String path, long segment) {
+        return new File(String.format("%s%s.%08d", path, XID_SUFFIX, segment));
+    }
+
+    // 按段号从小到大列出path的所有段
+    static List<Long> listSegments(String path) {
+        File base = new File(path + XID_SUFFIX).getAbsoluteFile();
+        String prefix = base.getName() + ".";
+        List<Long> segments = new ArrayList<>();
+        String[] names = base.getParentFile().list();
+        if(names == null) {
+            return segments;
+        }
+        for(String name : names) {
+            if(!name.startsWith(prefix)) continue;
+            try {
+                segments.add(Long.parseLong(name.substring(prefix.length())));
+            } catch(NumberFormatException e) {
+                continue;
+            }
+        }
+        Collections.sort(segments);
+        return segments;
     }
 
     /**
      * 检查XID文件是否合法
-     * 读取XID_FILE_HEADER中的xidcounter，根据它计算文件的理论长度，对比实际长度
+     * 读取XID_FILE_HEADER中的xidcounter和frozenXid
+     * 状态写入WAL时XID文件不单独落盘，崩溃后文件头中的xidcounter可能落后于段中已经写入的状态，
+     * 以较大者为准，缺少的状态为0（活跃），由恢复根据日志重建
+     * 旧版本的XID文件长度为8+xidcounter且没有段文件，数据页和日志的格式也已改变，直接拒绝打开
      */
     private void checkXIDCounter() {
         long fileLen = 0;
@@ -51,71 +120,173 @@ public class TransactionManagerImpl implements TransactionManager {
         } catch (IOException e1) {
             Panic.panic(Error.BadXIDFileException);
         }
-        if(fileLen < LEN_XID_HEADER_LENGTH) {
+        if(fileLen < LEN_LEGACY_HEADER) {
             Panic.panic(Error.BadXIDFileException);
         }
 
         ByteBuffer buf = ByteBuffer.allocate(LEN_XID_HEADER_LENGTH);
         try {
-            fc.position(0);
-            fc.read(buf);
+            fc.read(buf, 0);
         } catch (IOException e) {
             Panic.panic(e);
         }
-        this.xidCounter = Parser.parseLong(buf.array());
-        long end = getXidPosition(this.xidCounter + 1);
-        if(end != fileLen) {
+        this.xidCounter = buf.getLong(0);
+        this.frozenXid = buf.getLong(OF_FROZEN_XID);
+        List<Long> segs = listSegments(path);
+        boolean valid = fileLen == LEN_XID_HEADER_LENGTH
+            && xidCounter >= 0 && frozenXid >= 0 && frozenXid <= xidCounter + 1;
+        if(!valid) {
+            if(segs.isEmpty() && fileLen == LEN_LEGACY_HEADER + xidCounter) {
+                Panic.panic(Error.LegacyXIDFileException);
+            }
             Panic.panic(Error.BadXIDFileException);
         }
+
+        if(segs.isEmpty()) {
+            return;
+        }
+        long last = segs.get(segs.size() - 1);
+        long len = segmentFile(path, last).length();
+        long written = last * XIDS_PER_SEGMENT + len / XID_FIELD_SIZE - 1;
+        if(written > xidCounter) {
+            xidCounter = written;
+            writeHeader();
+            force();
+        }
     }
 
-    // 根据事务xid取得其在xid文件中对应的位置
+    // 一次读入所有没有冻结的事务的状态
+    private void loadCache() {
+        ByteBuffer buf = ByteBuffer.allocate(XIDS_PER_SEGMENT * XID_FIELD_SIZE);
+        for(long seg = frozenXid / XIDS_PER_SEGMENT; seg <= xidCounter / XIDS_PER_SEGMENT; seg ++) {
+            File f = segmentFile(path, seg);
+            if(!f.exists()) continue;
+            buf.clear();
+            FileChannel sc = segment(seg);
+            try {
+                while(buf.hasRemaining()) {
+                    if(sc.read(buf, buf.position()) < 0) break;
+                }
+            } catch (IOException e) {
+                Panic.panic(e);
+            }
+            buf.flip();
+            long xid = seg * XIDS_PER_SEGMENT;
+            while(buf.hasRemaining()) {
+                byte status = buf.get();
+                if(status != FIELD_TRAN_ACTIVE && xid >= frozenXid && xid != SUPER_XID) {
+                    cache.set(xid, status);
+                }
+                xid ++;
+            }
+        }
+    }
+
+    // 打开段文件，不存在时创建
+    private FileChannel segment(long seg) {
+        return segments.computeIfAbsent(seg, k -> {
+            try {
+                return new RandomAccessFile(segmentFile(path, k), "rw").getChannel();
+            } catch (IOException e) {
+                Panic.panic(e);
+                return null;
+            }
+        });
+    }
+
+    // 根据事务xid取得其在段文件中对应的位置
     private long getXidPosition(long xid) {
-        return LEN_XID_HEADER_LENGTH + (xid-1)*XID_FIELD_SIZE;
+        return (xid % XIDS_PER_SEGMENT) * XID_FIELD_SIZE;
     }
 
-    // 更新xid事务的状态为status
-    private void updateXID(long xid, byte status) {
-        long offset = getXidPosition(xid);
-        byte[] tmp = new byte[XID_FIELD_SIZE];
-        tmp[0] = status;
-        ByteBuffer buf = ByteBuffer.wrap(tmp);
+    /**
+     * 更新xid事务的状态为status
+     * 有状态日志时先写日志，durable为true时等待日志落盘，XID文件只写入操作系统缓存
+     */
+    private void updateXID(long xid, byte status, boolean durable) {
+        StatusLog log = statusLog;
+        if(log == null) {
+            writeXID(xid, status);
+            forceSegment(xid / XIDS_PER_SEGMENT);
+            return;
+        }
+        statusLock.readLock().lock();
         try {
-            fc.position(offset);
-            fc.write(buf);
+            log.append(xid, status, durable);
+            writeXID(xid, status);
+        } finally {
+            statusLock.readLock().unlock();
+        }
+    }
+
+    // 落盘文件头
+    private void force() {
+        try {
+            fc.force(false);
         } catch (IOException e) {
             Panic.panic(e);
         }
+    }
+
+    private void forceSegment(long seg) {
         try {
-            fc.force(false);
+            segment(seg).force(false);
         } catch (IOException e) {
             Panic.panic(e);
         }
     }
 
-    // 将XID加一，并更新XID Header
-    private void incrXIDCounter() {
-        xidCounter ++;
-        ByteBuffer buf = ByteBuffer.wrap(Parser.long2Byte(xidCounter));
+    // 落盘所有写入过的段和文件头
+    private void forceAll() {
+        for(long seg : new ArrayList<>(dirtySegments)) {
+            dirtySegments.remove(seg);
+            forceSegment(seg);
+        }
+        force();
+    }
+
+    // 先更新缓存，写入文件之前查询就能看到新的状态
+    private void writeXID(long xid, byte status) {
+        cache.set(xid, status);
+        long seg = xid / XIDS_PER_SEGMENT;
+        byte[] tmp = new byte[XID_FIELD_SIZE];
+        tmp[0] = status;
+        ByteBuffer buf = ByteBuffer.wrap(tmp);
         try {
-            fc.position(0);
-            fc.write(buf);
+            segment(seg).write(buf, getXidPosition(xid));
         } catch (IOException e) {
             Panic.panic(e);
         }
+        dirtySegments.add(seg);
+    }
+
+    // 将XID加一，并更新XID Header
+    private void incrXIDCounter() {
+        xidCounter ++;
+        writeHeader();
+        if(statusLog == null) {
+            force();
+        }
+    }
+
+    private void writeHeader() {
+        ByteBuffer buf = ByteBuffer.allocate(LEN_XID_HEADER_LENGTH);
+        buf.putLong(xidCounter);
+        buf.putLong(frozenXid);
+        buf.flip();
         try {
-            fc.force(false);
+            fc.write(buf, 0);
         } catch (IOException e) {
             Panic.panic(e);
         }
     }
 
-    // 开始一个事务，并返回XID
+    // 开始一个事务，并返回XID；开始日志不必等待落盘，事务之后的日志都在它之后
     public long begin() {
         counterLock.lock();
         try {
             long xid = xidCounter + 1;
-            updateXID(xid, FIELD_TRAN_ACTIVE);
+            updateXID(xid, FIELD_TRAN_ACTIVE, false);
             incrXIDCounter();
             return xid;
         } finally {
@@ -123,46 +294,185 @@ public class TransactionManagerImpl implements TransactionManager {
         }
     }
 
-    // 提交XID事务
+    public long begin(boolean async) {
+        long xid = begin();
+        if(async) {
+            asyncXids.add(xid);
+        }
+        return xid;
+    }
+
+    /**
+     * 提交XID事务，异步提交的事务先在内存中生效，崩溃时还没落盘的提交丢失，恢复时被撤销
+     * 有状态日志时同步提交只等待一次日志落盘，之前追加的异步提交日志随之落盘
+     */
     public void commit(long xid) {
-        updateXID(xid, FIELD_TRAN_COMMITTED);
+        if(asyncXids.contains(xid)) {
+            statusLock.readLock().lock();
+            try {
+                StatusLog log = statusLog;
+                if(log != null) {
+                    log.append(xid, FIELD_TRAN_COMMITTED, false);
+                }
+                pendingCommits.add(xid);
+            } finally {
+                statusLock.readLock().unlock();
+            }
+            return;
+        }
+        updateXID(xid, FIELD_TRAN_COMMITTED, true);
     }
 
-    // 回滚XID事务
+    // 回滚XID事务，没有落盘的回滚日志丢失时恢复同样把事务作为回滚处理
     public void abort(long xid) {
-        updateXID(xid, FIELD_TRAN_ABORTED);
+        asyncXids.remove(xid);
+        updateXID(xid, FIELD_TRAN_ABORTED, false);
     }
 
-    // 检测XID事务是否处于status状态
-    private boolean checkXID(long xid, byte status) {
-        long offset = getXidPosition(xid);
-        ByteBuffer buf = ByteBuffer.wrap(new byte[XID_FIELD_SIZE]);
+    public boolean isAsync(long xid) {
+        return asyncXids.contains(xid);
+    }
+
+    /**
+     * 只处理调用开始时已经提交的事务，它们的日志都在提交之前追加，flushLog之后已经落盘；
+     * 所有提交写入后只force一次，有状态日志时提交日志已经落盘，不再force
+     */
+    public void flushCommits(Runnable flushLog) {
+        flushLock.lock();
         try {
-            fc.position(offset);
-            fc.read(buf);
-        } catch (IOException e) {
-            Panic.panic(e);
+            if(pendingCommits.isEmpty()) {
+                return;
+            }
+            List<Long> xids = new ArrayList<>(pendingCommits);
+            flushLog.run();
+            Set<Long> written = new HashSet<>();
+            for(long xid : xids) {
+                writeXID(xid, FIELD_TRAN_COMMITTED);
+                written.add(xid / XIDS_PER_SEGMENT);
+            }
+            if(statusLog == null) {
+                for(long seg : written) {
+                    forceSegment(seg);
+                }
+            }
+            for(long xid : xids) {
+                pendingCommits.remove(xid);
+                asyncXids.remove(xid);
+            }
+        } finally {
+            flushLock.unlock();
         }
-        return buf.array()[0] == status;
+    }
+
+    // 检测XID事务是否处于status状态，只查询缓存
+    private boolean checkXID(long xid, byte status) {
+        return cache.get(xid) == status;
     }
 
     public boolean isActive(long xid) {
-        if(xid == SUPER_XID) return false;
+        if(xid == SUPER_XID || xid < frozenXid) return false;
+        if(pendingCommits.contains(xid)) return false;
         return checkXID(xid, FIELD_TRAN_ACTIVE);
     }
 
     public boolean isCommitted(long xid) {
-        if(xid == SUPER_XID) return true;
+        if(xid == SUPER_XID || xid < frozenXid) return true;
+        if(pendingCommits.contains(xid)) return true;
         return checkXID(xid, FIELD_TRAN_COMMITTED);
     }
 
     public boolean isAborted(long xid) {
-        if(xid == SUPER_XID) return false;
+        if(xid == SUPER_XID || xid < frozenXid) return false;
         return checkXID(xid, FIELD_TRAN_ABORTED);
     }
 
+    public void setStatusLog(StatusLog log) {
+        this.statusLog = log;
+    }
+
+    /**
+     * 在写锁内写入异步提交并落盘XID文件，调用前已经写入日志的状态都在落盘的文件中
+     * 已经关闭时文件在关闭时已经落盘
+     */
+    public void flush() {
+        if(!fc.isOpen()) {
+            return;
+        }
+        statusLock.writeLock().lock();
+        try {
+            StatusLog log = statusLog;
+            flushCommits(log == null ? () -> {} : log::flush);
+            forceAll();
+        } finally {
+            statusLock.writeLock().unlock();
+        }
+    }
+
+    // 日志从检查点之后重放，XID文件中的状态可能更新也可能更旧，按日志顺序覆盖即可
+    // 已经冻结的事务的状态不再保存
+    public void redoStatus(long xid, byte status) {
+        if(xid < frozenXid) {
+            return;
+        }
+        counterLock.lock();
+        try {
+            if(xid > xidCounter) {
+                // 中间没有日志的事务在文件中补零，作为活跃事务
+                xidCounter = xid;
+                writeHeader();
+            }
+        } finally {
+            counterLock.unlock();
+        }
+        writeXID(xid, status);
+    }
+
+    /**
+     * 先落盘新的frozenXid，再删除完全在它之前的段；正在写入的段不会被删除
+     * 与begin相同先取counterLock再取写锁，不会与状态的写入交错
+     */
+    public void truncate(long xid) {
+        counterLock.lock();
+        statusLock.writeLock().lock();
+        try {
+            xid = Math.min(xid, xidCounter + 1);
+            if(xid <= frozenXid) {
+                return;
+            }
+            long oldSegment = frozenXid / XIDS_PER_SEGMENT;
+            frozenXid = xid;
+            writeHeader();
+            force();
+            for(long seg = oldSegment; (seg + 1) * XIDS_PER_SEGMENT <= xid; seg ++) {
+                FileChannel sc = segments.remove(seg);
+                dirtySegments.remove(seg);
+                if(sc != null) {
+                    try {
+                        sc.close();
+                    } catch (IOException e) {
+                        Panic.panic(e);
+                    }
+                }
+                segmentFile(path, seg).delete();
+            }
+            cache.truncate(xid);
+        } finally {
+            statusLock.writeLock().unlock();
+            counterLock.unlock();
+        }
+    }
+
+    public long getFrozenXid() {
+        return frozenXid;
+    }
+
+    // 正常关闭时日志已经随数据管理器关闭落盘，剩余的异步提交可以直接写入
     public void close() {
+        flush();
         try {
+            for(FileChannel sc : segments.values()) {
+                sc.close();
+            }
             fc.close();
             file.close();
         } catch (IOException e) {
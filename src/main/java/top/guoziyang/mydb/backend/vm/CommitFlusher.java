@@ -0,0 +1,93 @@
+package top.guoziyang.mydb.backend.vm;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import top.guoziyang.mydb.backend.dm.DataManager;
+import top.guoziyang.mydb.backend.tm.TransactionManager;
+import top.guoziyang.mydb.backend.utils.Panic;
+
+/**
+ * CommitFlusher 定期让异步提交落盘
+ *
+ * 每隔interval毫秒先落盘日志，再把这段时间内异步提交的事务写入XID文件，
+ * 崩溃时最多丢失最近interval毫秒内的异步提交，这些事务在恢复时被撤销
+ */
+public class CommitFlusher {
+
+    public static final long DEFAULT_INTERVAL = 10;       // 两次落盘之间间隔的毫秒数
+
+    private TransactionManager tm;
+    private DataManager dm;
+
+    private Lock lock;
+    private Condition wakeup;
+    private volatile boolean closed;
+    private Thread worker;
+
+    public CommitFlusher(TransactionManager tm, DataManager dm) {
+        this.tm = tm;
+        this.dm = dm;
+        this.lock = new ReentrantLock();
+        this.wakeup = lock.newCondition();
+    }
+
+    /**
+     * 启动后台线程，每隔interval毫秒落盘一次
+     */
+    public static CommitFlusher start(TransactionManager tm, DataManager dm, long interval) {
+        CommitFlusher f = new CommitFlusher(tm, dm);
+        f.worker = new Thread(() -> f.loop(interval), "commit-flusher");
+        f.worker.setDaemon(true);
+        f.worker.start();
+        return f;
+    }
+
+    private void loop(long interval) {
+        while(pause(interval)) {
+            flush();
+        }
+    }
+
+    public void flush() {
+        tm.flushCommits(dm::flushLog);
+    }
+
+    // 等待millis毫秒或直到关闭，关闭后返回false
+    private boolean pause(long millis) {
+        lock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+            while(!closed && nanos > 0) {
+                nanos = wakeup.awaitNanos(nanos);
+            }
+            return !closed;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 关闭时落盘剩余的异步提交
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            wakeup.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if(worker != null) {
+            try {
+                worker.join();
+            } catch(InterruptedException e) {
+                Panic.panic(e);
+            }
+        }
+        flush();
+    }
+}
@@ -1,23 +1,31 @@
 package top.guoziyang.mydb.backend.vm;
 
-import java.util.Arrays;
-
 import com.google.common.primitives.Bytes;
 
 import top.guoziyang.mydb.backend.common.SubArray;
 import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
+import top.guoziyang.mydb.backend.tm.TransactionManagerImpl;
 import top.guoziyang.mydb.backend.utils.Parser;
 
 /**
  * VM向上层抽象出entry
  * entry结构：
- * [XMIN] [XMAX] [data]
+ * [XMIN] [XMAX] [Hint] [data]
+ * Hint记录读取时已经确定的XMIN和XMAX的最终状态，之后的读取不再查询事务管理器
+ * 提示位不写日志，丢失时重新查询即可
  */
 public class Entry {
 
     private static final int OF_XMIN = 0;
     private static final int OF_XMAX = OF_XMIN+8;
-    private static final int OF_DATA = OF_XMAX+8;
+    private static final int OF_HINT = OF_XMAX+8;
+    private static final int OF_DATA = OF_HINT+1;
+
+    public static final byte XMIN_COMMITTED = 1;
+    public static final byte XMIN_ABORTED = 2;
+    public static final byte XMAX_COMMITTED = 4;
+    public static final byte XMAX_ABORTED = 8;
+    private static final byte XMAX_HINTS = XMAX_COMMITTED | XMAX_ABORTED;
 
     private long uid;
     private DataItem dataItem;
@@ -33,13 +41,17 @@ public class Entry {
 
     public static Entry loadEntry(VersionManager vm, long uid) throws Exception {
         DataItem di = ((VersionManagerImpl)vm).dm.read(uid);
+        if(di == null) {
+            return null;
+        }
         return newEntry(vm, di, uid);
     }
 
     public static byte[] wrapEntryRaw(long xid, byte[] data) {
         byte[] xmin = Parser.long2Byte(xid);
         byte[] xmax = new byte[8];
-        return Bytes.concat(xmin, xmax, data);
+        byte[] hint = new byte[1];
+        return Bytes.concat(xmin, xmax, hint, data);
     }
 
     public void release() {
@@ -55,9 +67,7 @@ public class Entry {
         dataItem.rLock();
         try {
             SubArray sa = dataItem.data();
-            byte[] data = new byte[sa.end - sa.start - OF_DATA];
-            System.arraycopy(sa.raw, sa.start+OF_DATA, data, 0, data.length);
-            return data;
+            return sa.getBytes(OF_DATA, sa.length());
         } finally {
             dataItem.rUnLock();
         }
@@ -67,7 +77,7 @@ public class Entry {
         dataItem.rLock();
         try {
             SubArray sa = dataItem.data();
-            return Parser.parseLong(Arrays.copyOfRange(sa.raw, sa.start+OF_XMIN, sa.start+OF_XMAX));
+            return sa.getLong(OF_XMIN);
         } finally {
             dataItem.rUnLock();
         }
@@ -77,22 +87,85 @@ public class Entry {
         dataItem.rLock();
         try {
             SubArray sa = dataItem.data();
-            return Parser.parseLong(Arrays.copyOfRange(sa.raw, sa.start+OF_XMAX, sa.start+OF_DATA));
+            return sa.getLong(OF_XMAX);
+        } finally {
+            dataItem.rUnLock();
+        }
+    }
+
+    public byte getHint() {
+        dataItem.rLock();
+        try {
+            SubArray sa = dataItem.data();
+            return sa.get(OF_HINT);
         } finally {
             dataItem.rUnLock();
         }
     }
 
+    // 新的XMAX还没有确定的状态，清除它的提示位
     public void setXmax(long xid) {
         dataItem.before();
         try {
             SubArray sa = dataItem.data();
-            System.arraycopy(Parser.long2Byte(xid), 0, sa.raw, sa.start+OF_XMAX, 8);
+            sa.putLong(OF_XMAX, xid);
+            sa.put(OF_HINT, (byte)(sa.get(OF_HINT) & ~XMAX_HINTS));
         } finally {
             dataItem.after(xid);
         }
     }
 
+    /**
+     * 冻结：freezeXmin时把XMIN改写为SUPER_XID，xmax不为0且XMAX仍为xmax时清除XMAX
+     * 作为SUPER_XID的修改写入日志，返回XMAX是否被清除
+     */
+    public boolean freeze(boolean freezeXmin, long xmax) {
+        dataItem.before();
+        boolean cleared = false;
+        try {
+            SubArray sa = dataItem.data();
+            byte hint = sa.get(OF_HINT);
+            if(freezeXmin) {
+                sa.putLong(OF_XMIN, TransactionManagerImpl.SUPER_XID);
+                hint |= XMIN_COMMITTED;
+            }
+            if(xmax != 0 && sa.getLong(OF_XMAX) == xmax) {
+                sa.putLong(OF_XMAX, 0);
+                hint &= ~XMAX_HINTS;
+                cleared = true;
+            }
+            sa.put(OF_HINT, hint);
+        } finally {
+            if(freezeXmin || cleared) {
+                dataItem.after(TransactionManagerImpl.SUPER_XID);
+            } else {
+                dataItem.unBefore();
+            }
+        }
+        return cleared;
+    }
+
+    /**
+     * 记录提示位，不写日志，只把页面标记为脏
+     * XMAX的提示位只在XMAX仍为xid时记录，避免记到之后设置的XMAX上
+     */
+    public void setHint(byte hint, long xid) {
+        dataItem.lock();
+        try {
+            SubArray sa = dataItem.data();
+            if((hint & XMAX_HINTS) != 0 && sa.getLong(OF_XMAX) != xid) {
+                return;
+            }
+            byte old = sa.get(OF_HINT);
+            if((old | hint) != old) {
+                dataItem.page().setDirty(true);
+                sa.put(OF_HINT, (byte)(old | hint));
+            }
+        } finally {
+            dataItem.unlock();
+        }
+    }
+
     public long getUid() {
         return uid;
     }
@@ -10,6 +10,8 @@ public class Transaction {
     public long xid;
     public int level;
     public Map<Long, Boolean> snapshot;
+    // 开始时仍活跃的最小XID：之前的事务提交前，这个事务可能已经读到它们删除的版本
+    public long horizon;
     public Exception err;
     public boolean autoAborted;
 
@@ -17,6 +19,14 @@ public class Transaction {
         Transaction t = new Transaction();
         t.xid = xid;
         t.level = level;
+        t.horizon = xid;
+        if(active != null) {
+            for(Long x : active.keySet()) {
+                if(x != TransactionManagerImpl.SUPER_XID) {
+                    t.horizon = Math.min(t.horizon, x);
+                }
+            }
+        }
         if(level != 0) {
             t.snapshot = new HashMap<>();
             for(Long x : active.keySet()) {
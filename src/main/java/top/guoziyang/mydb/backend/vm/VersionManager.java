@@ -1,14 +1,33 @@
 package top.guoziyang.mydb.backend.vm;
 
+import java.util.List;
+
 import top.guoziyang.mydb.backend.dm.DataManager;
 import top.guoziyang.mydb.backend.tm.TransactionManager;
 
 public interface VersionManager {
     byte[] read(long xid, long uid) throws Exception;
     long insert(long xid, byte[] data) throws Exception;
+    // 批量插入，返回的uid与data一一对应
+    List<Long> insertBatch(long xid, List<byte[]> data) throws Exception;
     boolean delete(long xid, long uid) throws Exception;
 
+    // 删除早于该值提交的版本对所有活跃事务的快照和之后开始的事务都不可见
+    long vacuumHorizon();
+    // uid的版本对所有事务都不可见时返回其内容，否则返回null
+    byte[] readDead(long horizon, long uid) throws Exception;
+    // 回收uid的版本占用的空间
+    void free(long uid) throws Exception;
+    // 早于该值提交的事务对所有活跃事务和之后开始的事务都可见，它们插入的版本可以冻结
+    long freezeHorizon();
+    // 冻结uid的版本，返回冻结后它仍然引用的最小XID，不再引用任何事务时返回Long.MAX_VALUE
+    long freeze(long horizon, long uid) throws Exception;
+    // 所有版本都已不再引用小于xid的事务，丢弃这些事务的状态
+    void truncateStatus(long xid);
+
     long begin(int level);
+    // async为true时事务异步提交，提交返回时还没有落盘，崩溃时可能丢失
+    long begin(int level, boolean async);
     void commit(long xid) throws Exception;
     void abort(long xid);
 
@@ -16,4 +35,11 @@ public interface VersionManager {
         return new VersionManagerImpl(tm, dm);
     }
 
+    /**
+     * asyncCommit为true时所有事务都异步提交
+     */
+    public static VersionManager newVersionManager(TransactionManager tm, DataManager dm, boolean asyncCommit) {
+        return new VersionManagerImpl(tm, dm, asyncCommit);
+    }
+
 }
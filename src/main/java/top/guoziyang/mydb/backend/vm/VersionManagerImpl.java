@@ -1,6 +1,8 @@
 package top.guoziyang.mydb.backend.vm;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -9,7 +11,6 @@ import top.guoziyang.mydb.backend.common.AbstractCache;
 import top.guoziyang.mydb.backend.dm.DataManager;
 import top.guoziyang.mydb.backend.tm.TransactionManager;
 import top.guoziyang.mydb.backend.tm.TransactionManagerImpl;
-import top.guoziyang.mydb.backend.utils.Panic;
 import top.guoziyang.mydb.common.Error;
 
 public class VersionManagerImpl extends AbstractCache<Entry> implements VersionManager {
@@ -19,9 +20,16 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
     Map<Long, Transaction> activeTransaction;
     Lock lock;
     LockTable lt;
+    boolean asyncCommit;        // 所有事务都异步提交
+    long lastXid;               // 最近开始的事务，之前的事务都已经分配
 
     public VersionManagerImpl(TransactionManager tm, DataManager dm) {
+        this(tm, dm, false);
+    }
+
+    public VersionManagerImpl(TransactionManager tm, DataManager dm, boolean asyncCommit) {
         super(0);
+        this.asyncCommit = asyncCommit;
         this.tm = tm;
         this.dm = dm;
         this.activeTransaction = new HashMap<>();
@@ -75,6 +83,23 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         return dm.insert(xid, raw);
     }
 
+    @Override
+    public List<Long> insertBatch(long xid, List<byte[]> data) throws Exception {
+        lock.lock();
+        Transaction t = activeTransaction.get(xid);
+        lock.unlock();
+
+        if(t.err != null) {
+            throw t.err;
+        }
+
+        List<byte[]> raws = new ArrayList<>(data.size());
+        for(byte[] d : data) {
+            raws.add(Entry.wrapEntryRaw(xid, d));
+        }
+        return dm.insertBatch(xid, raws);
+    }
+
     @Override
     public boolean delete(long xid, long uid) throws Exception {
         lock.lock();
@@ -131,11 +156,99 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         }
     }
 
+    @Override
+    public long vacuumHorizon() {
+        lock.lock();
+        try {
+            long horizon = Long.MAX_VALUE;
+            for(Transaction t : activeTransaction.values()) {
+                if(t.xid == TransactionManagerImpl.SUPER_XID) continue;
+                // 可重复读的事务仍然看得到快照中事务删除的版本，即使这些事务已经提交；
+                // 读已提交的事务在这些事务提交之前读到的版本中，溢出页的值要到用到时才读取
+                horizon = Math.min(horizon, t.horizon);
+            }
+            return horizon;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public byte[] readDead(long horizon, long uid) throws Exception {
+        Entry entry = null;
+        try {
+            entry = super.get(uid);
+        } catch(Exception e) {
+            if(e == Error.NullEntryException) {
+                return null;
+            } else {
+                throw e;
+            }
+        }
+        try {
+            if(Visibility.isDead(tm, horizon, entry)) {
+                return entry.data();
+            } else {
+                return null;
+            }
+        } finally {
+            entry.release();
+        }
+    }
+
+    @Override
+    public void free(long uid) throws Exception {
+        dm.free(uid);
+    }
+
+    // 没有活跃事务时不超过下一个将要分配的XID，重启后第一个事务开始之前不冻结
+    @Override
+    public long freezeHorizon() {
+        lock.lock();
+        try {
+            return Math.min(vacuumHorizon(), lastXid + 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long freeze(long horizon, long uid) throws Exception {
+        Entry entry = null;
+        try {
+            entry = super.get(uid);
+        } catch(Exception e) {
+            if(e == Error.NullEntryException) {
+                return Long.MAX_VALUE;
+            } else {
+                throw e;
+            }
+        }
+        try {
+            return Visibility.freeze(tm, horizon, entry);
+        } finally {
+            entry.release();
+        }
+    }
+
+    @Override
+    public void truncateStatus(long xid) {
+        // 冻结的日志落盘之后才能丢弃事务状态
+        dm.flushLog();
+        tm.truncate(xid);
+    }
+
     @Override
     public long begin(int level) {
+        return begin(level, false);
+    }
+
+    @Override
+    public long begin(int level, boolean async) {
         lock.lock();
         try {
-            long xid = tm.begin();
+            long xid = tm.begin(async || asyncCommit);
+            lastXid = xid;
             Transaction t = Transaction.newTransaction(xid, level, activeTransaction);
             activeTransaction.put(xid, t);
             return xid;
@@ -150,14 +263,12 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         Transaction t = activeTransaction.get(xid);
         lock.unlock();
 
-        try {
-            if(t.err != null) {
-                throw t.err;
-            }
-        } catch(NullPointerException n) {
-            System.out.println(xid);
-            System.out.println(activeTransaction.keySet());
-            Panic.panic(n);
+        // 已经结束或者从未开始的事务
+        if(t == null) {
+            throw Error.NoTransactionException;
+        }
+        if(t.err != null) {
+            throw t.err;
         }
 
         lock.lock();
@@ -165,6 +276,10 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         lock.unlock();
 
         lt.remove(xid);
+        // 同步提交的事务可能依赖之前异步提交的事务，先让它们落盘
+        if(!tm.isAsync(xid)) {
+            tm.flushCommits(dm::flushLog);
+        }
         tm.commit(xid);
     }
 
@@ -1,15 +1,21 @@
 package top.guoziyang.mydb.backend.vm;
 
 import top.guoziyang.mydb.backend.tm.TransactionManager;
+import top.guoziyang.mydb.backend.tm.TransactionManagerImpl;
 
 public class Visibility {
-    
+
+    // 事务状态，提交和回滚是最终状态，记入提示位
+    private static final int ACTIVE = 0;
+    private static final int COMMITTED = 1;
+    private static final int ABORTED = 2;
+
     public static boolean isVersionSkip(TransactionManager tm, Transaction t, Entry e) {
         long xmax = e.getXmax();
         if(t.level == 0) {
             return false;
         } else {
-            return tm.isCommitted(xmax) && (xmax > t.xid || t.isInSnapshot(xmax));
+            return xmaxStatus(tm, e, xmax) == COMMITTED && (xmax > t.xid || t.isInSnapshot(xmax));
         }
     }
 
@@ -21,16 +27,49 @@ public class Visibility {
         }
     }
 
+    // 版本对所有活跃事务和之后开始的事务都不可见
+    // 插入它的事务已回滚，或者删除它的事务已提交且早于horizon
+    public static boolean isDead(TransactionManager tm, long horizon, Entry e) {
+        if(xminStatus(tm, e, e.getXmin()) == ABORTED) return true;
+        long xmax = e.getXmax();
+        return xmax != 0 && xmax < horizon && xmaxStatus(tm, e, xmax) == COMMITTED;
+    }
+
+    /**
+     * 冻结对所有事务都可见的版本：XMIN早于horizon且已提交时改写为SUPER_XID，XMAX早于horizon且已回滚时清除
+     * 异步提交落盘之前不冻结；返回冻结后版本仍然引用的最小XID，没有时返回Long.MAX_VALUE
+     */
+    public static long freeze(TransactionManager tm, long horizon, Entry e) {
+        long xmin = e.getXmin();
+        long xmax = e.getXmax();
+        boolean frozenXmin = xmin == TransactionManagerImpl.SUPER_XID;
+        boolean freezeXmin = !frozenXmin && xmin < horizon
+            && xminStatus(tm, e, xmin) == COMMITTED && !tm.isAsync(xmin);
+        boolean clearXmax = xmax != 0 && xmax < horizon && xmaxStatus(tm, e, xmax) == ABORTED;
+        if(freezeXmin || clearXmax) {
+            clearXmax = e.freeze(freezeXmin, clearXmax ? xmax : 0) && clearXmax;
+        }
+
+        long oldest = Long.MAX_VALUE;
+        if(!frozenXmin && !freezeXmin) {
+            oldest = xmin;
+        }
+        if(xmax != 0 && !clearXmax) {
+            oldest = Math.min(oldest, xmax);
+        }
+        return oldest;
+    }
+
     private static boolean readCommitted(TransactionManager tm, Transaction t, Entry e) {
         long xid = t.xid;
         long xmin = e.getXmin();
         long xmax = e.getXmax();
         if(xmin == xid && xmax == 0) return true;
 
-        if(tm.isCommitted(xmin)) {
+        if(xminStatus(tm, e, xmin) == COMMITTED) {
             if(xmax == 0) return true;
             if(xmax != xid) {
-                if(!tm.isCommitted(xmax)) {
+                if(xmaxStatus(tm, e, xmax) != COMMITTED) {
                     return true;
                 }
             }
@@ -44,10 +83,10 @@ public class Visibility {
         long xmax = e.getXmax();
         if(xmin == xid && xmax == 0) return true;
 
-        if(tm.isCommitted(xmin) && xmin < xid && !t.isInSnapshot(xmin)) {
+        if(xminStatus(tm, e, xmin) == COMMITTED && xmin < xid && !t.isInSnapshot(xmin)) {
             if(xmax == 0) return true;
             if(xmax != xid) {
-                if(!tm.isCommitted(xmax) || xmax > xid || t.isInSnapshot(xmax)) {
+                if(xmaxStatus(tm, e, xmax) != COMMITTED || xmax > xid || t.isInSnapshot(xmax)) {
                     return true;
                 }
             }
@@ -55,4 +94,34 @@ public class Visibility {
         return false;
     }
 
+    private static int xminStatus(TransactionManager tm, Entry e, long xmin) {
+        return status(tm, e, xmin, Entry.XMIN_COMMITTED, Entry.XMIN_ABORTED);
+    }
+
+    private static int xmaxStatus(TransactionManager tm, Entry e, long xmax) {
+        return status(tm, e, xmax, Entry.XMAX_COMMITTED, Entry.XMAX_ABORTED);
+    }
+
+    /**
+     * 先检查提示位，没有时查询事务管理器，并把查到的最终状态记入提示位
+     * 异步提交落盘之前可能在崩溃中丢失，这时不能记录提交的提示位
+     */
+    private static int status(TransactionManager tm, Entry e, long xid, byte committedHint, byte abortedHint) {
+        if(xid == TransactionManagerImpl.SUPER_XID) return COMMITTED;
+        byte hint = e.getHint();
+        if((hint & committedHint) != 0) return COMMITTED;
+        if((hint & abortedHint) != 0) return ABORTED;
+        if(tm.isCommitted(xid)) {
+            if(!tm.isAsync(xid)) {
+                e.setHint(committedHint, xid);
+            }
+            return COMMITTED;
+        }
+        if(tm.isAborted(xid)) {
+            e.setHint(abortedHint, xid);
+            return ABORTED;
+        }
+        return ACTIVE;
+    }
+
 }
@@ -10,11 +10,13 @@ public class Error {
     // dm
     public static final Exception BadLogFileException = new RuntimeException("Bad log file!");
     public static final Exception MemTooSmallException = new RuntimeException("Memory too small!");
+    public static final Exception BadOverflowPageException = new RuntimeException("Bad overflow page!");
     public static final Exception DataTooLargeException = new RuntimeException("Data too large!");
     public static final Exception DatabaseBusyException = new RuntimeException("Database is busy!");
 
     // tm
     public static final Exception BadXIDFileException = new RuntimeException("Bad XID file!");
+    public static final Exception LegacyXIDFileException = new RuntimeException("XID file of an older version is not supported!");
 
     // vm
     public static final Exception DeadlockException = new RuntimeException("Deadlock!");
@@ -43,4 +45,11 @@ public class Error {
 
     // launcher
     public static final Exception InvalidMemException = new RuntimeException("Invalid memory!");
+    public static final Exception InvalidCachePolicyException = new RuntimeException("Invalid cache policy!");
+    public static final Exception InvalidDirtyRatioException = new RuntimeException("Invalid dirty ratio!");
+    public static final Exception InvalidVacuumIntervalException = new RuntimeException("Invalid vacuum interval!");
+    public static final Exception InvalidGroupCommitException = new RuntimeException("Invalid group commit setting!");
+    public static final Exception InvalidCheckpointIntervalException = new RuntimeException("Invalid checkpoint interval!");
+    public static final Exception InvalidRecoveryWorkersException = new RuntimeException("Invalid recovery workers!");
+    public static final Exception InvalidAsyncFlushIntervalException = new RuntimeException("Invalid async flush interval!");
 }
@@ -2,7 +2,10 @@ package top.guoziyang.mydb.backend.common;
 
 import java.security.SecureRandom;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
@@ -46,4 +49,195 @@ public class CacheTest {
         }
         cdl.countDown();
     }
+
+    @Test
+    public void testConcurrentLoad() throws Exception {
+        AtomicInteger loads = new AtomicInteger(0);
+        AtomicInteger releases = new AtomicInteger(0);
+        AbstractCache<Long> slowCache = new AbstractCache<Long>(10) {
+            @Override
+            protected Long getForCache(long key) throws Exception {
+                loads.incrementAndGet();
+                Thread.sleep(50);
+                return key;
+            }
+            @Override
+            protected void releaseForCache(Long obj) {
+                releases.incrementAndGet();
+            }
+        };
+        int noWorkers = 16;
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(noWorkers);
+        for(int i = 0; i < noWorkers; i ++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    long h = slowCache.get(7);
+                    assert h == 7;
+                } catch (Exception e) {
+                    Panic.panic(e);
+                }
+                done.countDown();
+            }).start();
+        }
+        start.countDown();
+        done.await();
+        assert loads.get() == 1;
+        for(int i = 0; i < noWorkers; i ++) {
+            slowCache.release(7);
+        }
+        assert releases.get() == 1;
+    }
+
+    @Test
+    public void testEvictionPolicy() throws Exception {
+        String[] policies = {EvictionPolicy.CLOCK, EvictionPolicy.LRU_K, EvictionPolicy.TWO_QUEUE};
+        for(String name : policies) {
+            AtomicInteger loads = new AtomicInteger(0);
+            AtomicInteger releases = new AtomicInteger(0);
+            AbstractCache<Long> c = new AbstractCache<Long>(10, EvictionPolicy.newPolicy(name, 10)) {
+                @Override
+                protected Long getForCache(long key) throws Exception {
+                    loads.incrementAndGet();
+                    return key;
+                }
+                @Override
+                protected void releaseForCache(Long obj) {
+                    releases.incrementAndGet();
+                }
+            };
+            // 未被引用的资源继续驻留
+            for(int i = 0; i < 5; i ++) {
+                c.get(1);
+                c.release(1);
+            }
+            assert loads.get() == 1;
+            assert releases.get() == 0;
+
+            // 超出容量时驱逐未被引用的资源
+            for(long k = 100; k < 200; k ++) {
+                assert c.get(k) == k;
+                c.release(k);
+            }
+            assert loads.get() == 101;
+            assert releases.get() == 101 - 10;
+
+            // 全部资源都被引用时才报错
+            for(long k = 200; k < 210; k ++) {
+                c.get(k);
+            }
+            boolean full = false;
+            try {
+                c.get(300);
+            } catch(Exception e) {
+                full = e == Error.CacheFullException;
+            }
+            assert full;
+            c.close();
+        }
+    }
+
+    @Test
+    public void testLruKScan() throws Exception {
+        AtomicInteger loads = new AtomicInteger(0);
+        AbstractCache<Long> c = new AbstractCache<Long>(10, EvictionPolicy.newPolicy(EvictionPolicy.LRU_K, 10)) {
+            @Override
+            protected Long getForCache(long key) throws Exception {
+                loads.incrementAndGet();
+                return key;
+            }
+            @Override
+            protected void releaseForCache(Long obj) {}
+        };
+        // 热点页被访问两次之后，被之后连续访问两次的页面挤出缓存
+        for(long k : new long[] {1, 2, 3, 4, 5, 1, 2, 3, 4, 5}) {
+            c.get(k);
+            c.release(k);
+        }
+        for(long k = 11; k <= 20; k ++) {
+            for(int i = 0; i < 2; i ++) {
+                c.get(k);
+                c.release(k);
+            }
+        }
+
+        // 热点页被驱逐后同时被再次引用，保留的访问历史使它们不会被当作首次访问：
+        // 之后的顺序扫描最多挤掉倒数第K次访问最早的一个页面，其余扫描页面只互相置换
+        for(long k = 1; k <= 5; k ++) {
+            c.get(k);
+        }
+        for(long k = 1; k <= 5; k ++) {
+            c.release(k);
+        }
+        for(long k = 100; k < 200; k ++) {
+            c.get(k);
+            c.release(k);
+        }
+        int before = loads.get();
+        for(long k = 1; k <= 5; k ++) {
+            c.get(k);
+            c.release(k);
+        }
+        assert loads.get() - before <= 1;
+        c.close();
+    }
+
+    @Test
+    public void testWriteBackOutsideLock() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        AtomicInteger written = new AtomicInteger(0);
+        AbstractCache<Long> c = new AbstractCache<Long>(0) {
+            @Override
+            protected Long getForCache(long key) throws Exception {
+                // 重新加载在写回结束之后
+                if(key == 1 && written.get() > 0) assert resume.getCount() == 0;
+                return key;
+            }
+            @Override
+            protected void releaseForCache(Long obj) {
+                if(obj == 1 && written.getAndIncrement() == 0) {
+                    writing.countDown();
+                    try {
+                        resume.await();
+                    } catch(InterruptedException e) {
+                        Panic.panic(e);
+                    }
+                }
+            }
+        };
+        c.get(1);
+        Thread evicter = new Thread(() -> c.release(1));
+        evicter.start();
+        writing.await();
+
+        // 1和17在同一个桶中，写回期间仍能获取和释放
+        CompletableFuture<Long> other = CompletableFuture.supplyAsync(() -> {
+            try {
+                long v = c.get(17);
+                c.release(17);
+                return v;
+            } catch(Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assert other.get(5, TimeUnit.SECONDS) == 17;
+
+        // 正在写回的资源，获取者等待写回结束后重新加载
+        CompletableFuture<Long> reload = CompletableFuture.supplyAsync(() -> {
+            try {
+                return c.get(1);
+            } catch(Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(50);
+        assert !reload.isDone();
+        resume.countDown();
+        assert reload.get(5, TimeUnit.SECONDS) == 1;
+        evicter.join();
+        c.release(1);
+        assert written.get() == 2;
+    }
 }
@@ -0,0 +1,108 @@
+package top.guoziyang.mydb.backend.dm;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import top.guoziyang.mydb.backend.dm.logger.GroupCommitStats;
+import top.guoziyang.mydb.backend.dm.logger.Logger;
+import top.guoziyang.mydb.backend.dm.page.PageX;
+import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+import top.guoziyang.mydb.backend.dm.pageIndex.FreeSpaceMap;
+import top.guoziyang.mydb.backend.tm.MockTransactionManager;
+import top.guoziyang.mydb.backend.utils.Panic;
+import top.guoziyang.mydb.backend.utils.RandomUtil;
+
+/**
+ * 并发插入时数据文件的增长
+ * 与所有数据紧密排列所需的最少页数比较，页数越接近下限说明并发插入越少地另开新页
+ * 同时给出日志组提交的批次分布
+ *
+ * 批量插入与逐行插入的吞吐量
+ * 逐行插入每行写一条日志，批量插入每页写一条日志
+ */
+public class DataManagerBenchmarkTest {
+
+    static final String PATH = "/tmp/TestDMBench";
+    static final int DATA_LEN = 100;
+    static final int DATA_ITEM_OVERHEAD = 3;        // ValidFlag 1字节 + DataSize 2字节
+
+    @Test
+    public void testFileGrowth() throws Exception {
+        for(int threads = 1; threads <= 8; threads *= 2) {
+            growth(threads, 4000);
+        }
+    }
+
+    private void growth(int threads, int total) throws Exception {
+        DataManager dm = DataManager.create(PATH, PageCache.PAGE_SIZE * 64, new MockTransactionManager());
+        int perThread = total / threads;
+        CountDownLatch cdl = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for(int t = 0; t < threads; t ++) {
+            new Thread(() -> {
+                try {
+                    for(int i = 0; i < perThread; i ++) {
+                        dm.insert(0, RandomUtil.randomBytes(DATA_LEN));
+                    }
+                } catch(Exception e) {
+                    Panic.panic(e);
+                } finally {
+                    cdl.countDown();
+                }
+            }).start();
+        }
+        cdl.await();
+        long elapsed = System.nanoTime() - start;
+        int pages = ((DataManagerImpl)dm).pc.getPageNumber() - 1;
+        GroupCommitStats stats = ((DataManagerImpl)dm).logger.getStats();
+        dm.close();
+
+        int itemLen = DATA_ITEM_OVERHEAD + DATA_LEN;
+        int minPages = (int)Math.ceil((double)perThread * threads / (PageX.MAX_FREE_SPACE / itemLen));
+        System.out.println("DataManager insert growth, threads=" + threads + ": " + pages + " data pages (min " + minPages + "), "
+            + (perThread * threads * 1_000_000_000L / elapsed) + " inserts/s");
+        System.out.println("  log group commit: " + stats);
+
+        new File(PATH + ".db").delete();
+        Logger.remove(PATH);
+        FreeSpaceMap.remove(PATH);
+    }
+
+    @Test
+    public void testInsertBatch() throws Exception {
+        int total = 2000;
+        System.out.println("DataManager single-row insert: " + insertRate(total, 1) + " rows/s");
+        for(int batch = 16; batch <= 256; batch *= 4) {
+            System.out.println("DataManager batch insert, batch=" + batch + ": " + insertRate(total, batch) + " rows/s");
+        }
+    }
+
+    private long insertRate(int total, int batch) throws Exception {
+        DataManager dm = DataManager.create(PATH, PageCache.PAGE_SIZE * 64, new MockTransactionManager());
+        List<byte[]> rows = new ArrayList<>();
+        for(int i = 0; i < total; i ++) {
+            rows.add(RandomUtil.randomBytes(DATA_LEN));
+        }
+        long start = System.nanoTime();
+        if(batch == 1) {
+            for(byte[] row : rows) {
+                dm.insert(0, row);
+            }
+        } else {
+            for(int i = 0; i < total; i += batch) {
+                dm.insertBatch(0, rows.subList(i, Math.min(total, i + batch)));
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        dm.close();
+
+        new File(PATH + ".db").delete();
+        Logger.remove(PATH);
+        FreeSpaceMap.remove(PATH);
+        return total * 1_000_000_000L / elapsed;
+    }
+}
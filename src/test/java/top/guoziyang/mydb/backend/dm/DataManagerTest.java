@@ -1,6 +1,7 @@
 package top.guoziyang.mydb.backend.dm;
 
 import java.io.File;
+import java.io.InputStream;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -12,9 +13,21 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import org.junit.Test;
 
+import top.guoziyang.mydb.backend.common.DBConfig;
+import top.guoziyang.mydb.backend.common.EvictionPolicy;
 import top.guoziyang.mydb.backend.common.SubArray;
 import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
+import top.guoziyang.mydb.backend.dm.logger.Logger;
+import top.guoziyang.mydb.backend.dm.page.Page;
+import top.guoziyang.mydb.backend.dm.page.PageOne;
+import top.guoziyang.mydb.backend.dm.page.PageOverflow;
+import top.guoziyang.mydb.backend.dm.page.PageX;
+import top.guoziyang.mydb.backend.dm.pageCache.MappedPageCacheImpl;
 import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+import top.guoziyang.mydb.backend.dm.pageCache.PageCacheImpl;
+import top.guoziyang.mydb.backend.dm.pageIndex.FreeSpaceMap;
+import top.guoziyang.mydb.backend.dm.pageIndex.PageIndex;
+import top.guoziyang.mydb.backend.dm.pageIndex.PageInfo;
 import top.guoziyang.mydb.backend.tm.MockTransactionManager;
 import top.guoziyang.mydb.backend.tm.TransactionManager;
 import top.guoziyang.mydb.backend.utils.Panic;
@@ -78,13 +91,13 @@ public class DataManagerTest {
 
                     data0.rLock(); data1.rLock();
                     SubArray s0 = data0.data(); SubArray s1 = data1.data();
-                    assert Arrays.equals(Arrays.copyOfRange(s0.raw, s0.start, s0.end), Arrays.copyOfRange(s1.raw, s1.start, s1.end));
+                    assert Arrays.equals(s0.toArray(), s1.toArray());
                     data0.rUnLock(); data1.rUnLock();
 
                     byte[] newData = RandomUtil.randomBytes(dataLen);
                     data0.before(); data1.before();
-                    System.arraycopy(newData, 0, s0.raw, s0.start, dataLen);
-                    System.arraycopy(newData, 0, s1.raw, s1.start, dataLen);
+                    s0.putBytes(0, newData);
+                    s1.putBytes(0, newData);
                     data0.after(0); data1.after(0);
                     data0.release(); data1.release();
                 }
@@ -109,7 +122,8 @@ public class DataManagerTest {
         dm0.close(); mdm.close();
 
         new File("/tmp/TESTDMSingle.db").delete();
-        new File("/tmp/TESTDMSingle.log").delete();
+        Logger.remove("/tmp/TESTDMSingle");
+        FreeSpaceMap.remove("/tmp/TESTDMSingle");
     }
 
     @Test
@@ -129,7 +143,8 @@ public class DataManagerTest {
         dm0.close(); mdm.close();
 
         new File("/tmp/TestDMMulti.db").delete();
-        new File("/tmp/TestDMMulti.log").delete();
+        Logger.remove("/tmp/TestDMMulti");
+        FreeSpaceMap.remove("/tmp/TestDMMulti");
     }
 
     @Test
@@ -150,12 +165,296 @@ public class DataManagerTest {
                 new Thread(r).run();
             }
             cdl.await();
+            // 没有事务提交，日志只追加到缓冲区，崩溃之前先落盘
+            dm0.flushLog();
         }
         dm0.close(); mdm.close();
         
         new File("/tmp/TestRecoverySimple.db").delete();
-        new File("/tmp/TestRecoverySimple.log").delete();
-        new File("/tmp/TestRecoverySimple.xid").delete();
+        Logger.remove("/tmp/TestRecoverySimple");
+        FreeSpaceMap.remove("/tmp/TestRecoverySimple");
+        TransactionManager.remove("/tmp/TestRecoverySimple");
 
     }
+
+    @Test
+    public void testConfig() throws Exception {
+        String path = "/tmp/TestDMConfig";
+        TransactionManager tm0 = new MockTransactionManager();
+        DBConfig config = DBConfig.withMem(PageCache.PAGE_SIZE*10);
+        config.cachePolicy = EvictionPolicy.TWO_QUEUE;
+        config.mmap = true;
+        DataManager dm0 = DataManager.create(path, config, tm0);
+        assert ((DataManagerImpl)dm0).pc instanceof MappedPageCacheImpl;
+        byte[] data = RandomUtil.randomBytes(100);
+        long uid = dm0.insert(0, data);
+        dm0.close();
+
+        config.mmap = false;
+        dm0 = DataManager.open(path, config, tm0);
+        assert ((DataManagerImpl)dm0).pc instanceof PageCacheImpl;
+        DataItem di = dm0.read(uid);
+        assert Arrays.equals(di.data().toArray(), data);
+        di.release();
+        dm0.close();
+
+        new File(path + ".db").delete();
+        Logger.remove(path);
+        FreeSpaceMap.remove(path);
+    }
+
+    @Test
+    public void testOverflow() throws Exception {
+        String path = "/tmp/TestDMOverflow";
+        TransactionManager tm0 = new MockTransactionManager();
+        DataManager dm0 = DataManager.create(path, PageCache.PAGE_SIZE*10, tm0);
+
+        // 三页半的数据和空数据
+        byte[] data = RandomUtil.randomBytes(PageOverflow.MAX_CHUNK * 3 + PageOverflow.MAX_CHUNK / 2);
+        long pointer = dm0.insertOverflow(data);
+        long empty = dm0.insertOverflow(new byte[0]);
+        try(InputStream in = dm0.readOverflow(pointer)) {
+            assert Arrays.equals(in.readAllBytes(), data);
+        }
+        try(InputStream in = dm0.readOverflow(empty)) {
+            assert in.read() == -1;
+        }
+        dm0.close();
+
+        dm0 = DataManager.open(path, PageCache.PAGE_SIZE*10, tm0);
+        try(InputStream in = dm0.readOverflow(pointer)) {
+            assert Arrays.equals(in.readAllBytes(), data);
+        }
+
+        // 回收的溢出页作为普通页重新使用，不再申请新页
+        int pages = ((DataManagerImpl)dm0).pc.getPageNumber();
+        dm0.freeOverflow(pointer);
+        for(int i = 0; i < 4; i ++) {
+            long uid = dm0.insert(0, RandomUtil.randomBytes(PageX.MAX_FREE_SPACE - 100));
+            assert uid >>> 32 <= pages;
+        }
+        assert ((DataManagerImpl)dm0).pc.getPageNumber() == pages;
+        dm0.close();
+
+        new File(path + ".db").delete();
+        Logger.remove(path);
+        FreeSpaceMap.remove(path);
+    }
+
+    @Test
+    public void testFreeSpaceMapAfterCrash() throws Exception {
+        String path = "/tmp/TestDMFsm";
+        TransactionManager tm0 = new MockTransactionManager();
+        DataManagerImpl dm0 = (DataManagerImpl)DataManager.create(path, PageCache.PAGE_SIZE*10, tm0);
+        dm0.insert(0, RandomUtil.randomBytes(1000));
+        dm0.insert(0, RandomUtil.randomBytes(PageX.MAX_FREE_SPACE - 100));
+        assert dm0.pc.getPageNumber() == 3;
+        dm0.checkpoint();
+
+        // 改写检查点保存的第3页，重新打开后仍是这个值说明没有重新读取该页
+        FreeSpaceMap fsm = FreeSpaceMap.read(path);
+        PageIndex saved = new PageIndex();
+        for(PageInfo pi : dm0.pIndex.pages()) {
+            saved.add(pi.pgno, pi.pgno == 3 ? 0 : pi.freeSpace);
+        }
+        FreeSpaceMap.save(path, null, fsm.getLsn(), 3, saved);
+
+        // 检查点之后修改第2页，模拟崩溃
+        long uid = dm0.insert(0, RandomUtil.randomBytes(500));
+        assert uid >>> 32 == 2;
+        dm0.logger.close();
+        dm0.pc.close();
+
+        dm0 = (DataManagerImpl)DataManager.open(path, PageCache.PAGE_SIZE*10, tm0);
+        Page pg = dm0.pc.getPage(2);
+        int free = PageX.getFreeSpace(pg);
+        pg.release();
+        for(PageInfo pi : dm0.pIndex.pages()) {
+            if(pi.pgno == 2) assert pi.freeSpace == free;
+            if(pi.pgno == 3) assert pi.freeSpace == 0;
+        }
+        dm0.close();
+
+        new File(path + ".db").delete();
+        Logger.remove(path);
+        FreeSpaceMap.remove(path);
+    }
+
+    @Test
+    public void testInsertBatch() throws Exception {
+        String path = "/tmp/TestDMBatch";
+        TransactionManager tm0 = TransactionManager.create(path);
+        DataManager dm0 = DataManager.create(path, PageCache.PAGE_SIZE*10, tm0);
+
+        // 数据跨越多页，每页一条日志
+        List<byte[]> committed = new ArrayList<>();
+        for(int i = 0; i < 300; i ++) {
+            committed.add(RandomUtil.randomBytes(100));
+        }
+        long xid = tm0.begin();
+        List<Long> uids = dm0.insertBatch(xid, committed);
+        assert uids.size() == committed.size();
+        assert uids.stream().map(u -> u >>> 32).distinct().count() > 1;
+        for(int i = 0; i < uids.size(); i ++) {
+            DataItem di = dm0.read(uids.get(i));
+            assert Arrays.equals(di.data().toArray(), committed.get(i));
+            di.release();
+        }
+        tm0.commit(xid);
+
+        // 未提交的批量插入，页面写回后模拟崩溃
+        long active = tm0.begin();
+        List<Long> undone = dm0.insertBatch(active, Arrays.asList(RandomUtil.randomBytes(50), RandomUtil.randomBytes(50)));
+        ((DataManagerImpl)dm0).logger.close();
+        ((DataManagerImpl)dm0).pc.close();
+        tm0.close();
+
+        tm0 = TransactionManager.open(path);
+        dm0 = DataManager.open(path, PageCache.PAGE_SIZE*10, tm0);
+        for(int i = 0; i < uids.size(); i ++) {
+            DataItem di = dm0.read(uids.get(i));
+            assert Arrays.equals(di.data().toArray(), committed.get(i));
+            di.release();
+        }
+        for(long uid : undone) {
+            assert dm0.read(uid) == null;
+        }
+        dm0.close();
+        tm0.close();
+
+        new File(path + ".db").delete();
+        Logger.remove(path);
+        FreeSpaceMap.remove(path);
+        TransactionManager.remove(path);
+    }
+
+    @Test
+    public void testCheckpoint() throws Exception {
+        String path = "/tmp/TestDMCheckpoint";
+        TransactionManager tm0 = TransactionManager.create(path);
+        DataManager dm0 = DataManager.create(path, PageCache.PAGE_SIZE*10, tm0);
+
+        // 检查点前开始、崩溃时仍未提交的事务，撤销需要回到检查点之前
+        long active = tm0.begin();
+        long undone0 = dm0.insert(active, RandomUtil.randomBytes(50));
+
+        long xid = tm0.begin();
+        byte[] before = RandomUtil.randomBytes(100);
+        long uid0 = dm0.insert(xid, before);
+        tm0.commit(xid);
+        // 结束的事务不再占用活跃事务表
+        assert !((DataManagerImpl)dm0).firstLsn.containsKey(xid);
+        assert ((DataManagerImpl)dm0).firstLsn.containsKey(active);
+
+        dm0.checkpoint();
+        long checkpoint = PageOne.getCheckpoint(((DataManagerImpl)dm0).pageOne);
+        assert checkpoint != 0;
+
+        xid = tm0.begin();
+        byte[] after = RandomUtil.randomBytes(100);
+        long uid1 = dm0.insert(xid, after);
+        tm0.commit(xid);
+        long undone1 = dm0.insert(active, RandomUtil.randomBytes(50));
+
+        ((DataManagerImpl)dm0).logger.close();
+        ((DataManagerImpl)dm0).pc.close();
+        tm0.close();
+
+        tm0 = TransactionManager.open(path);
+        dm0 = DataManager.open(path, PageCache.PAGE_SIZE*10, tm0);
+        DataItem di = dm0.read(uid0);
+        assert Arrays.equals(di.data().toArray(), before);
+        di.release();
+        di = dm0.read(uid1);
+        assert Arrays.equals(di.data().toArray(), after);
+        di.release();
+        assert dm0.read(undone0) == null;
+        assert dm0.read(undone1) == null;
+        dm0.close();
+        tm0.close();
+
+        new File(path + ".db").delete();
+        Logger.remove(path);
+        FreeSpaceMap.remove(path);
+        TransactionManager.remove(path);
+    }
+
+    @Test
+    public void testAsyncCommit() throws Exception {
+        String path = "/tmp/TestDMAsync";
+        TransactionManager tm0 = TransactionManager.create(path);
+        DataManager dm0 = DataManager.create(path, PageCache.PAGE_SIZE*10, tm0);
+
+        // 落盘之后的异步提交在崩溃后仍然有效
+        long flushed = tm0.begin(true);
+        byte[] data = RandomUtil.randomBytes(100);
+        long uid0 = dm0.insert(flushed, data);
+        tm0.commit(flushed);
+        assert tm0.isCommitted(flushed);
+        tm0.flushCommits(dm0::flushLog);
+        assert !tm0.isAsync(flushed);
+
+        // 提交立即可见，但崩溃前没有落盘，恢复时被撤销
+        long lost = tm0.begin(true);
+        long uid1 = dm0.insert(lost, RandomUtil.randomBytes(100));
+        tm0.commit(lost);
+        assert tm0.isCommitted(lost);
+        assert !tm0.isActive(lost);
+
+        // 模拟崩溃，日志、页面缓存和XID文件都不关闭，缓冲区中没有落盘的提交日志丢失
+        tm0 = TransactionManager.open(path);
+        dm0 = DataManager.open(path, PageCache.PAGE_SIZE*10, tm0);
+        assert tm0.isCommitted(flushed);
+        // 修改和提交的日志一起丢失，事务没有留下需要撤销的日志
+        assert !tm0.isCommitted(lost);
+        DataItem di = dm0.read(uid0);
+        assert Arrays.equals(di.data().toArray(), data);
+        di.release();
+        assert dm0.read(uid1) == null;
+        dm0.close();
+        tm0.close();
+
+        new File(path + ".db").delete();
+        Logger.remove(path);
+        FreeSpaceMap.remove(path);
+        TransactionManager.remove(path);
+    }
+
+    @Test
+    public void testStatusLog() throws Exception {
+        String path = "/tmp/TestDMStatus";
+        TransactionManager tm0 = TransactionManager.create(path);
+        DataManager dm0 = DataManager.create(path, PageCache.PAGE_SIZE*10, tm0);
+
+        long committed = tm0.begin();
+        byte[] data = RandomUtil.randomBytes(100);
+        long uid0 = dm0.insert(committed, data);
+        tm0.commit(committed);
+        long active = tm0.begin();
+        long uid1 = dm0.insert(active, RandomUtil.randomBytes(100));
+        // 未提交事务的日志在页面写回或者之后的提交时才落盘
+        dm0.flushLog();
+
+        // 模拟崩溃并丢失没有落盘的XID文件，事务状态只能从日志重建
+        TransactionManager.remove(path);
+        TransactionManager.create(path).close();
+
+        tm0 = TransactionManager.open(path);
+        dm0 = DataManager.open(path, PageCache.PAGE_SIZE*10, tm0);
+        assert tm0.isCommitted(committed);
+        assert tm0.isAborted(active);
+        DataItem di = dm0.read(uid0);
+        assert Arrays.equals(di.data().toArray(), data);
+        di.release();
+        assert dm0.read(uid1) == null;
+        // 已经用过的XID不会再分配
+        assert tm0.begin() > active;
+        dm0.close();
+        tm0.close();
+
+        new File(path + ".db").delete();
+        Logger.remove(path);
+        FreeSpaceMap.remove(path);
+        TransactionManager.remove(path);
+    }
 }
@@ -1,6 +1,10 @@
 package top.guoziyang.mydb.backend.dm;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.locks.Lock;
@@ -51,6 +55,54 @@ public class MockDataManager implements DataManager {
         }
     }
 
+    @Override
+    public void free(long uid) throws Exception {
+        lock.lock();
+        try {
+            cache.remove(uid);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Long> insertBatch(long xid, List<byte[]> data) throws Exception {
+        List<Long> uids = new ArrayList<>();
+        for(byte[] d : data) {
+            uids.add(insert(xid, d));
+        }
+        return uids;
+    }
+
+    @Override
+    public long insertOverflow(byte[] data) throws Exception {
+        return insert(0, data);
+    }
+
+    @Override
+    public InputStream readOverflow(long pointer) {
+        lock.lock();
+        try {
+            return new ByteArrayInputStream(cache.get(pointer).data().toArray());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void freeOverflow(long pointer) throws Exception {
+        free(pointer);
+    }
+
+    @Override
+    public void prefetch(long uid) {}
+
+    @Override
+    public void checkpoint() {}
+
+    @Override
+    public void flushLog() {}
+
     @Override
     public void close() {}
     
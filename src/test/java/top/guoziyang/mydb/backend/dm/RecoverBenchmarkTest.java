@@ -0,0 +1,98 @@
+package top.guoziyang.mydb.backend.dm;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import top.guoziyang.mydb.backend.common.DBConfig;
+import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
+import top.guoziyang.mydb.backend.dm.logger.Logger;
+import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+import top.guoziyang.mydb.backend.dm.pageIndex.FreeSpaceMap;
+import top.guoziyang.mydb.backend.tm.MockTransactionManager;
+import top.guoziyang.mydb.backend.utils.RandomUtil;
+
+/**
+ * 顺序读取日志的速度，以及不同重做线程数下的恢复时间
+ * 数据文件回到刚创建时的状态，所有日志都需要重做
+ */
+public class RecoverBenchmarkTest {
+
+    static final String PATH = "/tmp/TestRecoverBench";
+    static final int INSERTS = 20000;
+    static final int UPDATES = 10000;
+    static final int DATA_LEN = 100;
+    static final long MEM = PageCache.PAGE_SIZE * 1024;
+
+    @Test
+    public void testParallelRedo() throws Exception {
+        File db = new File(PATH + ".db");
+        File snapshot = new File(PATH + ".db.snapshot");
+
+        DataManager dm = DataManager.create(PATH, MEM, new MockTransactionManager());
+        Files.copy(db.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        List<Long> uids = new ArrayList<>();
+        for(int i = 0; i < INSERTS; i ++) {
+            uids.add(dm.insert(0, RandomUtil.randomBytes(DATA_LEN)));
+        }
+        byte[][] expected = new byte[INSERTS][];
+        for(int i = 0; i < UPDATES; i ++) {
+            DataItem di = dm.read(uids.get(i));
+            di.before();
+            di.data().putBytes(0, RandomUtil.randomBytes(DATA_LEN));
+            di.after(0);
+            di.release();
+        }
+        for(int i = 0; i < INSERTS; i ++) {
+            DataItem di = dm.read(uids.get(i));
+            expected[i] = di.data().toArray();
+            di.release();
+        }
+        // 模拟崩溃，不写检查点
+        ((DataManagerImpl)dm).logger.close();
+        ((DataManagerImpl)dm).pc.close();
+
+        for(int i = 0; i < 3; i ++) {
+            Logger lg = Logger.open(PATH);
+            long start = System.nanoTime();
+            int records = 0;
+            while(lg.next() != null) {
+                records ++;
+            }
+            long elapsed = System.nanoTime() - start;
+            lg.close();
+            assert records == INSERTS + UPDATES;
+            System.out.println("Log scan: " + records + " logs, " + (records * 1_000_000_000L / elapsed) + " logs/s");
+        }
+
+        for(int workers = 1; workers <= 8; workers *= 2) {
+            Files.copy(snapshot.toPath(), db.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            long start = System.nanoTime();
+            DBConfig config = DBConfig.withMem(MEM);
+            config.recoveryWorkers = workers;
+            dm = DataManager.open(PATH, config, new MockTransactionManager());
+            long elapsed = System.nanoTime() - start;
+            System.out.println("Recovery, workers=" + workers + ": " + elapsed / 1_000_000 + " ms, "
+                + ((INSERTS + UPDATES) * 1_000_000_000L / elapsed) + " logs/s");
+
+            for(int i = 0; i < INSERTS; i += 97) {
+                DataItem di = dm.read(uids.get(i));
+                assert Arrays.equals(di.data().toArray(), expected[i]);
+                di.release();
+            }
+            // 不关闭，避免写入检查点改变日志
+            ((DataManagerImpl)dm).logger.close();
+            ((DataManagerImpl)dm).pc.close();
+        }
+
+        db.delete();
+        snapshot.delete();
+        Logger.remove(PATH);
+        FreeSpaceMap.remove(PATH);
+    }
+}
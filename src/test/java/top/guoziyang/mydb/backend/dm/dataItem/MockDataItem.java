@@ -34,12 +34,12 @@ public class MockDataItem implements DataItem {
     @Override
     public void before() {
         wLock.lock();
-        System.arraycopy(data.raw, data.start, oldData, 0, oldData.length);
+        data.copyTo(0, oldData, 0, oldData.length);
     }
 
     @Override
     public void unBefore() {
-        System.arraycopy(oldData, 0, data.raw, data.start, oldData.length);
+        data.putBytes(0, oldData);
         wLock.unlock();
     }
 
@@ -1,6 +1,10 @@
 package top.guoziyang.mydb.backend.dm.logger;
 
 import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.Test;
 
@@ -43,6 +47,86 @@ public class LoggerTest {
 
         lg.close();
 
-        assert new File("/tmp/logger_test.log").delete();
+        assert LoggerImpl.segmentFile("/tmp/logger_test", 0).delete();
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        Logger group = Logger.create("/tmp/logger_test_group", 200, LoggerImpl.DEFAULT_GROUP_SIZE);
+        int threads = 8, perThread = 200;
+        CountDownLatch cdl = new CountDownLatch(threads);
+        for(int t = 0; t < threads; t ++) {
+            final int id = t;
+            new Thread(() -> {
+                for(int i = 0; i < perThread; i ++) {
+                    group.log((id + "-" + i).getBytes());
+                }
+                cdl.countDown();
+            }).start();
+        }
+        cdl.await();
+        // 并发写入的日志合并落盘
+        GroupCommitStats stats = group.getStats();
+        assert stats.getRecords() == threads * perThread;
+        assert stats.getFlushes() < stats.getRecords();
+        group.close();
+
+        // 所有日志都已落盘，XChecksum与内容一致
+        Logger lg = Logger.open("/tmp/logger_test_group");
+        lg.rewind();
+        Set<String> logs = new HashSet<>();
+        byte[] log;
+        while((log = lg.next()) != null) {
+            logs.add(new String(log));
+        }
+        lg.close();
+        assert logs.size() == threads * perThread;
+        for(int t = 0; t < threads; t ++) {
+            for(int i = 0; i < perThread; i ++) {
+                assert logs.contains(t + "-" + i);
+            }
+        }
+
+        assert LoggerImpl.segmentFile("/tmp/logger_test_group", 0).delete();
+    }
+
+    @Test
+    public void testSegments() throws Exception {
+        String path = "/tmp/logger_test_segments";
+        Logger lg = Logger.create(path, 256, LoggerImpl.DEFAULT_GROUP_WINDOW, LoggerImpl.DEFAULT_GROUP_SIZE);
+        for(int i = 0; i < 100; i ++) {
+            lg.log(("log-" + i).getBytes());
+        }
+        lg.close();
+        int segments = LoggerImpl.listSegments(path).size();
+        assert segments > 1;
+
+        // 最后一段末尾写入不完整的日志，打开时被移除
+        File tail = LoggerImpl.segmentFile(path, segments - 1);
+        long tailLength = tail.length();
+        try(RandomAccessFile raf = new RandomAccessFile(tail, "rw")) {
+            raf.seek(tailLength);
+            raf.write(new byte[] {0, 0, 0, 20, 1, 2, 3, 4, 5});
+        }
+        lg = Logger.open(path, 256, LoggerImpl.DEFAULT_GROUP_WINDOW, LoggerImpl.DEFAULT_GROUP_SIZE);
+        assert tail.length() == tailLength;
+        lg.log("log-100".getBytes());
+
+        lg.rewind();
+        for(int i = 0; i <= 100; i ++) {
+            assert ("log-" + i).equals(new String(lg.next()));
+        }
+        assert lg.next() == null;
+
+        // 删除旧段后从剩下的第一段开始读
+        lg.removeBefore((long)(segments - 1) << 32);
+        assert LoggerImpl.listSegments(path).get(0) == segments - 1;
+        lg.rewind();
+        byte[] log = lg.next();
+        assert log != null && new String(log).startsWith("log-");
+        lg.close();
+
+        Logger.remove(path);
+        assert LoggerImpl.listSegments(path).isEmpty();
     }
 }
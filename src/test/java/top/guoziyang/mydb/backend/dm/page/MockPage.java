@@ -3,16 +3,18 @@ package top.guoziyang.mydb.backend.dm.page;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import top.guoziyang.mydb.backend.common.SubArray;
+
 public class MockPage implements Page {
 
     private int pgno;
-    private byte[] data;
+    private SubArray data;
     private Lock lock = new ReentrantLock();
 
     public static MockPage newMockPage(int pgno, byte[] data) {
         MockPage mp = new MockPage();
         mp.pgno = pgno;
-        mp.data = data;
+        mp.data = new SubArray(data, 0, data.length);
         return mp;
     }
 
@@ -37,13 +39,18 @@ public class MockPage implements Page {
         return false;
     }
 
+    @Override
+    public long getRecLsn() {
+        return 0;
+    }
+
     @Override
     public int getPageNumber() {
         return pgno;
     }
 
     @Override
-    public byte[] getData() {
+    public SubArray getData() {
         return data;
     }
     
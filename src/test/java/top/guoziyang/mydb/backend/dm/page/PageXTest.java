@@ -0,0 +1,151 @@
+package top.guoziyang.mydb.backend.dm.page;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
+import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+import top.guoziyang.mydb.backend.utils.RandomUtil;
+
+public class PageXTest {
+
+    private byte[] itemAt(Page pg, short slot, int length) {
+        short offset = PageX.getOffset(pg, slot);
+        return pg.getData().getBytes(offset, offset + length);
+    }
+
+    @Test
+    public void testSlots() {
+        Page pg = MockPage.newMockPage(2, PageX.initRaw());
+        int free = PageX.getFreeSpace(pg);
+        byte[] raw = DataItem.wrapDataItemRaw(RandomUtil.randomBytes(100));
+        for(int i = 0; i < 10; i ++) {
+            assert PageX.insert(pg, raw) == i;
+        }
+        // 每个数据项额外占用一个槽
+        assert PageX.getFreeSpace(pg) == free - 10 * (raw.length + PageX.SLOT_SIZE);
+        for(short i = 0; i < 10; i ++) {
+            assert Arrays.equals(itemAt(pg, i, raw.length), raw);
+        }
+        assert PageX.getOffset(pg, (short)10) == 0;
+    }
+
+    @Test
+    public void testCompact() {
+        Page pg = MockPage.newMockPage(2, PageX.initRaw());
+        byte[][] raws = new byte[20][];
+        for(int i = 0; i < 20; i ++) {
+            raws[i] = DataItem.wrapDataItemRaw(RandomUtil.randomBytes(50 + i));
+            PageX.insert(pg, raws[i]);
+        }
+        int free = PageX.getFreeSpace(pg);
+
+        // 偶数槽的数据项无效
+        int dead = 0;
+        for(short i = 0; i < 20; i += 2) {
+            assert PageX.recoverInvalidate(pg, i);
+            dead += raws[i].length;
+        }
+        assert PageX.getDeadSpace(pg) == dead;
+
+        assert PageX.compact(pg) == dead;
+        assert PageX.getFreeSpace(pg) == free + dead;
+        assert PageX.getDeadSpace(pg) == 0;
+
+        // 有效数据项移动后仍能通过原来的槽找到，回收的槽清零
+        for(short i = 0; i < 20; i ++) {
+            if(i % 2 == 0) {
+                assert PageX.getOffset(pg, i) == 0;
+                assert PageX.hasSlot(pg, i);
+            } else {
+                assert Arrays.equals(itemAt(pg, i, raws[i].length), raws[i]);
+            }
+        }
+
+        // 新插入的数据项复用清零的槽和回收出来的空间
+        byte[] raw = DataItem.wrapDataItemRaw(RandomUtil.randomBytes(PageCache.PAGE_SIZE / 2));
+        assert PageX.insert(pg, raw) == 0;
+        assert Arrays.equals(itemAt(pg, (short)0, raw.length), raw);
+        assert PageX.insert(pg, raws[2]) == 2;
+
+        // 末尾的空槽在整理时截去，连同数据项一起计入回收的字节数
+        assert PageX.recoverInvalidate(pg, (short)19);
+        assert PageX.compact(pg) == raws[19].length + 2 * PageX.SLOT_SIZE;
+        assert !PageX.hasSlot(pg, (short)18);
+        assert PageX.hasSlot(pg, (short)17);
+    }
+
+    @Test
+    public void testChurn() {
+        Page pg = MockPage.newMockPage(2, PageX.initRaw());
+        short[] slots = new short[10];
+        for(int i = 0; i < slots.length; i ++) {
+            slots[i] = PageX.insert(pg, DataItem.wrapDataItemRaw(RandomUtil.randomBytes(100)));
+        }
+        int free = PageX.getFreeSpace(pg);
+
+        // 反复更新：插入新版本，旧版本失效后被整理回收，槽目录和空闲空间保持稳定
+        for(int round = 0; round < 10000; round ++) {
+            int i = round % slots.length;
+            short slot = PageX.insert(pg, DataItem.wrapDataItemRaw(RandomUtil.randomBytes(100)));
+            assert PageX.recoverInvalidate(pg, slots[i]);
+            slots[i] = slot;
+            if(PageX.getDeadSpace(pg) >= PageX.COMPACT_THRESHOLD) {
+                PageX.compact(pg);
+            }
+        }
+        PageX.compact(pg);
+        assert PageX.getFreeSpace(pg) >= free - 2 * slots.length * PageX.SLOT_SIZE;
+        for(short slot : slots) {
+            assert slot < 2 * slots.length;
+        }
+    }
+
+    @Test
+    public void testLogBeforeInsert() {
+        Page pg = MockPage.newMockPage(2, PageX.initRaw());
+        PageX.insert(pg, DataItem.wrapDataItemRaw(RandomUtil.randomBytes(10)));
+        byte[] before = pg.getData().toArray();
+        List<byte[]> raws = List.of(DataItem.wrapDataItemRaw(RandomUtil.randomBytes(20)),
+            DataItem.wrapDataItemRaw(RandomUtil.randomBytes(30)));
+
+        // 写日志时已经分配好槽和位置，页面还没有被修改
+        short[] slots = PageX.insertBatch(pg, raws, (s, offsets) -> {
+            assert Arrays.equals(pg.getData().toArray(), before);
+            assert s[0] == 1 && s[1] == 2;
+            assert offsets[1] == offsets[0] + raws.get(0).length;
+            return 7;
+        });
+        assert PageX.getPageLsn(pg) == 7;
+        for(int i = 0; i < slots.length; i ++) {
+            assert Arrays.equals(itemAt(pg, slots[i], raws.get(i).length), raws.get(i));
+        }
+    }
+
+    @Test
+    public void testPageLsn() {
+        Page pg = MockPage.newMockPage(2, PageX.initRaw());
+        assert PageX.getPageLsn(pg) == -1;
+        assert !PageX.isApplied(pg, 0);
+
+        // 只保留最大的LSN
+        PageX.setPageLsn(pg, 100);
+        PageX.setPageLsn(pg, 50);
+        assert PageX.getPageLsn(pg) == 100;
+        assert PageX.isApplied(pg, 50);
+        assert PageX.isApplied(pg, 100);
+        assert !PageX.isApplied(pg, 101);
+
+        // 整理页面不改变PageLSN
+        short slot = PageX.insert(pg, DataItem.wrapDataItemRaw(RandomUtil.randomBytes(PageX.COMPACT_THRESHOLD)));
+        PageX.recoverInvalidate(pg, slot);
+        PageX.compact(pg);
+        assert PageX.getPageLsn(pg) == 100;
+
+        // 未初始化的页面没有PageLSN
+        Page empty = MockPage.newMockPage(3, new byte[PageCache.PAGE_SIZE]);
+        assert !PageX.isApplied(empty, 0);
+    }
+}
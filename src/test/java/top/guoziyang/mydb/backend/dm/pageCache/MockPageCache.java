@@ -5,6 +5,8 @@ import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.ToIntFunction;
 
 import top.guoziyang.mydb.backend.dm.page.MockPage;
 import top.guoziyang.mydb.backend.dm.page.Page;
@@ -54,5 +56,34 @@ public class MockPageCache implements PageCache {
 
     @Override
     public void flushPage(Page pg) {}
+
+    @Override
+    public void checkpoint() {}
+
+    @Override
+    public void prefetch(int pgno, int count) {}
+
+    @Override
+    public int runExclusive(Page pg, ToIntFunction<Page> action) {
+        return action.applyAsInt(pg);
+    }
+
+    @Override
+    public void setLsnSource(LongSupplier lsnSource) {}
+
+    @Override
+    public long currentLsn() {
+        return 0;
+    }
+
+    @Override
+    public boolean setLogFlusher(Runnable logFlusher) {
+        return false;
+    }
+
+    @Override
+    public Map<Integer, Long> dirtyPageTable() {
+        return new HashMap<>();
+    }
     
 }
@@ -0,0 +1,72 @@
+package top.guoziyang.mydb.backend.dm.pageCache;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import top.guoziyang.mydb.backend.dm.page.Page;
+import top.guoziyang.mydb.backend.utils.Panic;
+
+/**
+ * 缺页吞吐随线程数的变化
+ * 页面数远大于缓存容量，几乎每次getPage都要读盘，读盘按位置进行，不再串行在同一把锁上
+ */
+public class PageCacheBenchmarkTest {
+
+    static final int PAGES = 2048;
+    static final int MEM = PageCache.PAGE_SIZE * 32;
+    static final long DURATION = 300;
+
+    @Test
+    public void testMissThroughput() throws Exception {
+        String path = "/tmp/pcacher_bench_test0";
+        PageCache pc = PageCache.create(path, MEM);
+        for(int i = 0; i < PAGES; i ++) {
+            byte[] tmp = new byte[PageCache.PAGE_SIZE];
+            tmp[0] = (byte)i;
+            pc.newPage(tmp);
+        }
+        pc.close();
+
+        for(int threads = 1; threads <= 8; threads *= 2) {
+            pc = PageCache.open(path, MEM);
+            long ops = run(pc, threads);
+            pc.close();
+            System.out.println("PageCache miss throughput, threads=" + threads + ": " + (ops * 1000 / DURATION) + " pages/s");
+        }
+
+        assert new File(path + ".db").delete();
+    }
+
+    private long run(PageCache pc, int threads) throws Exception {
+        AtomicLong ops = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        long deadline = System.currentTimeMillis() + DURATION;
+        for(int t = 0; t < threads; t ++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while(System.currentTimeMillis() < deadline) {
+                        int pgno = random.nextInt(PAGES) + 1;
+                        Page pg = pc.getPage(pgno);
+                        assert pg.getData().get(0) == (byte)(pgno-1);
+                        pg.release();
+                        ops.incrementAndGet();
+                    }
+                } catch(Exception e) {
+                    Panic.panic(e);
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+        return ops.get();
+    }
+}
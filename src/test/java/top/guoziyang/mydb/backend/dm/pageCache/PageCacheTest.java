@@ -11,6 +11,7 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import org.junit.Test;
 
+import top.guoziyang.mydb.backend.common.EvictionPolicy;
 import top.guoziyang.mydb.backend.dm.page.Page;
 import top.guoziyang.mydb.backend.utils.Panic;
 import top.guoziyang.mydb.backend.utils.RandomUtil;
@@ -35,7 +36,7 @@ public class PageCacheTest {
         pc = PageCache.open("/tmp/pcacher_simple_test0", PageCache.PAGE_SIZE * 50);
         for(int i = 1; i <= 100; i ++) {
             Page pg = pc.getPage(i);
-            assert pg.getData()[0] == (byte)i-1;
+            assert pg.getData().get(0) == (byte)i-1;
             pg.release();
         }
         pc.close();
@@ -43,6 +44,163 @@ public class PageCacheTest {
         assert new File("/tmp/pcacher_simple_test0.db").delete();
     }
 
+    @Test
+    public void testMappedPageCache() throws Exception {
+        PageCache pc = PageCache.create("/tmp/pcacher_mmap_test0", PageCache.PAGE_SIZE * 50);
+        pc.close();
+
+        pc = PageCache.open("/tmp/pcacher_mmap_test0", PageCache.PAGE_SIZE * 50, EvictionPolicy.CLOCK, true);
+        for(int i = 0 ; i < 100; i ++) {
+            byte[] tmp = new byte[PageCache.PAGE_SIZE];
+            tmp[0] = (byte)i;
+            int pgno = pc.newPage(tmp);
+            Page pg = pc.getPage(pgno);
+            pg.getData().put(1, (byte)i);
+            pg.setDirty(true);
+            pg.release();
+        }
+        pc.close();
+        // 映射期间不截断文件，文件停留在映射段的长度
+        assert new File("/tmp/pcacher_mmap_test0.db").length() == MappedPageCacheImpl.SEGMENT_SIZE;
+
+        pc = PageCache.open("/tmp/pcacher_mmap_test0", PageCache.PAGE_SIZE * 50, EvictionPolicy.CLOCK, true);
+        assert pc.getPageNumber() == 100;
+        for(int i = 1; i <= 100; i ++) {
+            Page pg = pc.getPage(i);
+            assert pg.getData().get(0) == (byte)i-1;
+            assert pg.getData().get(1) == (byte)i-1;
+            pg.release();
+        }
+
+        // 不关闭，模拟崩溃后重新打开：文件停留在映射段的长度，尾部全0的页面不计入页数
+        pc.newPage(new byte[PageCache.PAGE_SIZE]);
+        assert new File("/tmp/pcacher_mmap_test0.db").length() == MappedPageCacheImpl.SEGMENT_SIZE;
+        PageCache pc2 = PageCache.open("/tmp/pcacher_mmap_test0", PageCache.PAGE_SIZE * 50, EvictionPolicy.CLOCK, true);
+        assert pc2.getPageNumber() == 100;
+
+        // 回退的页面被清零，重新打开时不再计入页数
+        pc2.truncateByBgno(50);
+        pc2.close();
+        assert new File("/tmp/pcacher_mmap_test0.db").length() == MappedPageCacheImpl.SEGMENT_SIZE;
+        pc2 = PageCache.open("/tmp/pcacher_mmap_test0", PageCache.PAGE_SIZE * 50, EvictionPolicy.CLOCK, true);
+        assert pc2.getPageNumber() == 50;
+        pc2.close();
+        pc.close();
+
+        assert new File("/tmp/pcacher_mmap_test0.db").delete();
+    }
+
+    @Test
+    public void testCheckpoint() throws Exception {
+        PageCache pc = PageCache.create("/tmp/pcacher_ckpt_test0", PageCache.PAGE_SIZE * 50);
+        for(int i = 0; i < 40; i ++) {
+            byte[] tmp = new byte[PageCache.PAGE_SIZE];
+            tmp[1] = 1;
+            pc.newPage(tmp);
+        }
+        pc.close();
+
+        PageCacheImpl pci = PageCache.open("/tmp/pcacher_ckpt_test0", PageCache.PAGE_SIZE * 50, EvictionPolicy.CLOCK, 100);
+        for(int i = 1; i <= 40; i ++) {
+            Page pg = pci.getPage(i);
+            pg.getData().put(0, (byte)i);
+            pg.setDirty(true);
+            pg.release();
+        }
+        Page pinned = pci.getPage(20);
+        pinned.getData().put(1, (byte)1);
+        pinned.setDirty(true);
+        pci.checkpoint();
+        FlushStats stats = pci.getFlushStats();
+        // 被引用的页面不写回，其余页面按连续区间合并写入
+        assert stats.getPagesWritten() == 39;
+        assert stats.getRuns() < stats.getPagesWritten();
+        assert stats.getForces() == 1;
+        assert pinned.isDirty();
+        pinned.release();
+        pci.close();
+
+        pc = PageCache.open("/tmp/pcacher_ckpt_test0", PageCache.PAGE_SIZE * 50);
+        for(int i = 1; i <= 40; i ++) {
+            Page pg = pc.getPage(i);
+            assert pg.getData().get(0) == (byte)i;
+            pg.release();
+        }
+        pc.close();
+
+        assert new File("/tmp/pcacher_ckpt_test0.db").delete();
+    }
+
+    @Test
+    public void testExtentAllocation() throws Exception {
+        File f = new File("/tmp/pcacher_extent_test0.db");
+        PageCache pc = PageCache.create("/tmp/pcacher_extent_test0", PageCache.PAGE_SIZE * 50);
+        for(int i = 0; i < 10; i ++) {
+            byte[] tmp = new byte[PageCache.PAGE_SIZE];
+            tmp[0] = (byte)(i+1);
+            pc.newPage(tmp);
+        }
+        // 文件一次扩展一个扩展区
+        assert f.length() == (long)PageCacheImpl.EXTENT_PAGES * PageCache.PAGE_SIZE;
+        byte[] last = new byte[PageCache.PAGE_SIZE];
+        last[0] = 11;
+        pc.newPage(last);
+        pc.close();
+        // 关闭时截掉未使用的部分
+        assert f.length() == 11L * PageCache.PAGE_SIZE;
+
+        pc = PageCache.open("/tmp/pcacher_extent_test0", PageCache.PAGE_SIZE * 50);
+        assert pc.getPageNumber() == 11;
+        // 预分配后没有写入内容的页面
+        pc.newPage(new byte[PageCache.PAGE_SIZE]);
+        // 不关闭，模拟崩溃后重新打开：尾部全0的页面不计入页数
+        PageCache pc2 = PageCache.open("/tmp/pcacher_extent_test0", PageCache.PAGE_SIZE * 50);
+        assert pc2.getPageNumber() == 11;
+        Page pg = pc2.getPage(11);
+        assert pg.getData().get(0) == (byte)11;
+        pg.release();
+        pc2.close();
+
+        assert f.delete();
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        PageCache pc = PageCache.create("/tmp/pcacher_prefetch_test0", PageCache.PAGE_SIZE * 50);
+        for(int i = 0; i < 100; i ++) {
+            byte[] tmp = new byte[PageCache.PAGE_SIZE];
+            tmp[0] = (byte)i;
+            tmp[PageCache.PAGE_SIZE-1] = (byte)i;
+            pc.newPage(tmp);
+        }
+        pc.close();
+
+        PageCacheImpl pci = PageCache.open("/tmp/pcacher_prefetch_test0", PageCache.PAGE_SIZE * 50);
+        // 显式提示
+        pci.prefetch(1, 8);
+        for(int i = 0; i < 100 && pci.getPrefetchedPages() < 8; i ++) {
+            Thread.sleep(10);
+        }
+        assert pci.getPrefetchedPages() == 8;
+        for(int i = 1; i <= 8; i ++) {
+            Page pg = pci.getPage(i);
+            assert pg.getData().get(0) == (byte)(i-1);
+            assert pg.getData().get(PageCache.PAGE_SIZE-1) == (byte)(i-1);
+            pg.release();
+        }
+        // 顺序扫描触发预读，预读与同步读得到的页面一致
+        for(int i = 20; i <= 100; i ++) {
+            Page pg = pci.getPage(i);
+            assert pg.getData().get(0) == (byte)(i-1);
+            assert pg.getData().get(PageCache.PAGE_SIZE-1) == (byte)(i-1);
+            pg.release();
+        }
+        assert pci.getPrefetchedPages() > 8;
+        pci.close();
+
+        assert new File("/tmp/pcacher_prefetch_test0.db").delete();
+    }
+
     private PageCache pc1;
     private CountDownLatch cdl1;
     private AtomicInteger noPages1;
@@ -145,7 +303,7 @@ public class PageCacheTest {
                     Panic.panic(e);
                 }
                 pg.lock();
-                assert Arrays.equals(mpg.getData(), pg.getData());
+                assert Arrays.equals(mpg.getData().toArray(), pg.getData().toArray());
                 pg.unlock();
                 pg.release();
             } else {
@@ -168,13 +326,9 @@ public class PageCacheTest {
                 
                 pg.lock();
                 mpg.setDirty(true);
-                for(int j = 0; j < PageCache.PAGE_SIZE; j ++) {
-                    mpg.getData()[j] = newData[j];
-                }
+                mpg.getData().putBytes(0, newData);
                 pg.setDirty(true);
-                for(int j = 0; j < PageCache.PAGE_SIZE; j ++) {
-                    pg.getData()[j] = newData[j];
-                }
+                pg.getData().putBytes(0, newData);
                 pg.unlock();
                 pg.release();
             }
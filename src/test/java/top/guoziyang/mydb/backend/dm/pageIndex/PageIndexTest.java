@@ -1,8 +1,17 @@
 package top.guoziyang.mydb.backend.dm.pageIndex;
 
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Test;
 
 import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+import top.guoziyang.mydb.backend.utils.RandomUtil;
 
 public class PageIndexTest {
     @Test
@@ -11,16 +20,131 @@ public class PageIndexTest {
         int threshold = PageCache.PAGE_SIZE / 20;
         for(int i = 0; i < 20; i ++) {
             pIndex.add(i, i*threshold);
-            pIndex.add(i, i*threshold);
-            pIndex.add(i, i*threshold);
         }
 
-        for(int k = 0; k < 3; k ++) {
-            for(int i = 0; i < 19; i ++) {
-                PageInfo pi = pIndex.select(i * threshold);
-                assert pi != null;
-                assert pi.pgno == i+1;
+        // 预留空间后页面仍在索引中，剩余的空间可以继续被选中
+        for(int i = 18; i >= 0; i --) {
+            PageInfo pi = pIndex.select(i * threshold);
+            assert pi != null;
+            assert pi.pgno == i+1;
+            assert pi.freeSpace == threshold;
+        }
+        assert pIndex.pages().size() == 20;
+    }
+
+    @Test
+    public void testConcurrentReserve() throws Exception {
+        PageIndex pIndex = new PageIndex();
+        pIndex.add(1, PageCache.PAGE_SIZE - 2);
+        int size = 100, workers = 8;
+        Set<Integer> remains = ConcurrentHashMap.newKeySet();
+        AtomicInteger failed = new AtomicInteger(0);
+        CountDownLatch cdl = new CountDownLatch(workers);
+        for(int w = 0; w < workers; w ++) {
+            new Thread(() -> {
+                for(int i = 0; i < 20; i ++) {
+                    PageInfo pi = pIndex.select(size);
+                    if(pi == null) {
+                        failed.incrementAndGet();
+                        continue;
+                    }
+                    assert pi.pgno == 1;
+                    assert remains.add(pi.freeSpace);
+                }
+                cdl.countDown();
+            }).start();
+        }
+        cdl.await();
+        // 多个线程在同一页上预留到的空间互不重叠且连续，直到空间用完
+        assert remains.size() + failed.get() == workers * 20;
+        assert remains.size() >= (PageCache.PAGE_SIZE - 2) / size - 2;
+        for(int remain : remains) {
+            assert (PageCache.PAGE_SIZE - 2 - remain) % size == 0;
+            assert PageCache.PAGE_SIZE - 2 - remain <= remains.size() * size;
+        }
+    }
+
+    @Test
+    public void testReclaim() {
+        PageIndex pIndex = new PageIndex();
+        pIndex.add(1, 100);
+        assert pIndex.select(1000) == null;
+
+        // 页面整理归还的空间可以再次被选中
+        pIndex.reclaim(1, 2000);
+        PageInfo pi = pIndex.select(1000);
+        assert pi != null;
+        assert pi.pgno == 1;
+        assert pi.freeSpace == 1100;
+
+        // 不在索引中的页面忽略
+        pIndex.reclaim(2, 2000);
+        assert pIndex.pages().size() == 1;
+    }
+
+    @Test
+    public void testChurn() {
+        PageIndex pIndex = new PageIndex();
+        for(int pgno = 1; pgno <= 10; pgno ++) {
+            pIndex.add(pgno, PageCache.PAGE_SIZE - 2);
+        }
+        // 反复填满再整理回收，每个页面在每个队列中最多留下一个元素，填满的页面不进入第0个队列
+        for(int round = 0; round < 1000; round ++) {
+            PageInfo pi;
+            while((pi = pIndex.select(1000)) != null) {
+                pIndex.reserve(pi.pgno, pi.freeSpace);
             }
+            for(int pgno = 1; pgno <= 10; pgno ++) {
+                pIndex.reclaim(pgno, PageCache.PAGE_SIZE - 2);
+                pIndex.add(pgno, PageCache.PAGE_SIZE - 2);
+            }
+        }
+        assert pIndex.lists[0].isEmpty();
+        int queued = 0;
+        for(Queue<PageIndex.Entry> list : pIndex.lists) {
+            queued += list.size();
         }
+        assert queued <= 10 * pIndex.lists.length;
+    }
+
+    @Test
+    public void testFreeSpaceMap() throws Exception {
+        String path = "/tmp/fsm_test0";
+        PageIndex pIndex = new PageIndex();
+        for(int i = 2; i <= 100; i ++) {
+            pIndex.add(i, i * 50);
+        }
+        byte[] vc = RandomUtil.randomBytes(8);
+        FreeSpaceMap.save(path, vc, 1234, 100, pIndex);
+
+        FreeSpaceMap fsm = FreeSpaceMap.read(path);
+        assert fsm.savedOnClose(vc);
+        assert !fsm.savedOnClose(RandomUtil.randomBytes(8));
+        assert fsm.getLsn() == 1234;
+        PageIndex loaded = new PageIndex();
+        assert fsm.load(loaded, 100) == 100;
+        assert loaded.pages().size() == 99;
+        for(PageInfo pi : loaded.pages()) {
+            assert pi.freeSpace == pi.pgno * 50;
+        }
+
+        // 页数变化时只载入两者都有的页面
+        PageIndex fewer = new PageIndex();
+        assert fsm.load(fewer, 50) == 50;
+        assert fewer.pages().size() == 49;
+        assert fsm.load(new PageIndex(), 101) == 100;
+
+        // 检查点时保存的文件不算正常关闭
+        FreeSpaceMap.save(path, null, 1234, 100, pIndex);
+        assert !FreeSpaceMap.read(path).savedOnClose(vc);
+
+        // 内容损坏时不使用
+        try(RandomAccessFile raf = new RandomAccessFile(path + FreeSpaceMap.FSM_SUFFIX, "rw")) {
+            raf.seek(30);
+            raf.write(0x7f);
+        }
+        assert FreeSpaceMap.read(path) == null;
+
+        assert new File(path + FreeSpaceMap.FSM_SUFFIX).delete();
     }
 }
@@ -6,6 +6,7 @@ import java.util.List;
 import org.junit.Test;
 
 import top.guoziyang.mydb.backend.dm.DataManager;
+import top.guoziyang.mydb.backend.dm.logger.Logger;
 import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
 import top.guoziyang.mydb.backend.tm.MockTransactionManager;
 import top.guoziyang.mydb.backend.tm.TransactionManager;
@@ -31,6 +32,40 @@ public class BPlusTreeTest {
         }
 
         assert new File("/tmp/TestTreeSingle.db").delete();
-        assert new File("/tmp/TestTreeSingle.log").delete();
+        Logger.remove("/tmp/TestTreeSingle");
+    }
+
+    @Test
+    public void testTreeDelete() throws Exception {
+        TransactionManager tm = new MockTransactionManager();
+        DataManager dm = DataManager.create("/tmp/TestTreeDelete", PageCache.PAGE_SIZE*10, tm);
+
+        long root = BPlusTree.create(dm);
+        BPlusTree tree = BPlusTree.load(root, dm);
+
+        // 每个键对应两个uid，相同的键会被分裂到不同的叶子中
+        int lim = 2000;
+        for(int i = 0; i < lim; i ++) {
+            tree.insert(i / 2, i);
+        }
+        for(int i = 0; i < lim; i += 2) {
+            assert tree.delete(i / 2, i);
+        }
+        assert !tree.delete(0, 0);
+        assert !tree.delete(lim, lim);
+
+        for(int k = 0; k < lim / 2; k ++) {
+            List<Long> uids = tree.search(k);
+            assert uids.size() == 1;
+            assert uids.get(0) == k * 2 + 1;
+        }
+        assert tree.searchRange(0, Long.MAX_VALUE).size() == lim / 2;
+
+        // 删除之后仍然可以插入
+        tree.insert(5, lim);
+        assert tree.search(5).size() == 2;
+
+        assert new File("/tmp/TestTreeDelete.db").delete();
+        Logger.remove("/tmp/TestTreeDelete");
     }
 }
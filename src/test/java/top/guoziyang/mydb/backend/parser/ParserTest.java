@@ -45,6 +45,19 @@ public class ParserTest {
         res = Parser.Parse(stat.getBytes());
         begin = (Begin)res;
         assert begin.isRepeatableRead;
+        assert !begin.isAsync;
+
+        stat = "begin async";
+        res = Parser.Parse(stat.getBytes());
+        begin = (Begin)res;
+        assert !begin.isRepeatableRead;
+        assert begin.isAsync;
+
+        stat = "begin isolation level repeatable read async";
+        res = Parser.Parse(stat.getBytes());
+        begin = (Begin)res;
+        assert begin.isRepeatableRead;
+        assert begin.isAsync;
     }
 
     @Test
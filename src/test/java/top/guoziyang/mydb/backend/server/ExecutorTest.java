@@ -6,6 +6,8 @@ import java.util.concurrent.CountDownLatch;
 import org.junit.Test;
 
 import top.guoziyang.mydb.backend.dm.DataManager;
+import top.guoziyang.mydb.backend.dm.logger.Logger;
+import top.guoziyang.mydb.backend.dm.pageIndex.FreeSpaceMap;
 import top.guoziyang.mydb.backend.tbm.TableManager;
 import top.guoziyang.mydb.backend.tm.TransactionManager;
 import top.guoziyang.mydb.backend.vm.VersionManager;
@@ -40,8 +42,9 @@ public class ExecutorTest {
         testInsert(exe, 10000, 1);
         new File(path + ".db").delete();
         new File(path + ".bt").delete();
-        new File(path + ".log").delete();
-        new File(path + ".xid").delete();
+        Logger.remove(path);
+        TransactionManager.remove(path);
+        FreeSpaceMap.remove(path);
     }
 
     private void testMultiInsert(int total, int noWorkers) throws Exception {
@@ -72,7 +75,8 @@ public class ExecutorTest {
         testMultiInsert(10000, 4);
         new File(path + ".db").delete();
         new File(path + ".bt").delete();
-        new File(path + ".log").delete();
-        new File(path + ".xid").delete();
+        Logger.remove(path);
+        TransactionManager.remove(path);
+        FreeSpaceMap.remove(path);
     }
 }
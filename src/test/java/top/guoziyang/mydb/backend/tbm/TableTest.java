@@ -0,0 +1,100 @@
+package top.guoziyang.mydb.backend.tbm;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import top.guoziyang.mydb.backend.dm.DataManager;
+import top.guoziyang.mydb.backend.dm.logger.Logger;
+import top.guoziyang.mydb.backend.dm.pageIndex.FreeSpaceMap;
+import top.guoziyang.mydb.backend.parser.Parser;
+import top.guoziyang.mydb.backend.parser.statement.Begin;
+import top.guoziyang.mydb.backend.parser.statement.Create;
+import top.guoziyang.mydb.backend.parser.statement.Insert;
+import top.guoziyang.mydb.backend.parser.statement.Select;
+import top.guoziyang.mydb.backend.parser.statement.Update;
+import top.guoziyang.mydb.backend.tm.TransactionManager;
+import top.guoziyang.mydb.backend.vm.VersionManager;
+import top.guoziyang.mydb.common.Error;
+
+public class TableTest {
+    String path = "/tmp/TestTable";
+    long mem = (1 << 20) * 64;
+
+    private String select(TableManager tbm, long xid, String stat) throws Exception {
+        return new String(tbm.read(xid, (Select)Parser.Parse(stat.getBytes())));
+    }
+
+    @Test
+    public void testLargeString() throws Exception {
+        TransactionManager tm = TransactionManager.create(path);
+        DataManager dm = DataManager.create(path, mem, tm);
+        VersionManager vm = VersionManager.newVersionManager(tm, dm);
+        TableManager tbm = TableManager.create(path, vm, dm);
+
+        long xid = tbm.begin(new Begin()).xid;
+        tbm.create(xid, (Create)Parser.Parse("create table t id int32, body string, tag string (index id tag)".getBytes()));
+
+        // 比一页还大的字符串存放在溢出页中
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < 3000; i ++) {
+            sb.append(i % 10);
+        }
+        String body = sb.toString() + sb.toString() + sb.toString();
+        Insert insert = new Insert();
+        insert.tableName = "t";
+        insert.values = new String[] {"1", body, "small"};
+        tbm.insert(xid, insert);
+        tbm.commit(xid);
+
+        xid = tbm.begin(new Begin()).xid;
+        assert select(tbm, xid, "select * from t where id = 1").equals("[1, " + body + ", small]\n");
+        assert select(tbm, xid, "select id, tag from t where id = 1").equals("[1, small]\n");
+        tbm.update(xid, (Update)Parser.Parse("update t set tag = big where id = 1".getBytes()));
+        tbm.commit(xid);
+
+        // 回收旧版本时一并回收它的溢出页，新版本有自己的溢出页
+        new Vacuum(tbm, 100, 0).runPass();
+        xid = tbm.begin(new Begin()).xid;
+        assert select(tbm, xid, "select * from t where id = 1").equals("[1, " + body + ", big]\n");
+        tbm.commit(xid);
+
+        dm.close();
+        tm.close();
+        new File(path + ".db").delete();
+        Logger.remove(path);
+        TransactionManager.remove(path);
+        new File(path + ".bt").delete();
+        FreeSpaceMap.remove(path);
+    }
+
+    @Test
+    public void testNoIndex() throws Exception {
+        TransactionManager tm = TransactionManager.create(path);
+        DataManager dm = DataManager.create(path, mem, tm);
+        VersionManager vm = VersionManager.newVersionManager(tm, dm);
+        TableManager tbm = TableManager.create(path, vm, dm);
+
+        // 没有索引的表中的版本既查不到也无法被回收和冻结
+        long xid = tbm.begin(new Begin()).xid;
+        for(String stat : new String[] {"create table t id int32 (index)", "create table t id int32 (index v)"}) {
+            try {
+                tbm.create(xid, (Create)Parser.Parse(stat.getBytes()));
+                assert false;
+            } catch(Exception e) {
+                assert e == Error.TableNoIndexException;
+            }
+        }
+        tbm.create(xid, (Create)Parser.Parse("create table t id int32 (index id)".getBytes()));
+        tbm.commit(xid);
+        assert ((TableManagerImpl)tbm).tables().size() == 1;
+
+        dm.close();
+        tm.close();
+        new File(path + ".db").delete();
+        Logger.remove(path);
+        TransactionManager.remove(path);
+        new File(path + ".bt").delete();
+        FreeSpaceMap.remove(path);
+    }
+}
@@ -0,0 +1,190 @@
+package top.guoziyang.mydb.backend.tbm;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import top.guoziyang.mydb.backend.dm.DataManager;
+import top.guoziyang.mydb.backend.dm.logger.Logger;
+import top.guoziyang.mydb.backend.dm.pageIndex.FreeSpaceMap;
+import top.guoziyang.mydb.backend.parser.Parser;
+import top.guoziyang.mydb.backend.parser.statement.Begin;
+import top.guoziyang.mydb.backend.parser.statement.Create;
+import top.guoziyang.mydb.backend.parser.statement.Insert;
+import top.guoziyang.mydb.backend.parser.statement.Select;
+import top.guoziyang.mydb.backend.parser.statement.Update;
+import top.guoziyang.mydb.backend.tm.TransactionManager;
+import top.guoziyang.mydb.backend.tm.TransactionManagerImpl;
+import top.guoziyang.mydb.backend.vm.VersionManager;
+
+public class VacuumTest {
+    String path = "/tmp/TestVacuum";
+    long mem = (1 << 20) * 64;
+
+    private long begin(TableManager tbm, boolean repeatableRead) {
+        Begin begin = new Begin();
+        begin.isRepeatableRead = repeatableRead;
+        return tbm.begin(begin).xid;
+    }
+
+    private void exec(TableManager tbm, long xid, String stat) throws Exception {
+        Object res = Parser.Parse(stat.getBytes());
+        if(res instanceof Create) {
+            tbm.create(xid, (Create)res);
+        } else if(res instanceof Insert) {
+            tbm.insert(xid, (Insert)res);
+        } else if(res instanceof Update) {
+            tbm.update(xid, (Update)res);
+        }
+    }
+
+    private String select(TableManager tbm, long xid, String stat) throws Exception {
+        return new String(tbm.read(xid, (Select)Parser.Parse(stat.getBytes())));
+    }
+
+    @Test
+    public void testVacuum() throws Exception {
+        TransactionManager tm = TransactionManager.create(path);
+        DataManager dm = DataManager.create(path, mem, tm);
+        VersionManager vm = VersionManager.newVersionManager(tm, dm);
+        TableManager tbm = TableManager.create(path, vm, dm);
+
+        long xid = begin(tbm, false);
+        exec(tbm, xid, "create table t id int32, v int32 (index id v)");
+        for(int i = 0; i < 10; i ++) {
+            exec(tbm, xid, "insert into t values " + i + " 0");
+        }
+        tbm.commit(xid);
+
+        // 可重复读的事务开始后，其他事务的更新产生的旧版本仍然对它可见
+        long reader = begin(tbm, true);
+        for(int round = 1; round <= 5; round ++) {
+            xid = begin(tbm, false);
+            exec(tbm, xid, "update t set v = " + round + " where id < 100");
+            tbm.commit(xid);
+        }
+
+        Vacuum vacuum = new Vacuum(tbm, 8, 1);
+        vacuum.runPass();
+        assert vacuum.getStats().getReclaimed() == 0;
+        assert select(tbm, reader, "select * from t where id = 3").equals("[3, 0]\n");
+        tbm.commit(reader);
+
+        // 每行50个旧版本，每个旧版本在两个索引中各有一项
+        vacuum.runPass();
+        VacuumStats stats = vacuum.getStats();
+        assert stats.getReclaimed() == 50;
+        assert stats.getIndexEntriesRemoved() == 100;
+        assert stats.getPauses() > 0;
+
+        xid = begin(tbm, false);
+        assert select(tbm, xid, "select * from t where id = 3").equals("[3, 5]\n");
+        assert select(tbm, xid, "select * from t where v = 5").split("\n").length == 10;
+        assert select(tbm, xid, "select * from t where v = 0").isEmpty();
+        tbm.commit(xid);
+
+        // 没有新的旧版本时不再回收
+        vacuum.runPass();
+        assert stats.getReclaimed() == 50;
+        assert stats.getPasses() == 3;
+
+        dm.close();
+        tm.close();
+        new File(path + ".db").delete();
+        Logger.remove(path);
+        TransactionManager.remove(path);
+        new File(path + ".bt").delete();
+        FreeSpaceMap.remove(path);
+    }
+
+    @Test
+    public void testReadCommittedOverflow() throws Exception {
+        TransactionManager tm = TransactionManager.create(path);
+        DataManager dm = DataManager.create(path, mem, tm);
+        VersionManager vm = VersionManager.newVersionManager(tm, dm);
+        TableManager tbm = TableManager.create(path, vm, dm);
+
+        String large = "a".repeat(20000);
+        long xid = begin(tbm, false);
+        exec(tbm, xid, "create table t id int32, v string (index id)");
+        exec(tbm, xid, "insert into t values 1 " + large);
+        tbm.commit(xid);
+
+        // 读已提交的事务在更新提交之前读到旧版本，旧版本的溢出页要到用到时才读取
+        long writer = begin(tbm, false);
+        long reader = begin(tbm, false);
+        exec(tbm, writer, "update t set v = b where id = 1");
+        assert select(tbm, reader, "select * from t where id = 1").equals("[1, " + large + "]\n");
+        tbm.commit(writer);
+
+        Vacuum vacuum = new Vacuum(tbm, 100, 0);
+        vacuum.runPass();
+        assert vacuum.getStats().getReclaimed() == 0;
+        assert select(tbm, reader, "select * from t where id = 1").equals("[1, b]\n");
+        tbm.commit(reader);
+
+        vacuum.runPass();
+        assert vacuum.getStats().getReclaimed() == 1;
+
+        dm.close();
+        tm.close();
+        new File(path + ".db").delete();
+        Logger.remove(path);
+        TransactionManager.remove(path);
+        new File(path + ".bt").delete();
+        FreeSpaceMap.remove(path);
+    }
+
+    @Test
+    public void testFreeze() throws Exception {
+        TransactionManagerImpl tm = TransactionManager.create(path);
+        DataManager dm = DataManager.create(path, mem, tm);
+        VersionManager vm = VersionManager.newVersionManager(tm, dm);
+        TableManager tbm = TableManager.create(path, vm, dm);
+
+        long creator = begin(tbm, false);
+        exec(tbm, creator, "create table t id int32, v int32 (index id v)");
+        for(int i = 0; i < 10; i ++) {
+            exec(tbm, creator, "insert into t values " + i + " 0");
+        }
+        tbm.commit(creator);
+        long aborted = begin(tbm, false);
+        exec(tbm, aborted, "update t set v = 1 where id < 100");
+        tbm.abort(aborted);
+
+        // 活跃事务之前的事务插入的版本被冻结，它之后的事务的状态仍然保留
+        long reader = begin(tbm, true);
+        long writer = begin(tbm, false);
+        exec(tbm, writer, "insert into t values 10 0");
+        tbm.commit(writer);
+        Vacuum vacuum = new Vacuum(tbm, 100, 0);
+        vacuum.runPass();
+        assert tm.getFrozenXid() == reader;
+        assert select(tbm, reader, "select * from t where id = 3").equals("[3, 0]\n");
+        assert select(tbm, reader, "select * from t where id = 10").isEmpty();
+        tbm.commit(reader);
+
+        // 冻结的版本与已提交的版本一样可见，重新打开后不再需要被丢弃的事务状态
+        vacuum.runPass();
+        assert tm.getFrozenXid() > writer;
+        dm.close();
+        tm.close();
+
+        tm = TransactionManager.open(path);
+        dm = DataManager.open(path, mem, tm);
+        vm = VersionManager.newVersionManager(tm, dm);
+        tbm = TableManager.open(path, vm, dm);
+        long xid = begin(tbm, true);
+        assert select(tbm, xid, "select * from t where v = 0").split("\n").length == 11;
+        assert select(tbm, xid, "select * from t where v = 1").isEmpty();
+        tbm.commit(xid);
+        dm.close();
+        tm.close();
+
+        new File(path + ".db").delete();
+        Logger.remove(path);
+        TransactionManager.remove(path);
+        new File(path + ".bt").delete();
+        FreeSpaceMap.remove(path);
+    }
+}
@@ -7,6 +7,11 @@ public class MockTransactionManager implements TransactionManager {
         return 0;
     }
 
+    @Override
+    public long begin(boolean async) {
+        return 0;
+    }
+
     @Override
     public void commit(long xid) {}
 
@@ -28,6 +33,26 @@ public class MockTransactionManager implements TransactionManager {
         return false;
     }
 
+    @Override
+    public boolean isAsync(long xid) {
+        return false;
+    }
+
+    @Override
+    public void flushCommits(Runnable flushLog) {}
+
+    @Override
+    public void setStatusLog(StatusLog log) {}
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void redoStatus(long xid, byte status) {}
+
+    @Override
+    public void truncate(long xid) {}
+
     @Override
     public void close() {}
     
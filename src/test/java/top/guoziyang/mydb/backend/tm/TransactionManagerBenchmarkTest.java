@@ -0,0 +1,72 @@
+package top.guoziyang.mydb.backend.tm;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.junit.Test;
+
+/**
+ * 查询事务状态的吞吐量
+ * 逐个读取XID文件中的状态字节，与查询内存中的状态缓存比较
+ */
+public class TransactionManagerBenchmarkTest {
+
+    static final String PATH = "/tmp/tranmger_bench";
+    static final int XIDS = 100_000;
+    static final int ROUNDS = 3;
+
+    @Test
+    public void testIsCommitted() throws Exception {
+        TransactionManagerImpl tm = TransactionManager.create(PATH);
+        for(long xid = 1; xid <= XIDS; xid ++) {
+            tm.redoStatus(xid, xid % 10 == 0 ? TransactionManagerImpl.FIELD_TRAN_ABORTED : TransactionManagerImpl.FIELD_TRAN_COMMITTED);
+        }
+        tm.close();
+
+        long expected = (long)ROUNDS * (XIDS - XIDS / 10);
+
+        // 每次查询一个pread，与缓存之前的TransactionManagerImpl.checkXID相同
+        long committed = 0;
+        long start = System.nanoTime();
+        int segments = XIDS / TransactionManagerImpl.XIDS_PER_SEGMENT + 1;
+        FileChannel[] fcs = new FileChannel[segments];
+        for(int i = 0; i < segments; i ++) {
+            fcs[i] = new RandomAccessFile(TransactionManagerImpl.segmentFile(PATH, i), "r").getChannel();
+        }
+        for(int r = 0; r < ROUNDS; r ++) {
+            for(long xid = 1; xid <= XIDS; xid ++) {
+                ByteBuffer buf = ByteBuffer.wrap(new byte[1]);
+                fcs[(int)(xid / TransactionManagerImpl.XIDS_PER_SEGMENT)].read(buf, xid % TransactionManagerImpl.XIDS_PER_SEGMENT);
+                if(buf.array()[0] == TransactionManagerImpl.FIELD_TRAN_COMMITTED) committed ++;
+            }
+        }
+        for(FileChannel fc : fcs) {
+            fc.close();
+        }
+        long fileElapsed = System.nanoTime() - start;
+        assert committed == expected;
+
+        tm = TransactionManager.open(PATH);
+        committed = 0;
+        start = System.nanoTime();
+        for(int r = 0; r < ROUNDS; r ++) {
+            for(long xid = 1; xid <= XIDS; xid ++) {
+                if(tm.isCommitted(xid)) committed ++;
+            }
+        }
+        long cacheElapsed = System.nanoTime() - start;
+        tm.close();
+        assert committed == expected;
+
+        long lookups = (long)ROUNDS * XIDS;
+        System.out.println("isCommitted from xid file: " + (lookups * 1_000_000_000L / fileElapsed) + " lookups/s");
+        System.out.println("isCommitted from status cache: " + (lookups * 1_000_000_000L / cacheElapsed) + " lookups/s");
+
+        assert new File(PATH + TransactionManagerImpl.XID_SUFFIX).delete();
+        for(int i = 0; i < segments; i ++) {
+            assert TransactionManagerImpl.segmentFile(PATH, i).delete();
+        }
+    }
+}
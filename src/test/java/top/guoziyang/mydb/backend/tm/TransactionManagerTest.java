@@ -1,6 +1,5 @@
 package top.guoziyang.mydb.backend.tm;
 
-import java.io.File;
 import java.security.SecureRandom;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -36,7 +35,75 @@ public class TransactionManagerTest {
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
-        assert new File("/tmp/tranmger_test.xid").delete();
+        TransactionManager.remove("/tmp/tranmger_test");
+    }
+
+    @Test
+    public void testAsyncCommit() {
+        String path = "/tmp/tranmger_test_async";
+        TransactionManager tm = TransactionManager.create(path);
+        long sync = tm.begin();
+        long async = tm.begin(true);
+        assert !tm.isAsync(sync);
+        assert tm.isAsync(async);
+
+        tm.commit(async);
+        assert tm.isCommitted(async) && !tm.isActive(async);
+        tm.commit(sync);
+
+        // 异步提交还没有写入XID文件
+        TransactionManager reopened = TransactionManager.open(path);
+        assert reopened.isCommitted(sync);
+        assert reopened.isActive(async);
+        reopened.close();
+
+        List<String> flushed = new ArrayList<>();
+        tm.flushCommits(() -> flushed.add("log"));
+        assert flushed.size() == 1;
+        assert !tm.isAsync(async);
+        tm.flushCommits(() -> flushed.add("log"));
+        assert flushed.size() == 1;
+        tm.close();
+
+        tm = TransactionManager.open(path);
+        assert tm.isCommitted(async);
+        tm.close();
+        TransactionManager.remove(path);
+    }
+
+    @Test
+    public void testTruncate() {
+        String path = "/tmp/tranmger_test_truncate";
+        int segment = TransactionManagerImpl.XIDS_PER_SEGMENT;
+        TransactionManagerImpl tm = TransactionManager.create(path);
+        for(long xid = 1; xid <= segment * 2; xid ++) {
+            tm.redoStatus(xid, xid % 2 == 0 ? TransactionManagerImpl.FIELD_TRAN_ABORTED : TransactionManagerImpl.FIELD_TRAN_COMMITTED);
+        }
+        long active = tm.begin();
+        tm.flush();
+
+        // 只删除完全冻结的段，冻结的事务作为已提交处理
+        long frozen = segment + 10;
+        tm.truncate(frozen);
+        assert !TransactionManagerImpl.segmentFile(path, 0).exists();
+        assert TransactionManagerImpl.segmentFile(path, 1).exists();
+        assert tm.isCommitted(2) && !tm.isAborted(2) && !tm.isActive(2);
+        assert tm.isAborted(frozen);
+        assert tm.isActive(active);
+        tm.truncate(frozen - 1);
+        assert tm.getFrozenXid() == frozen;
+        tm.close();
+
+        tm = TransactionManager.open(path);
+        assert tm.getFrozenXid() == frozen;
+        assert tm.isCommitted(2);
+        assert tm.isAborted(frozen);
+        assert tm.isActive(active);
+        assert tm.begin() == active + 1;
+        tm.close();
+
+        TransactionManager.remove(path);
+        assert TransactionManagerImpl.listSegments(path).isEmpty();
     }
 
     private void worker() {
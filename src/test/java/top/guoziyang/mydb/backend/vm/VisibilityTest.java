@@ -0,0 +1,77 @@
+package top.guoziyang.mydb.backend.vm;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import top.guoziyang.mydb.backend.dm.DataManager;
+import top.guoziyang.mydb.backend.dm.logger.Logger;
+import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+import top.guoziyang.mydb.backend.dm.pageIndex.FreeSpaceMap;
+import top.guoziyang.mydb.backend.tm.TransactionManager;
+import top.guoziyang.mydb.backend.utils.RandomUtil;
+
+public class VisibilityTest {
+
+    static final String PATH = "/tmp/TestVisibility";
+
+    private byte hint(VersionManager vm, long uid) throws Exception {
+        Entry entry = Entry.loadEntry(vm, uid);
+        try {
+            return entry.getHint();
+        } finally {
+            entry.remove();
+        }
+    }
+
+    @Test
+    public void testHintBits() throws Exception {
+        TransactionManager tm = TransactionManager.create(PATH);
+        DataManager dm = DataManager.create(PATH, PageCache.PAGE_SIZE*10, tm);
+        VersionManager vm = VersionManager.newVersionManager(tm, dm);
+
+        byte[] data = RandomUtil.randomBytes(100);
+        long xid = vm.begin(0);
+        long uid0 = vm.insert(xid, data);
+        vm.commit(xid);
+        xid = vm.begin(0);
+        long uid1 = vm.insert(xid, data);
+        vm.abort(xid);
+
+        // 第一次读取时记录提示位
+        assert hint(vm, uid0) == 0;
+        xid = vm.begin(0);
+        assert Arrays.equals(vm.read(xid, uid0), data);
+        assert vm.read(xid, uid1) == null;
+        assert hint(vm, uid0) == Entry.XMIN_COMMITTED;
+        assert hint(vm, uid1) == Entry.XMIN_ABORTED;
+
+        // 删除设置新的XMAX，提交后的读取记录XMAX的提示位
+        assert vm.delete(xid, uid0);
+        vm.commit(xid);
+        xid = vm.begin(0);
+        assert vm.read(xid, uid0) == null;
+        assert hint(vm, uid0) == (Entry.XMIN_COMMITTED | Entry.XMAX_COMMITTED);
+        vm.commit(xid);
+
+        // 异步提交落盘之前不记录提交的提示位
+        xid = vm.begin(0, true);
+        long uid2 = vm.insert(xid, data);
+        vm.commit(xid);
+        long reader = vm.begin(0);
+        assert Arrays.equals(vm.read(reader, uid2), data);
+        assert hint(vm, uid2) == 0;
+        tm.flushCommits(dm::flushLog);
+        assert Arrays.equals(vm.read(reader, uid2), data);
+        assert hint(vm, uid2) == Entry.XMIN_COMMITTED;
+        vm.commit(reader);
+
+        dm.close();
+        tm.close();
+        new File(PATH + ".db").delete();
+        Logger.remove(PATH);
+        FreeSpaceMap.remove(PATH);
+        TransactionManager.remove(PATH);
+    }
+}